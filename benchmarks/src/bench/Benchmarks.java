@@ -0,0 +1,34 @@
+package bench;
+
+/**
+ * The benchmarks of the hot paths of the editor and of the RSA crypto system, run by the {@link Harness}.
+ *
+ * Build and run from the root of the repository with:
+ *
+ * mvn -B -Pbench verify [-Dbench.args="regular expressions"] [-Dbench.jvmArgs="JVM options"]
+ *
+ * For example, to compare the sequencer with the results of an earlier run:
+ *
+ * mvn -B -Pbench verify -Dbench.args=Sequencer -Dbench.jvmArgs="-Xms1g -Xmx1g -Dbench.baseline=before.csv -Dbench.csv=after.csv"
+ *
+ * The files of bench.baseline and bench.csv are relative to the benchmarks directory.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        Harness harness = new Harness(Benchmarks.class);
+        SequencerBenchmarks.addTo(harness);
+        PipelineBenchmarks.addTo(harness);
+        WireFormatBenchmarks.addTo(harness);
+        SessionBenchmarks.addTo(harness);
+        RopeBenchmarks.addTo(harness);
+        HistoryBenchmarks.addTo(harness);
+        JournalBenchmarks.addTo(harness);
+        ElectionBenchmarks.addTo(harness);
+        RSABenchmarks.addTo(harness);
+        harness.run(args);
+    }
+}
@@ -0,0 +1,193 @@
+package bench;
+
+import distedit.net.Client;
+import distedit.net.MessageOutputStream;
+import distedit.net.election.Election;
+import distedit.net.election.ElectionResult;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of how long it takes a cluster of peers to fail over to a new coordinator, for clusters of growing
+ * size, on loopback sockets.
+ *
+ * Every peer listens on its own port and answers connections like a client does, by sending the address of
+ * the coordinator before handing the socket to its {@link Election}. The peer with the highest id has failed,
+ * but is still in the list of clients, so the winner must find out that it is gone. The election is started by
+ * the peer with the lowest id, which has to contact every other peer, and an operation lasts until every live
+ * peer has learned the new coordinator. The first election of a cluster opens the links between the peers.
+ * In the following ones, the new coordinator fails and the links are reused.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class ElectionBenchmarks {
+    private static final int[] SIZES = {2, 4, 8, 16, 32};
+    private static final int ELECTIONS = 5;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    // The cluster of the previous iteration, stopped when the next one is set up
+    private static Cluster cluster;
+
+    public static void addTo(Harness harness) {
+        for (int size : SIZES) {
+            harness.add("Election.first", "peers=" + size, 1, 5, 10, iteration -> {
+                Cluster cluster = newCluster(size);
+                return cluster::elect;
+            });
+            if (size > 2) {
+                // Every election but the last leaves at least two peers
+                harness.add("Election.reused", "peers=" + size, Math.min(ELECTIONS - 1, size - 2), 5, 10,
+                        iteration -> {
+                            Cluster cluster = newCluster(size);
+                            cluster.elect();
+                            return cluster::failAndElect;
+                        });
+            }
+        }
+    }
+
+    private static Cluster newCluster(int size) throws IOException {
+        if (cluster != null) {
+            cluster.stop();
+        }
+        cluster = new Cluster(size);
+        return cluster;
+    }
+
+    /**
+     * Peers with ids from 1 to size, and a failed peer with the highest id
+     */
+    private static class Cluster {
+        private final List<Peer> peers = new ArrayList<>();
+
+        Cluster(int size) throws IOException {
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            String ip = loopback.getHostAddress();
+
+            // The failed peer has the highest id, and nothing listens on its port
+            ServerSocket failed = new ServerSocket(0, 50, loopback);
+            int failedPort = failed.getLocalPort();
+            failed.close();
+
+            List<Client> clients = new CopyOnWriteArrayList<>();
+            for (int id = 1; id <= size; id++) {
+                Peer peer = new Peer(id, new ServerSocket(0, 50, loopback), clients);
+                clients.add(new Client(peer.serverSocket.getLocalPort(), ip, id));
+                peers.add(peer);
+            }
+            clients.add(new Client(failedPort, ip, size + 1));
+            for (Peer peer : peers) {
+                peer.start();
+            }
+        }
+
+        /**
+         * Elect the live peer with the highest id, and wait until every live peer has learned it
+         */
+        Object elect() throws InterruptedException, IOException {
+            return elect(null);
+        }
+
+        /**
+         * Stop the coordinator, and elect the next one. Peers may still be answering late messages of the previous
+         * election, and take over at once, so they are told whom to expect before the coordinator is stopped.
+         */
+        Object failAndElect() throws InterruptedException, IOException {
+            return elect(peers.remove(peers.size() - 1));
+        }
+
+        private Object elect(Peer failing) throws InterruptedException, IOException {
+            int expected = peers.get(peers.size() - 1).id;
+            CountDownLatch elected = new CountDownLatch(peers.size());
+            for (Peer peer : peers) {
+                peer.expect(expected, elected);
+            }
+            if (failing != null) {
+                failing.stop();
+            }
+            peers.get(0).election.start();
+            if (!elected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("The election among " + peers.size() + " peers did not finish");
+            }
+            return elected;
+        }
+
+        void stop() throws IOException {
+            for (Peer peer : peers) {
+                peer.stop();
+            }
+        }
+    }
+
+    /**
+     * A peer, that listens for links from other peers like a client does
+     */
+    private static class Peer implements Election.Listener {
+        private final int id;
+        private final ServerSocket serverSocket;
+        private final Election election;
+        private final Thread acceptor;
+        private CountDownLatch elected;
+        private int expected;
+
+        Peer(int id, ServerSocket serverSocket, List<Client> clients) {
+            this.id = id;
+            this.serverSocket = serverSocket;
+            election = new Election(clients, serverSocket.getInetAddress().getHostAddress(),
+                    serverSocket.getLocalPort(), this);
+            election.setMyId(id);
+            acceptor = new Thread(this::acceptLinks);
+            acceptor.setDaemon(true);
+        }
+
+        void start() {
+            acceptor.start();
+        }
+
+        private void acceptLinks() {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    // Send the address of the coordinator, like ClientAcceptSocketStrategy does
+                    MessageOutputStream out = new MessageOutputStream(socket.getOutputStream());
+                    out.writeMessage(false);
+                    out.writeMessage("");
+                    out.writeMessage(0);
+                    election.accept(socket, out);
+                }
+            } catch (IOException e) {
+                // Stopped
+            }
+        }
+
+        /**
+         * Count down the latch, the first time the expected peer is elected
+         */
+        synchronized void expect(int expected, CountDownLatch elected) {
+            this.expected = expected;
+            this.elected = elected;
+        }
+
+        @Override
+        public synchronized void coordinatorElected(ElectionResult result) {
+            if (result.getWinnerId() == expected && elected != null) {
+                elected.countDown();
+                elected = null;
+            }
+        }
+
+        void stop() throws IOException {
+            serverSocket.close();
+            election.stop();
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Runs microbenchmarks the way JMH does, without depending on it.
+ *
+ * Every benchmark runs in forks of fresh JVMs, started with the same options and class path as this one, so the
+ * JIT compiles the code of one benchmark only, and the results do not depend on the benchmarks run before it.
+ * A fork runs warm-up iterations, whose results are thrown away, and then the measured iterations. Every iteration
+ * sets up fresh state, which is not timed, and times a batch of operations on it. The score is the mean time per
+ * operation over the measured iterations of all forks, and the error is half the width of its 99.9% confidence
+ * interval, like JMH reports.
+ *
+ * Configured by the system properties
+ * <ul>
+ *     <li>bench.forks: the number of forks, where 0 runs the benchmarks in this JVM (2)</li>
+ *     <li>bench.warmups: warm-up iterations per fork, unless the benchmark has its own (5)</li>
+ *     <li>bench.iterations: measured iterations per fork, unless the benchmark has its own (10)</li>
+ *     <li>bench.csv: a file to write the results to</li>
+ *     <li>bench.baseline: a file written by bench.csv in an earlier run, to compare the results with</li>
+ * </ul>
+ * Arguments are regular expressions, and only the benchmarks whose name or name:parameters match one are run.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class Harness {
+    private static final String FORK_ARGUMENT = "--fork";
+    private static final String RESULT_PREFIX = "# iteration ";
+    // Quantiles of Student's t distribution for a two sided 99.9% interval, by degrees of freedom
+    private static final double[] T_999 = {0, 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587};
+
+    /**
+     * An operation, whose result is consumed so the JIT cannot leave out the work
+     */
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    /**
+     * Sets up the state of an iteration, and returns the operation to run on it
+     */
+    public interface Setup {
+        Operation setUp(int iteration) throws Exception;
+    }
+
+    private static final class Benchmark {
+        private final String name;
+        private final String parameters;
+        private final int batch;
+        private final int warmups;
+        private final int iterations;
+        private final Setup setup;
+
+        private Benchmark(String name, String parameters, int batch, int warmups, int iterations, Setup setup) {
+            this.name = name;
+            this.parameters = parameters;
+            this.batch = batch;
+            this.warmups = warmups;
+            this.iterations = iterations;
+            this.setup = setup;
+        }
+
+        private String label() {
+            return parameters.isEmpty() ? name : name + ":" + parameters;
+        }
+    }
+
+    private final List<Benchmark> benchmarks = new ArrayList<>();
+    private final Class<?> mainClass;
+    private final int forks = Integer.getInteger("bench.forks", 2);
+    private final int defaultWarmups = Integer.getInteger("bench.warmups", 5);
+    private final int defaultIterations = Integer.getInteger("bench.iterations", 10);
+
+    // Results are stored in different slots, so the JIT cannot drop all but the last
+    private final Object[] sink = new Object[256];
+
+    /**
+     * @param mainClass the class whose main method adds the benchmarks and calls {@link #run}, started in the forks
+     */
+    public Harness(Class<?> mainClass) {
+        this.mainClass = mainClass;
+    }
+
+    /**
+     * Add a benchmark with the default number of iterations
+     * @param name the name of the benchmark
+     * @param parameters the parameters of the benchmark, like "log=1000", or an empty string
+     * @param batch the number of operations timed in every iteration
+     * @param setup sets up the state of every iteration
+     */
+    public void add(String name, String parameters, int batch, Setup setup) {
+        add(name, parameters, batch, defaultWarmups, defaultIterations, setup);
+    }
+
+    /**
+     * Add a benchmark with its own number of iterations, for operations so slow that the default takes too long
+     */
+    public void add(String name, String parameters, int batch, int warmups, int iterations, Setup setup) {
+        benchmarks.add(new Benchmark(name, parameters, batch,
+                Math.min(warmups, defaultWarmups), Math.min(iterations, defaultIterations), setup));
+    }
+
+    /**
+     * Run the benchmarks selected by the arguments, or the benchmark of this fork
+     * @param args the arguments of the main method
+     */
+    public void run(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals(FORK_ARGUMENT)) {
+            runFork(benchmarks.get(Integer.parseInt(args[1])));
+            return;
+        }
+        List<Pattern> filters = new ArrayList<>();
+        for (String arg : args) {
+            filters.add(Pattern.compile(arg));
+        }
+        Map<String, double[]> baseline = readBaseline();
+        String csv = System.getProperty("bench.csv");
+        PrintWriter csvWriter = csv == null ? null : new PrintWriter(new FileWriter(csv));
+        if (csvWriter != null) {
+            csvWriter.println("benchmark,parameters,count,score,error,units");
+        }
+
+        System.out.println("# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version")
+                + ", " + Runtime.getRuntime().availableProcessors() + " processors, options "
+                + ManagementFactory.getRuntimeMXBean().getInputArguments());
+        System.out.println("# " + forks + " forks, " + defaultWarmups + " warm-up and " + defaultIterations
+                + " measured iterations each, error is the 99.9% confidence interval");
+        System.out.println(String.format("%-48s %-22s %5s %12s   %10s  %-6s %s",
+                "Benchmark", "Parameters", "Cnt", "Score", "Error", "Units", baseline.isEmpty() ? "" : "Baseline"));
+        for (int i = 0; i < benchmarks.size(); i++) {
+            Benchmark benchmark = benchmarks.get(i);
+            if (!selected(benchmark, filters)) {
+                continue;
+            }
+            List<Double> results = new ArrayList<>();
+            if (forks == 0) {
+                results.addAll(runIterations(benchmark, false));
+            } else {
+                for (int fork = 0; fork < forks; fork++) {
+                    results.addAll(runInFork(i));
+                }
+            }
+            double[] score = summarize(results);
+            System.out.println(format(benchmark, results.size(), score, baseline.get(benchmark.label())));
+            if (csvWriter != null) {
+                csvWriter.println(String.format("%s,%s,%d,%.3f,%.3f,ns/op", benchmark.name,
+                        benchmark.parameters, results.size(), score[0], score[1]));
+                csvWriter.flush();
+            }
+        }
+        if (csvWriter != null) {
+            csvWriter.close();
+        }
+    }
+
+    private void runFork(Benchmark benchmark) throws Exception {
+        for (double nanosPerOperation : runIterations(benchmark, true)) {
+            System.out.println(RESULT_PREFIX + nanosPerOperation);
+        }
+    }
+
+    /**
+     * Run the warm-up and the measured iterations of a benchmark
+     * @param quiet true if the warm-up iterations are not printed
+     * @return the time per operation of every measured iteration, in nanoseconds
+     */
+    private List<Double> runIterations(Benchmark benchmark, boolean quiet) throws Exception {
+        List<Double> results = new ArrayList<>();
+        for (int i = 0; i < benchmark.warmups + benchmark.iterations; i++) {
+            Operation operation = benchmark.setup.setUp(i);
+            long start = System.nanoTime();
+            for (int j = 0; j < benchmark.batch; j++) {
+                sink[j & 255] = operation.run();
+            }
+            double nanosPerOperation = (System.nanoTime() - start) / (double) benchmark.batch;
+            if (i >= benchmark.warmups) {
+                results.add(nanosPerOperation);
+            } else if (!quiet) {
+                System.out.println("# warm-up " + benchmark.label() + ": " + nanosPerOperation + " ns/op");
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Run a benchmark in a new JVM, with the options and class path of this one
+     * @param index the index of the benchmark
+     * @return the time per operation of every measured iteration, in nanoseconds
+     */
+    private List<Double> runInFork(int index) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        command.add(FORK_ARGUMENT);
+        command.add(String.valueOf(index));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+        List<Double> results = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    results.add(Double.parseDouble(line.substring(RESULT_PREFIX.length())));
+                } else {
+                    // Output of the benchmarked code
+                    System.out.println("# fork: " + line);
+                }
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("The fork of " + benchmarks.get(index).label() + " exited with " + process.exitValue());
+        }
+        return results;
+    }
+
+    private static boolean selected(Benchmark benchmark, List<Pattern> filters) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (Pattern filter : filters) {
+            if (filter.matcher(benchmark.label()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the mean and the half width of the 99.9% confidence interval of the mean
+     */
+    private static double[] summarize(List<Double> results) {
+        int n = results.size();
+        double sum = 0;
+        for (double result : results) {
+            sum += result;
+        }
+        double mean = sum / n;
+        if (n < 2) {
+            return new double[]{mean, Double.NaN};
+        }
+        double squares = 0;
+        for (double result : results) {
+            squares += (result - mean) * (result - mean);
+        }
+        double deviation = Math.sqrt(squares / (n - 1));
+        return new double[]{mean, studentT999(n - 1) * deviation / Math.sqrt(n)};
+    }
+
+    /**
+     * The quantile of Student's t distribution for a two sided 99.9% interval, from a table for few degrees
+     * of freedom, and from the Cornish-Fisher expansion around the normal quantile for more
+     */
+    private static double studentT999(int degrees) {
+        if (degrees < T_999.length) {
+            return T_999[degrees];
+        }
+        double z = 3.2905;
+        double v = degrees;
+        return z + (Math.pow(z, 3) + z) / (4 * v)
+                + (5 * Math.pow(z, 5) + 16 * Math.pow(z, 3) + 3 * z) / (96 * v * v)
+                + (3 * Math.pow(z, 7) + 19 * Math.pow(z, 5) + 17 * Math.pow(z, 3) - 15 * z) / (384 * v * v * v);
+    }
+
+    /**
+     * Format a result in the unit that suits it, with the change from the baseline. The change is marked
+     * with a star if the confidence intervals do not overlap.
+     */
+    private static String format(Benchmark benchmark, int count, double[] score, double[] baseline) {
+        double scale = score[0] >= 1e6 ? 1e6 : score[0] >= 1e3 ? 1e3 : 1;
+        String units = scale == 1e6 ? "ms/op" : scale == 1e3 ? "us/op" : "ns/op";
+        String comparison = "";
+        if (baseline != null) {
+            double change = (score[0] - baseline[0]) / baseline[0] * 100;
+            boolean significant = Math.abs(score[0] - baseline[0]) > score[1] + baseline[1];
+            comparison = String.format("%+.1f%%%s", change, significant ? " *" : "");
+        }
+        return String.format("%-48s %-22s %5d %12.3f +- %10.3f  %-6s %s", benchmark.name, benchmark.parameters,
+                count, score[0] / scale, score[1] / scale, units, comparison);
+    }
+
+    /**
+     * @return the score and error of every benchmark in the baseline file, in nanoseconds per operation
+     */
+    private static Map<String, double[]> readBaseline() throws IOException {
+        Map<String, double[]> baseline = new HashMap<>();
+        String file = System.getProperty("bench.baseline");
+        if (file == null) {
+            return baseline;
+        }
+        List<String> lines = Files.readAllLines(new File(file).toPath());
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",", -1);
+            String label = fields[1].isEmpty() ? fields[0] : fields[0] + ":" + fields[1];
+            baseline.put(label, new double[]{Double.parseDouble(fields[3]), Double.parseDouble(fields[4])});
+        }
+        return baseline;
+    }
+}
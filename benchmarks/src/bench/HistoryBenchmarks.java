@@ -0,0 +1,43 @@
+package bench;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.history.StandardTextEventHistory;
+
+/**
+ * Benchmarks of {@link StandardTextEventHistory}, with the events put and taken by one thread,
+ * and handed over from a thread putting them to the measured thread taking them, like the receiver
+ * of a connection and the event replayer.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class HistoryBenchmarks {
+    private static final int BATCH = 1000000;
+
+    public static void addTo(Harness harness) {
+        MyTextEvent event = new TextInsertEvent(0, "a", -1);
+        harness.add("StandardTextEventHistory.putTake", "threads=1", BATCH, iteration -> {
+            StandardTextEventHistory history = new StandardTextEventHistory();
+            return () -> {
+                history.put(event);
+                return history.take();
+            };
+        });
+        harness.add("StandardTextEventHistory.putTake", "threads=2", BATCH, iteration -> {
+            StandardTextEventHistory history = new StandardTextEventHistory();
+            Thread producer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < BATCH; i++) {
+                        history.put(event);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            producer.setDaemon(true);
+            producer.start();
+            return history::take;
+        });
+    }
+}
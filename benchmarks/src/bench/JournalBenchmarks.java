@@ -0,0 +1,107 @@
+package bench;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+import distedit.event.history.EventJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Benchmarks of appending events to the {@link EventJournal} in each durability mode, and of reading a journal
+ * back when the coordinator is restarted.
+ *
+ * The events are small insertions and removals, like those typed by users. The journals are written in
+ * temporary directories, in the directory of the system property bench.journal.directory if it is set,
+ * which should be on the disk to measure.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class JournalBenchmarks {
+    private static final int BATCH = 1000000;
+    private static final int RECOVERED_EVENTS = 1000000;
+    private static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 100;
+    // Sync after every N events, where 0 is the asynchronous mode
+    private static final int[] SYNC_EVERY = {0, 1024, 64, 1};
+
+    // The journal of the previous iteration, closed and deleted when the next one is set up
+    private static EventJournal journal;
+    private static File directory;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(JournalBenchmarks::cleanUp));
+    }
+
+    public static void addTo(Harness harness) {
+        for (int syncEvery : SYNC_EVERY) {
+            String mode = syncEvery == 0 ? "sync=async" : "sync=" + syncEvery;
+            // Syncing every event is slow, so fewer events are enough
+            int batch = syncEvery == 1 ? BATCH / 100 : BATCH;
+            harness.add("EventJournal.append", mode, batch, iteration -> {
+                EventJournal journal = open(syncEvery);
+                int[] next = {0};
+                return () -> {
+                    journal.append(newEvent(next[0]++));
+                    return journal;
+                };
+            });
+        }
+        harness.add("EventJournal.open", "events=" + RECOVERED_EVENTS, 1, 2, 5, iteration -> {
+            EventJournal written = open(0);
+            for (int i = 0; i < RECOVERED_EVENTS; i++) {
+                written.append(newEvent(i));
+            }
+            written.close();
+            int[] recovered = {0};
+            return () -> {
+                journal = EventJournal.open(directory, 1, SEGMENT_BYTES, 0, FLUSH_INTERVAL_MILLIS,
+                        event -> recovered[0]++);
+                return recovered[0];
+            };
+        });
+    }
+
+    /**
+     * Close and delete the journal of the previous iteration, and open a new one
+     */
+    private static EventJournal open(int syncEvery) throws IOException {
+        cleanUp();
+        String parent = System.getProperty("bench.journal.directory");
+        directory = parent == null
+                ? Files.createTempDirectory("distedit-journal").toFile()
+                : Files.createTempDirectory(new File(parent).toPath(), "distedit-journal").toFile();
+        journal = EventJournal.open(directory, 1, SEGMENT_BYTES, syncEvery, FLUSH_INTERVAL_MILLIS, event -> { });
+        return journal;
+    }
+
+    private static synchronized void cleanUp() {
+        if (journal != null) {
+            journal.close();
+        }
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+            directory = null;
+        }
+    }
+
+    /**
+     * Make an event like a user typing a character, or sometimes removing one
+     */
+    private static MyTextEvent newEvent(int sequenceNumber) {
+        MyTextEvent event = sequenceNumber % 10 == 9
+                ? new TextRemoveEvent(sequenceNumber % 100, 1, sequenceNumber - 1)
+                : new TextInsertEvent(sequenceNumber % 100, "a", sequenceNumber - 1);
+        event.setSequenceNumber(sequenceNumber);
+        return event;
+    }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.history.StandardTextEventHistory;
+import distedit.event.pipeline.EventPipeline;
+import distedit.event.sequencer.TextEventSequencer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks of sequencing the events of several producers, like the reader threads of the connections of
+ * a coordinator, through
+ * <ul>
+ *     <li>the queues of the {@link distedit.net.ConnectionManager}: producers put events in an incoming queue,
+ *         a receiver thread sequences them and puts them in the history</li>
+ *     <li>the {@link EventPipeline} of the {@link TextEventSequencer}: producers publish events to the ring
+ *         buffer, the sequencer stage sequences them and the journal stage puts them in the history</li>
+ * </ul>
+ * The measured thread takes the sequenced events from the history, like the broadcaster, so the score is the
+ * time per event through the whole path.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class PipelineBenchmarks {
+    private static final int PRODUCERS = 4;
+    private static final int BATCH = 200000;
+    // Without a connection manager, the sequencer keeps no more than the events since its previous snapshot,
+    // at least a thousand, so events waiting in the buffer or the queue must not lag further behind than that
+    private static final int BUFFER_SIZE = 512;
+    private static final int INCOMING_CAPACITY = 512;
+
+    public static void addTo(Harness harness) {
+        harness.add("TextEventSequencer.queues", "producers=" + PRODUCERS, BATCH, iteration -> setUp(false));
+        harness.add("TextEventSequencer.pipeline", "producers=" + PRODUCERS, BATCH, iteration -> setUp(true));
+    }
+
+    /**
+     * Start the producers, and the receiver or the pipeline, that sequence a batch of events
+     * @param pipeline true to use the pipeline, false to use queues
+     */
+    private static Harness.Operation setUp(boolean pipeline) {
+        // Producers base their events on the latest event sequenced, like clients on the latest event replayed
+        AtomicInteger latest = new AtomicInteger(-1);
+        StandardTextEventHistory history = new StandardTextEventHistory() {
+            @Override
+            public void put(MyTextEvent event) throws InterruptedException {
+                latest.set(event.getSequenceNumber());
+                super.put(event);
+            }
+        };
+        TextEventSequencer sequencer = new TextEventSequencer(history);
+        BlockingQueue<MyTextEvent> incoming = new LinkedBlockingQueue<>(INCOMING_CAPACITY);
+        if (pipeline) {
+            sequencer.startPipeline(BUFFER_SIZE);
+        } else {
+            Thread receiver = new Thread(() -> {
+                try {
+                    for (int i = 0; i < BATCH; i++) {
+                        sequencer.sequenceEvent(incoming.take());
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            Thread producer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < BATCH / PRODUCERS; i++) {
+                        MyTextEvent event = new TextInsertEvent(i % 100, "a", latest.get());
+                        if (pipeline) {
+                            sequencer.sequenceEvent(event);
+                        } else {
+                            incoming.put(event);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            producer.setDaemon(true);
+            producer.start();
+        }
+
+        int[] taken = {0};
+        return () -> {
+            MyTextEvent event = history.take();
+            if (++taken[0] == BATCH) {
+                sequencer.stopPipeline();
+            }
+            return event;
+        };
+    }
+}
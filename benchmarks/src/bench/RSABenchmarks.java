@@ -0,0 +1,73 @@
+package bench;
+
+import rsa.RSACryptoSystem;
+import rsa.RSAKeyPair;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Benchmarks of {@link RSACryptoSystem} across key sizes. The keys and messages are made from fixed seeds,
+ * so every run measures the same keys, and key generation finds the same primes in every run.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class RSABenchmarks {
+    private static final int[] KEY_SIZES = {1024, 2048, 3072};
+    private static final int MESSAGES = 16;
+
+    public static void addTo(Harness harness) {
+        for (int keySize : KEY_SIZES) {
+            // Every iteration generates the key of its own seed, the same in every run
+            harness.add("RSACryptoSystem.keyGen", "bits=" + keySize, 1, 2, 5,
+                    iteration -> () -> RSACryptoSystem.keyGen(keySize, new Random(iteration)));
+
+            RSAKeyPair[] key = new RSAKeyPair[1];
+            BigInteger[] messages = messages(32);
+            harness.add("RSACryptoSystem.sign", "bits=" + keySize, 20, iteration -> {
+                RSAKeyPair pair = key(key, keySize);
+                int[] next = {0};
+                return () -> RSACryptoSystem.sign(pair.getSecretKey(), messages[next[0]++ % MESSAGES]);
+            });
+            harness.add("RSACryptoSystem.verify", "bits=" + keySize, 10000, iteration -> {
+                RSAKeyPair pair = key(key, keySize);
+                BigInteger[] signatures = new BigInteger[MESSAGES];
+                for (int i = 0; i < MESSAGES; i++) {
+                    signatures[i] = RSACryptoSystem.sign(pair.getSecretKey(), messages[i]);
+                }
+                int[] next = {0};
+                return () -> {
+                    int i = next[0]++ % MESSAGES;
+                    return RSACryptoSystem.verify(pair.getRSAPublicKey(), messages[i], signatures[i]);
+                };
+            });
+        }
+        for (int bytes : new int[]{32, 10000}) {
+            BigInteger[] messages = messages(bytes);
+            harness.add("RSACryptoSystem.hashWithSHA256", "bytes=" + bytes, 10000, iteration -> {
+                int[] next = {0};
+                return () -> RSACryptoSystem.hashWithSHA256(messages[next[0]++ % MESSAGES]);
+            });
+        }
+    }
+
+    /**
+     * @return the key of the fork, generated the first time it is needed
+     */
+    private static RSAKeyPair key(RSAKeyPair[] key, int keySize) {
+        if (key[0] == null) {
+            key[0] = RSACryptoSystem.keyGen(keySize, new Random(keySize));
+        }
+        return key[0];
+    }
+
+    private static BigInteger[] messages(int bytes) {
+        Random random = new Random(bytes);
+        BigInteger[] messages = new BigInteger[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = new BigInteger(8 * bytes, random);
+        }
+        return messages;
+    }
+}
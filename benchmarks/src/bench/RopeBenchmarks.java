@@ -0,0 +1,69 @@
+package bench;
+
+import distedit.document.Rope;
+
+import java.util.Random;
+
+/**
+ * Benchmarks of inserting and removing a character at random offsets of documents of growing size, and of taking
+ * a snapshot of the document, with a {@link Rope} and with a StringBuilder, as the sequencer used before.
+ * The cost with the rope should grow with the logarithm of the size, not linearly.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class RopeBenchmarks {
+    private static final int BATCH = 100000;
+    private static final int SNAPSHOT_BATCH = 100;
+    private static final int[] SIZES = {10000, 100000, 1000000, 10000000};
+    // The harness keeps the results of the operations, so the snapshots of a StringBuilder are kept smaller
+    private static final int[] SNAPSHOT_SIZES = {10000, 100000, 1000000};
+
+    public static void addTo(Harness harness) {
+        for (int size : SIZES) {
+            harness.add("Rope.insertRemove", "size=" + size, BATCH, iteration -> {
+                Rope[] rope = {Rope.of(text(size))};
+                Random random = new Random(size + iteration);
+                int[] edits = {0};
+                return () -> {
+                    int offset = random.nextInt(rope[0].length());
+                    rope[0] = edits[0]++ % 2 == 0 ? rope[0].insert(offset, "a") : rope[0].remove(offset, 1);
+                    return rope[0];
+                };
+            });
+            // Editing a large builder is slow, so fewer edits are enough
+            int batch = Math.max(1000, BATCH / Math.max(1, size / 100000));
+            harness.add("StringBuilder.insertRemove", "size=" + size, batch, iteration -> {
+                StringBuilder builder = new StringBuilder(text(size));
+                Random random = new Random(size + iteration);
+                int[] edits = {0};
+                return () -> {
+                    int offset = random.nextInt(builder.length());
+                    return edits[0]++ % 2 == 0 ? builder.insert(offset, "a") : builder.deleteCharAt(offset);
+                };
+            });
+        }
+        for (int size : SNAPSHOT_SIZES) {
+            // A snapshot of a rope is the rope itself, after an edit
+            harness.add("Rope.snapshot", "size=" + size, SNAPSHOT_BATCH, iteration -> {
+                Rope[] rope = {Rope.of(text(size))};
+                int[] next = {0};
+                return () -> rope[0] = rope[0].insert(next[0]++, "a");
+            });
+            harness.add("StringBuilder.snapshot", "size=" + size, SNAPSHOT_BATCH, iteration -> {
+                StringBuilder builder = new StringBuilder(text(size));
+                int[] next = {0};
+                return () -> builder.insert(next[0]++, "a").toString();
+            });
+        }
+    }
+
+    private static String text(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append("The quick brown fox jumps over the lazy dog. ");
+        }
+        builder.setLength(size);
+        return builder.toString();
+    }
+}
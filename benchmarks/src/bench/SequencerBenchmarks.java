@@ -0,0 +1,54 @@
+package bench;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.history.DiscardingTextEventHistory;
+import distedit.event.sequencer.TextEventSequencer;
+
+/**
+ * Benchmarks of {@link TextEventSequencer#sequenceEvent} across log sizes.
+ *
+ * Events based on the latest event are only sequenced. Events based on an older event are also transformed
+ * against the events sequenced since, which is what transformEvent does, and its cost grows with the lag.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class SequencerBenchmarks {
+    private static final int BATCH = 10000;
+    private static final int[] LOG_SIZES = {1000, 100000, 1000000};
+    private static final int[] LAGS = {8, 64};
+
+    public static void addTo(Harness harness) {
+        for (int logSize : LOG_SIZES) {
+            harness.add("TextEventSequencer.sequenceEvent", "log=" + logSize, BATCH, iteration -> setUp(logSize, 0));
+            for (int lag : LAGS) {
+                harness.add("TextEventSequencer.transformEvent", "log=" + logSize + " lag=" + lag, BATCH,
+                        iteration -> setUp(logSize, lag));
+            }
+        }
+    }
+
+    /**
+     * Fill a sequencer with events, and make the events to sequence next
+     * @param logSize the number of events in the log
+     * @param lag how many events behind the latest event the next events are based on
+     */
+    private static Harness.Operation setUp(int logSize, int lag) throws InterruptedException {
+        TextEventSequencer sequencer = new TextEventSequencer(new DiscardingTextEventHistory());
+        for (int i = 0; i < logSize; i++) {
+            sequencer.sequenceEvent(new TextInsertEvent(i % 100, "a", i - 1));
+        }
+        MyTextEvent[] events = new MyTextEvent[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            int sequenceNumber = logSize + i;
+            events[i] = new TextInsertEvent(sequenceNumber % 100, "a", sequenceNumber - 1 - lag);
+        }
+        int[] next = {0};
+        return () -> {
+            MyTextEvent event = events[next[0]++];
+            sequencer.sequenceEvent(event);
+            return event;
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package bench;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+import distedit.event.history.StandardTextEventHistory;
+import distedit.event.history.TextEventHistory;
+import distedit.event.sequencer.TextEventSequencer;
+import distedit.net.MessageInputStream;
+import distedit.net.MessageOutputStream;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Benchmarks of a long editing session, where a sequencer streams its events over a loopback socket to the
+ * measured thread, which replays them on a text like a client.
+ *
+ * The session goes on across the iterations of a fork, and before every iteration the retained heap is printed,
+ * which should stay flat. Connections used to keep an {@link ObjectOutputStream} and an {@link ObjectInputStream}
+ * for their whole lifetime, whose handle tables keep a reference to every event ever sent, so the session is also
+ * run through object streams to show the growth. The frames of {@link MessageOutputStream} are stateless, so
+ * nothing is retained across messages.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class SessionBenchmarks {
+    // Kept small enough that the object streams of all iterations fit in a heap of 1 GB
+    private static final int BATCH = 100000;
+
+    // The session of this fork, which goes on across its iterations
+    private static Session session;
+
+    public static void addTo(Harness harness) {
+        harness.add("MessageInputStream.session", "", BATCH, iteration -> setUp(false));
+        harness.add("ObjectInputStream.session", "", BATCH, iteration -> setUp(true));
+    }
+
+    private static Harness.Operation setUp(boolean serialization) throws IOException {
+        if (session == null) {
+            session = new Session(serialization);
+        } else {
+            session.printRetainedHeap();
+        }
+        return session::replayNext;
+    }
+
+    /**
+     * A coordinator thread sequencing a stream of typing, where the document grows to a hundred characters and then
+     * every insert is deleted again so the document stays small, and the client end of its connection
+     */
+    private static class Session {
+        private final boolean serialization;
+        private final ObjectInputStream objectIn;
+        private final MessageInputStream messageIn;
+        private final StringBuilder text = new StringBuilder();
+        private long replayed;
+
+        Session(boolean serialization) throws IOException {
+            this.serialization = serialization;
+            ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            Socket clientSocket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            Socket coordinatorSocket = serverSocket.accept();
+            serverSocket.close();
+
+            Thread coordinator = new Thread(() -> {
+                try {
+                    runCoordinator(coordinatorSocket);
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            coordinator.setDaemon(true);
+            coordinator.start();
+
+            objectIn = serialization ? new ObjectInputStream(clientSocket.getInputStream()) : null;
+            messageIn = serialization ? null : new MessageInputStream(clientSocket.getInputStream());
+        }
+
+        private void runCoordinator(Socket socket) throws IOException, InterruptedException {
+            TextEventHistory history = new StandardTextEventHistory();
+            TextEventSequencer sequencer = new TextEventSequencer(history);
+            ObjectOutputStream objectOut = serialization ? new ObjectOutputStream(socket.getOutputStream()) : null;
+            MessageOutputStream messageOut = serialization ? null : new MessageOutputStream(socket.getOutputStream());
+
+            for (int i = 0; ; i++) {
+                int offset = i % 100;
+                MyTextEvent event = i < 100 || i % 2 == 0
+                        ? new TextInsertEvent(offset, String.valueOf((char) ('a' + i % 26)), i - 1)
+                        : new TextRemoveEvent(offset, 1, i - 1);
+                sequencer.sequenceEvent(event);
+                MyTextEvent sequenced = history.take();
+                if (serialization) {
+                    objectOut.writeObject(sequenced);
+                } else {
+                    messageOut.writeMessage(sequenced);
+                }
+            }
+        }
+
+        /**
+         * Read the next event and apply it to the text, like the {@link distedit.EventReplayer} of a client
+         */
+        Object replayNext() throws IOException, ClassNotFoundException {
+            MyTextEvent event = (MyTextEvent) (serialization ? objectIn.readObject() : messageIn.readMessage());
+            if (event instanceof TextInsertEvent) {
+                text.insert(event.getOffset(), ((TextInsertEvent) event).getText());
+            } else if (event instanceof TextRemoveEvent) {
+                text.delete(event.getOffset(), event.getOffset() + ((TextRemoveEvent) event).getLength());
+            }
+            replayed++;
+            return event;
+        }
+
+        void printRetainedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            System.gc();
+            long retained = runtime.totalMemory() - runtime.freeMemory();
+            System.out.println(String.format("%9d events: %8d KiB retained, document length %d",
+                    replayed, retained / 1024, text.length()));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package bench;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+import distedit.net.MessageInputStream;
+import distedit.net.MessageOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Benchmarks of encoding and decoding the events sent by a {@link distedit.net.Connection},
+ * for a typed character, a pasted block of text and a removal. For comparison, the same events are written and read
+ * with Java serialization through long lived object streams, as connections used to do.
+ *
+ * @author DA4-03
+ * @version 2017-06-17
+ */
+public class WireFormatBenchmarks {
+    private static final int BATCH = 100000;
+
+    public static void addTo(Harness harness) {
+        String[] kinds = {"typing", "paste", "remove"};
+        for (String kind : kinds) {
+            harness.add("MessageOutputStream.writeMessage", "event=" + kind, BATCH, iteration -> {
+                MessageOutputStream out = new MessageOutputStream(new DiscardingOutputStream());
+                MyTextEvent event = newEvent(kind);
+                return () -> {
+                    out.writeMessage(event);
+                    return out;
+                };
+            });
+            harness.add("MessageInputStream.readMessage", "event=" + kind, BATCH, iteration -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                MessageOutputStream out = new MessageOutputStream(bytes);
+                MyTextEvent event = newEvent(kind);
+                for (int i = 0; i < BATCH; i++) {
+                    out.writeMessage(event);
+                }
+                MessageInputStream in = new MessageInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+                return in::readMessage;
+            });
+            harness.add("ObjectOutputStream.writeObject", "event=" + kind, BATCH, iteration -> {
+                ObjectOutputStream out = new ObjectOutputStream(new DiscardingOutputStream());
+                MyTextEvent[] events = newEvents(kind);
+                int[] next = {0};
+                return () -> {
+                    out.writeObject(events[next[0]++]);
+                    return out;
+                };
+            });
+            harness.add("ObjectInputStream.readObject", "event=" + kind, BATCH, iteration -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                for (MyTextEvent event : newEvents(kind)) {
+                    out.writeObject(event);
+                }
+                out.flush();
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+                return in::readObject;
+            });
+        }
+    }
+
+    /**
+     * Distinct events, since an object stream writes an event it has written before as a reference to it
+     */
+    private static MyTextEvent[] newEvents(String kind) {
+        MyTextEvent[] events = new MyTextEvent[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            events[i] = newEvent(kind);
+        }
+        return events;
+    }
+
+    private static MyTextEvent newEvent(String kind) {
+        MyTextEvent event;
+        if (kind.equals("paste")) {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 1000) {
+                text.append("The quick brown fox jumps over the lazy dog. ");
+            }
+            event = new TextInsertEvent(12345, text.substring(0, 1000), 67888);
+        } else if (kind.equals("remove")) {
+            event = new TextRemoveEvent(12345, 1, 67888);
+        } else {
+            event = new TextInsertEvent(12345, "a", 67888);
+        }
+        event.setSequenceNumber(67890);
+        return event;
+    }
+
+    /**
+     * Throws the bytes away, so only the encoding is measured
+     */
+    private static class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
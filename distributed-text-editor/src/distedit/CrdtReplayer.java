@@ -0,0 +1,92 @@
+package distedit;
+
+import distedit.crdt.CrdtOperation;
+import distedit.crdt.CrdtReplica;
+import distedit.crdt.PeerMesh;
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+
+import javax.swing.JTextArea;
+import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Takes the operations received by a {@link PeerMesh}, merges them into its {@link CrdtReplica},
+ * and replays the edits they make in a JTextArea.
+ *
+ * The operations are merged on the event dispatch thread, where local edits are made, so the replica and the area
+ * always hold the same text. Like the {@link EventReplayer}, the operations are merged in batches, one task on the
+ * event dispatch thread at a time, with the operations arriving meanwhile taken as the next batch.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class CrdtReplayer implements PeerMesh.Listener, Runnable {
+    // Largest number of operations merged in one task on the event dispatch thread
+    private static final int MAX_BATCH = Integer.getInteger("distedit.replay.maxBatch", 10000);
+
+    private final BlockingQueue<CrdtOperation> operations = new LinkedBlockingQueue<>();
+    private final CrdtReplica replica;
+    private final JTextArea area;
+    private final DocumentEventCapturer documentEventCapturer;
+    private final Semaphore frame = new Semaphore(1);
+
+    public CrdtReplayer(CrdtReplica replica, JTextArea area, DocumentEventCapturer documentEventCapturer) {
+        this.replica = replica;
+        this.area = area;
+        this.documentEventCapturer = documentEventCapturer;
+    }
+
+    @Override
+    public void received(CrdtOperation operation) {
+        operations.add(operation);
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                List<CrdtOperation> batch = new ArrayList<>();
+                batch.add(operations.take());
+                frame.acquire();
+                operations.drainTo(batch, MAX_BATCH - 1);
+                EventQueue.invokeLater(() -> {
+                    try {
+                        replay(batch);
+                    } finally {
+                        frame.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            System.out.println("I'm the thread running the CrdtReplayer, now I die!");
+        }
+    }
+
+    private void replay(List<CrdtOperation> batch) {
+        // Deactivate the capturer, to avoid infinite playbacks
+        documentEventCapturer.deactivate();
+        try {
+            for (CrdtOperation operation : batch) {
+                for (MyTextEvent edit : replica.receive(operation)) {
+                    if (edit instanceof TextInsertEvent) {
+                        area.insert(((TextInsertEvent) edit).getText(), edit.getOffset());
+                    } else {
+                        area.replaceRange(null, edit.getOffset(), edit.getOffset() + ((TextRemoveEvent) edit).getLength());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            /* We catch all exceptions, as an uncaught exception would make the
+             * EDT unwind, which is not healthy.
+             */
+            e.printStackTrace();
+        } finally {
+            documentEventCapturer.activate();
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package distedit;
 
+import distedit.crdt.PeerMesh;
 import distedit.event.TextInsertEvent;
 import distedit.event.dispatch.ClientDispatcher;
+import distedit.event.dispatch.CoalescingDispatcher;
+import distedit.event.dispatch.CrdtDispatcher;
 import distedit.event.dispatch.LocalDispatcher;
+import distedit.event.dispatch.OptimisticDispatcher;
 import distedit.event.dispatch.ServerDispatcher;
 import distedit.event.dispatch.TextEventDispatcher;
 import distedit.event.history.StandardTextEventHistory;
@@ -13,6 +17,8 @@ import distedit.net.strategies.ClientAcceptSocketStrategy;
 import distedit.net.strategies.ClientReceiveEventStrategy;
 import distedit.net.strategies.ServerAcceptSocketStrategy;
 import distedit.net.strategies.ServerReceiveEventStrategy;
+import distedit.trace.Trace;
+import distedit.trace.TraceRecorder;
 
 import javax.swing.*;
 import javax.swing.text.AbstractDocument;
@@ -26,7 +32,11 @@ import java.io.IOException;
  * A text editor that is able to run locally or act as a server or a client
  * and establish connections to other text editors.
  */
-public class DistributedTextEditor extends JFrame {
+public class DistributedTextEditor extends JFrame implements Editor {
+
+    // Run with -Ddistedit.crdt=true to edit peer-to-peer, merging the edits of the peers with a CRDT,
+    // instead of through a coordinator
+    private static final boolean CRDT = Boolean.getBoolean("distedit.crdt");
 
     // Text areas and text fields in the GUI
     private JTextArea area1 = new JTextArea(40,120);
@@ -36,6 +46,8 @@ public class DistributedTextEditor extends JFrame {
     // The eventReplayer is responsible for replaying events in area2
     private EventReplayer eventReplayer;
     private Thread eventReplayerThread;
+    // Records the latency of the traced events replayed, if tracing is enabled
+    private TraceRecorder traceRecorder;
 
     // A JFileChooser for choosing where to save a document
     private JFileChooser dialog =
@@ -57,6 +69,10 @@ public class DistributedTextEditor extends JFrame {
     // managing internet connections to other text editors
     private ConnectionManager manager = null;
 
+    // The mesh of peers, and the thread merging their operations, in the peer-to-peer mode
+    private PeerMesh mesh = null;
+    private Thread crdtReplayerThread;
+
     // Save this instance for access in anonymous classes
     private DistributedTextEditor editor = this;
 
@@ -138,6 +154,14 @@ public class DistributedTextEditor extends JFrame {
         eventReplayer.setDocumentEventCapturer(documentEventCapturer);
         eventReplayerThread = new Thread(eventReplayer);
         eventReplayerThread.start();
+
+        // Run with -Ddistedit.trace=true to trace the typed events, and print the latency of every hop
+        // of the traced events replayed here every distedit.trace.reportIntervalMillis
+        if (Trace.ENABLED) {
+            traceRecorder = new TraceRecorder();
+            traceRecorder.startReporting(Long.getLong("distedit.trace.reportIntervalMillis", 10000));
+            eventReplayer.setTraceRecorder(traceRecorder);
+        }
     }
 
     /**
@@ -177,22 +201,34 @@ public class DistributedTextEditor extends JFrame {
                 Connect.setEnabled(false);
                 Disconnect.setEnabled(true);
 
+                if (CRDT) {
+                    joinPeerMesh(null, 0);
+                    return;
+                }
+
                 // Initialize a new event history
                 textEventHistory = new StandardTextEventHistory();
 
-                TextEventSequencer sequencer = new TextEventSequencer(textEventHistory);
-                TextEventDispatcher dispatcher = new ServerDispatcher(sequencer);
+                // Run with -Ddistedit.journal=DIRECTORY to journal the events, and go on with the session in it
+                TextEventSequencer sequencer = TextEventSequencer.forCoordinator(textEventHistory);
+                TextEventDispatcher dispatcher = CoalescingDispatcher.wrap(new ServerDispatcher(sequencer));
                 // Tell the documentEventCapturer how to dispatch captured events
-                documentEventCapturer.setTextEventDispatcher(dispatcher);
+                setTextEventDispatcher(dispatcher);
 
-                // Instantiate a connection manager that listens for incoming connections
+                // Instantiate a connection manager that listens for incoming connections.
+                // Run with -Ddistedit.ioThreads=N to serve the clients with N selector threads.
                 manager = new ConnectionManager(editor,
                                                 new ServerAcceptSocketStrategy(sequencer),
                                                 new ServerReceiveEventStrategy(sequencer),
                                                 textEventHistory,
-                                                true);
+                                                true,
+                                                Integer.getInteger("distedit.ioThreads", 0));
 
                 sequencer.setManager(manager);
+                manager.setReplayProgress(() -> eventReplayer.getLatestReplayedEventNumber());
+                manager.setReplayCounters(() -> eventReplayer.getReplayedEventCount(),
+                        () -> eventReplayer.getReplayedBatchCount());
+                startPipelineIfEnabled(sequencer);
                 manager.start();
 
                 // Tell the user on which IP and port the server is listening by setting the editor's title
@@ -239,6 +275,11 @@ public class DistributedTextEditor extends JFrame {
                 Listen.setEnabled(false);
                 Connect.setEnabled(false);
 
+                if (CRDT) {
+                    joinPeerMesh(serverIP, serverPort);
+                    return;
+                }
+
                 // Initialize a new event history
                 textEventHistory = new StandardTextEventHistory();
 
@@ -249,13 +290,28 @@ public class DistributedTextEditor extends JFrame {
                         textEventHistory,
                         false);
 
+                // Run with -Ddistedit.standby=true to keep a copy of the log of the coordinator, and take over
+                // from it without resending the document. A standby replicates the events the coordinator sends
+                // back, so it is never optimistic.
+                boolean standby = Boolean.getBoolean("distedit.standby");
+                manager.setStandby(standby);
+                // Run with -Ddistedit.optimistic=true to show local edits right away,
+                // instead of when the coordinator sends them back
+                boolean optimistic = !standby && Boolean.getBoolean("distedit.optimistic");
+                manager.setOptimistic(optimistic);
+                manager.setReplayProgress(() -> eventReplayer.getLatestReplayedEventNumber());
+                manager.setReplayCounters(() -> eventReplayer.getReplayedEventCount(),
+                        () -> eventReplayer.getReplayedBatchCount());
                 manager.connectToServer(serverIP, serverPort);
                 manager.start();
 
-                TextEventDispatcher dispatcher = new ClientDispatcher(manager);
+                // An optimistic client buffers its events while waiting for acknowledgements, which merges them
+                TextEventDispatcher dispatcher = optimistic
+                        ? new OptimisticDispatcher(new ClientDispatcher(manager))
+                        : CoalescingDispatcher.wrap(new ClientDispatcher(manager));
 
                 // Tell the documentEventCapturer how to dispatch captured events
-                documentEventCapturer.setTextEventDispatcher(dispatcher);
+                setTextEventDispatcher(dispatcher);
 
                 // Restart the event replayer with the new history
                 restartEventReplayer();
@@ -269,6 +325,27 @@ public class DistributedTextEditor extends JFrame {
         }
     };
 
+    /**
+     * Edit peer-to-peer in a {@link PeerMesh}, either alone until other peers join, or by joining the mesh of a peer.
+     * Local edits are applied right away, and the operations of the other peers are merged by a {@link CrdtReplayer}.
+     * @param IP the address of a peer in the mesh to join, or null to start a mesh
+     * @param port the port of the peer
+     */
+    private void joinPeerMesh(String IP, int port) {
+        mesh = new PeerMesh();
+        CrdtReplayer crdtReplayer = new CrdtReplayer(mesh.getReplica(), area1, documentEventCapturer);
+        mesh.setListener(crdtReplayer);
+        crdtReplayerThread = new Thread(crdtReplayer);
+        crdtReplayerThread.start();
+        setTextEventDispatcher(new CrdtDispatcher(mesh));
+        mesh.start();
+
+        if (IP != null && !mesh.join(IP, port)) {
+            JOptionPane.showMessageDialog(editor, "Could not join the peer at " + IP + ":" + port);
+        }
+        setTitle("I'm a peer. Listening on " + mesh.getMyIP() + ":" + mesh.getMyPort());
+    }
+
     /**
      * When this action is invoked from the menu bar, the editor disconnects
      * from the active connection and goes back to running locally.
@@ -291,6 +368,31 @@ public class DistributedTextEditor extends JFrame {
         changed = false;
     }
 
+    /**
+     * Tell the documentEventCapturer how to dispatch captured events.
+     * A previous {@link CoalescingDispatcher} is closed, dispatching its pending event.
+     * With an {@link OptimisticDispatcher} or a {@link CrdtDispatcher}, captured events are applied right away.
+     * @param dispatcher the new dispatcher
+     */
+    private void setTextEventDispatcher(TextEventDispatcher dispatcher) {
+        TextEventDispatcher previous = documentEventCapturer.getDispatcher();
+        if (previous instanceof CoalescingDispatcher) {
+            ((CoalescingDispatcher) previous).close();
+        }
+        documentEventCapturer.setTextEventDispatcher(dispatcher);
+        documentEventCapturer.setApplyLocally(dispatcher instanceof OptimisticDispatcher
+                || dispatcher instanceof CrdtDispatcher);
+        eventReplayer.setOptimisticDispatcher(getOptimisticDispatcher());
+    }
+
+    /**
+     * @return the dispatcher of the documentEventCapturer if it is an {@link OptimisticDispatcher}, otherwise null
+     */
+    private OptimisticDispatcher getOptimisticDispatcher() {
+        TextEventDispatcher dispatcher = documentEventCapturer.getDispatcher();
+        return dispatcher instanceof OptimisticDispatcher ? (OptimisticDispatcher) dispatcher : null;
+    }
+
     /**
      * Restart the event replayer
      */
@@ -298,6 +400,8 @@ public class DistributedTextEditor extends JFrame {
         eventReplayerThread.interrupt();
         eventReplayer = new EventReplayer(textEventHistory, area1);
         eventReplayer.setDocumentEventCapturer(documentEventCapturer);
+        eventReplayer.setOptimisticDispatcher(getOptimisticDispatcher());
+        eventReplayer.setTraceRecorder(traceRecorder);
         // Give the DEC the new EventReplayer
         documentEventCapturer.setEventReplayer(eventReplayer);
         eventReplayerThread = new Thread(eventReplayer);
@@ -305,19 +409,33 @@ public class DistributedTextEditor extends JFrame {
     }
 
 
+    /**
+     * Take over as coordinator after winning an election.
+     * A standby goes on sequencing events with its copy of the log, so the document and the numbering of
+     * the events stay as they are. Any other client starts a new log with its text as the first event.
+     */
+    @Override
     public void becomeServer() {
+        TextEventSequencer standby = manager.getStandbySequencer();
+        if (standby != null) {
+            takeOverLog(standby);
+            return;
+        }
+
         // Initialize a new event history
         textEventHistory = new StandardTextEventHistory();
 
         TextEventSequencer sequencer = new TextEventSequencer(textEventHistory);
-        TextEventDispatcher dispatcher = new ServerDispatcher(sequencer);
+        TextEventDispatcher dispatcher = CoalescingDispatcher.wrap(new ServerDispatcher(sequencer));
         // Tell the documentEventCapturer how to dispatch captured events
-        documentEventCapturer.setTextEventDispatcher(dispatcher);
+        setTextEventDispatcher(dispatcher);
 
+        manager.setCoordinator(true);
         manager.setAcceptSocketStrategy(new ServerAcceptSocketStrategy(sequencer));
         manager.setReceiveEventStrategy(new ServerReceiveEventStrategy(sequencer));
 
         sequencer.setManager(manager);
+        startPipelineIfEnabled(sequencer);
 
         String currentText = area1.getText();
         clearTextAreas();
@@ -328,6 +446,35 @@ public class DistributedTextEditor extends JFrame {
         }
     }
 
+    /**
+     * Go on sequencing events with the copy of the log kept by this standby.
+     * Its events are already in the history replayed in the text area.
+     * @param sequencer the copy of the log
+     */
+    private void takeOverLog(TextEventSequencer sequencer) {
+        TextEventDispatcher dispatcher = CoalescingDispatcher.wrap(new ServerDispatcher(sequencer));
+        setTextEventDispatcher(dispatcher);
+
+        manager.setCoordinator(true);
+        manager.setAcceptSocketStrategy(new ServerAcceptSocketStrategy(sequencer));
+        manager.setReceiveEventStrategy(new ServerReceiveEventStrategy(sequencer));
+
+        sequencer.setManager(manager);
+        startPipelineIfEnabled(sequencer);
+        setTitle("I'm coordinating on " + manager.getMyIP() + ":" + manager.getMyPort());
+    }
+
+    /**
+     * Run with -Ddistedit.pipeline=true to sequence, record and broadcast events in a pipeline of threads
+     * connected by a ring buffer of -Ddistedit.pipeline.bufferSize events, instead of through queues
+     * @param sequencer the sequencer of the coordinator
+     */
+    private void startPipelineIfEnabled(TextEventSequencer sequencer) {
+        if (Boolean.getBoolean("distedit.pipeline")) {
+            sequencer.startPipeline(Integer.getInteger("distedit.pipeline.bufferSize", 4096));
+        }
+    }
+
     /**
      * When this action is invoked, the document is either saved
      * as a new document, if it is not already saved, or it is saved
@@ -429,6 +576,11 @@ public class DistributedTextEditor extends JFrame {
             manager.disconnect();
             manager = null;
         }
+        if (mesh != null) {
+            mesh.stop();
+            mesh = null;
+            crdtReplayerThread.interrupt();
+        }
 
         Disconnect.setEnabled(false);
         Listen.setEnabled(true);
@@ -436,7 +588,7 @@ public class DistributedTextEditor extends JFrame {
         saveOld();
 
         textEventHistory = new StandardTextEventHistory();
-        documentEventCapturer.setTextEventDispatcher(new LocalDispatcher(textEventHistory));
+        setTextEventDispatcher(new LocalDispatcher(textEventHistory));
         clearTextAreas();
         setTitle("Disconnected");
         Save.setEnabled(false);
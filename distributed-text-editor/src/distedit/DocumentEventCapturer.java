@@ -3,6 +3,7 @@ package distedit;
 import distedit.event.dispatch.TextEventDispatcher;
 import distedit.event.TextInsertEvent;
 import distedit.event.TextRemoveEvent;
+import distedit.trace.Trace;
 
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
@@ -20,6 +21,8 @@ public class DocumentEventCapturer extends DocumentFilter {
 
     private TextEventDispatcher textEventDispatcher;
     private boolean isActive = true;
+    // True if events produced by the local user are applied to the document right away, as well as dispatched
+    private boolean applyLocally = false;
     private EventReplayer eventReplayer;
 
     /**
@@ -42,7 +45,10 @@ public class DocumentEventCapturer extends DocumentFilter {
         if(isActive) {
             // If the capturer is active, the event has been produced
             // by the local user, and the event is dispatched.
-	        textEventDispatcher.dispatch(new TextInsertEvent(offset, str, eventReplayer.getLatestReplayedEventNumber()));
+            if (applyLocally) {
+                super.insertString(fb,offset,str,a);
+            }
+	        textEventDispatcher.dispatch(Trace.start(new TextInsertEvent(offset, str, eventReplayer.getLatestReplayedEventNumber())));
 
         } else {
 
@@ -57,7 +63,10 @@ public class DocumentEventCapturer extends DocumentFilter {
 
         if(isActive) {
             // Ditto
-            textEventDispatcher.dispatch(new TextRemoveEvent(offset, length, eventReplayer.getLatestReplayedEventNumber()));
+            if (applyLocally) {
+                super.remove(fb,offset,length);
+            }
+            textEventDispatcher.dispatch(Trace.start(new TextRemoveEvent(offset, length, eventReplayer.getLatestReplayedEventNumber())));
 
         } else {
 
@@ -74,10 +83,13 @@ public class DocumentEventCapturer extends DocumentFilter {
 
         if(isActive){
 	        // Ditto
+            if (applyLocally) {
+                super.replace(fb,offset,length,str,a);
+            }
             if (length > 0) {
-                textEventDispatcher.dispatch(new TextRemoveEvent(offset, length, eventReplayer.getLatestReplayedEventNumber()));
+                textEventDispatcher.dispatch(Trace.start(new TextRemoveEvent(offset, length, eventReplayer.getLatestReplayedEventNumber())));
             }
-            textEventDispatcher.dispatch(new TextInsertEvent(offset, str, eventReplayer.getLatestReplayedEventNumber()));
+            textEventDispatcher.dispatch(Trace.start(new TextInsertEvent(offset, str, eventReplayer.getLatestReplayedEventNumber())));
 
         } else {
 
@@ -94,6 +106,15 @@ public class DocumentEventCapturer extends DocumentFilter {
         this.textEventDispatcher = textEventDispatcher;
     }
 
+    /**
+     * Set whether events produced by the local user are applied to the document right away,
+     * or only when they are replayed
+     * @param applyLocally true to apply events right away
+     */
+    public void setApplyLocally(boolean applyLocally) {
+        this.applyLocally = applyLocally;
+    }
+
     public void activate() {
         isActive = true;
     }
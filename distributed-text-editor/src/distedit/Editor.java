@@ -0,0 +1,21 @@
+package distedit;
+
+/**
+ * An editor as seen by its {@link distedit.net.ConnectionManager}: either the {@link DistributedTextEditor}
+ * used by a person, or a coordinator running without a display.
+ *
+ * @author DA4-03
+ * @version 2017-06-15
+ */
+public interface Editor {
+    /**
+     * Tell the user what the editor is connected to
+     * @param title the status of the connection
+     */
+    void setTitle(String title);
+
+    /**
+     * Take over as coordinator after winning an election
+     */
+    void becomeServer();
+}
@@ -1,25 +1,55 @@
 package distedit;
 
+import distedit.document.Rope;
 import distedit.event.MyTextEvent;
+import distedit.event.TextAckEvent;
 import distedit.event.TextInsertEvent;
 import distedit.event.TextRemoveEvent;
+import distedit.event.TextResetEvent;
+import distedit.event.dispatch.OptimisticDispatcher;
 import distedit.event.history.TextEventHistory;
+import distedit.trace.Trace;
+import distedit.trace.TraceRecorder;
 
 import javax.swing.JTextArea;
 import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Takes the events from a TextEventHistory and replays
  * them in a JTextArea.
  *
+ * The events are replayed in batches, one task on the event dispatch thread at a time. While a batch is
+ * replayed, new events queue up in the history, and all of them are taken as the next batch, so a burst
+ * of events, like the log replayed by a client that joins, is replayed in a few tasks instead of one per event.
+ *
  * @author Jesper Buus Nielsen (modified DA4-03 2017)
  */
 public class EventReplayer implements Runnable {
+    // Largest number of events replayed in one task on the event dispatch thread
+    private static final int MAX_BATCH = Integer.getInteger("distedit.replay.maxBatch", 10000);
+    // Largest number of edits in a batch, that are applied to the area one by one
+    private static final int MAX_SEPARATE_EDITS = 32;
 
     private TextEventHistory textEventHistory;
     private JTextArea area;
     private DocumentEventCapturer documentEventCapturer;
-    private int latestReplayedEventNumber;
+    // Read by the MXBean of the connection manager, to tell how far the replay lags behind
+    private volatile int latestReplayedEventNumber;
+    // Holds the local events not yet acknowledged, if they are applied before being sequenced
+    private volatile OptimisticDispatcher optimisticDispatcher;
+    // Records the latency of traced events, or null
+    private volatile TraceRecorder traceRecorder;
+
+    // Allows one batch of events at a time on the event dispatch thread, so the events that arrive
+    // while a batch is replayed, and the area is repainted, are replayed together in the next batch
+    private final Semaphore frame = new Semaphore(1);
+    // Read by the MXBean of the connection manager, whose consumer derives the replay rate from them
+    private final AtomicLong replayedEvents = new AtomicLong();
+    private final AtomicLong replayedBatches = new AtomicLong();
 
     /**
      * Constructor for the EventReplayer.
@@ -37,62 +67,264 @@ public class EventReplayer implements Runnable {
         boolean wasInterrupted = false;
         while (!wasInterrupted) {
             try {
-                MyTextEvent mte = textEventHistory.take();
-                latestReplayedEventNumber = mte.getSequenceNumber();
-                if (mte instanceof TextInsertEvent) {
-                    final TextInsertEvent tie = (TextInsertEvent)mte;
-                    EventQueue.invokeLater(() -> {
-                        try {
-                            // Set the latest replayed event number to the value,
-                            // of the sequence number of the event, that is replayed
-                            latestReplayedEventNumber = mte.getSequenceNumber();
-
-                            // Deactivate the capturer, to avoid infinite playbacks
-                            documentEventCapturer.deactivate();
-                            area.insert(tie.getText(), tie.getOffset());
-                            documentEventCapturer.activate();
-                        } catch (Exception e) {
-                            System.err.println(e);
-			                e.printStackTrace();
+                List<MyTextEvent> batch = new ArrayList<>();
+                batch.add(textEventHistory.take());
+                // Wait until the previous batch has been replayed, so the events arriving meanwhile join this one
+                frame.acquire();
+                textEventHistory.drainTo(batch, MAX_BATCH - 1);
+                EventQueue.invokeLater(() -> {
+                    try {
+                        replay(batch);
+                    } finally {
+                        frame.release();
+                    }
+                });
+            } catch (Exception e) {
+                wasInterrupted = true;
+            }
+        }
+        System.out.println("I'm the thread running the EventReplayer, now I die!");
+    }
 
-                /* We catch all exceptions, as an uncaught exception would make the
-                 * EDT unwind, which is not healthy.
-                 */
+    /**
+     * Replay a batch of events in the area, on the event dispatch thread.
+     * Inserts of text next to each other, and removes next to each other, are merged into one edit of the area,
+     * and the edits before a reset are skipped, so the area is changed, laid out and repainted as little as possible.
+     * @param batch the events in the order they were taken from the history
+     */
+    private void replay(List<MyTextEvent> batch) {
+        // Deactivate the capturer, to avoid infinite playbacks
+        documentEventCapturer.deactivate();
+        List<Edit> edits = new ArrayList<>();
+        Edit edit = null;
+        List<MyTextEvent> traced = null;
+        for (MyTextEvent mte : batch) {
+            try {
+                // Set the latest replayed event number to the value,
+                // of the sequence number of the event, that is replayed
+                latestReplayedEventNumber = mte.getSequenceNumber();
+                if (mte instanceof TextInsertEvent || mte instanceof TextRemoveEvent) {
+                    // Make room for local events, that are not yet sequenced
+                    transformAgainstPendingEvents(mte);
+                    if (mte.getTrace() != null) {
+                        traced = traced == null ? new ArrayList<>() : traced;
+                        traced.add(mte);
+                    }
+                    if (edit == null || !edit.merge(mte)) {
+                        edit = new Edit(mte);
+                        edits.add(edit);
+                    }
+                } else if (mte instanceof TextResetEvent) {
+                    // The reset replaces whatever the edits before it did
+                    edits.clear();
+                    edit = null;
+                    area.setText(((TextResetEvent) mte).getText());
+                    // Apply the local events, that were not yet sent, to the new text again
+                    OptimisticDispatcher dispatcher = optimisticDispatcher;
+                    if (dispatcher != null) {
+                        for (MyTextEvent local : dispatcher.reset(mte.getSequenceNumber(), area.getDocument().getLength())) {
+                            applyLocalEvent(local);
                         }
-                    });
-                } else if (mte instanceof TextRemoveEvent) {
-                    final TextRemoveEvent tre = (TextRemoveEvent)mte;
-                    EventQueue.invokeLater(() -> {
-                        try {
-                            // Set the latest replayed event number to the value,
-                            // of the sequence number of the event, that is replayed
-                            latestReplayedEventNumber = mte.getSequenceNumber();
-
-                            // Deactivate the capturer, to avoid infinite playbacks
-                            documentEventCapturer.deactivate();
-                            area.replaceRange(null, tre.getOffset(), tre.getOffset()+tre.getLength());
-                            documentEventCapturer.activate();
-                        } catch (Exception e) {
-                            System.err.println(e);
-			                e.printStackTrace();
+                    }
+                    // Local events applied right away cannot be merged with the edits after them
+                    edit = null;
+                } else if (mte instanceof TextAckEvent) {
+                    // The coordinator has sequenced the local event, that was sent last
+                    OptimisticDispatcher dispatcher = optimisticDispatcher;
+                    if (dispatcher != null) {
+                        dispatcher.acknowledge(mte.getSequenceNumber());
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println(e);
+                e.printStackTrace();
 
                 /* We catch all exceptions, as an uncaught exception would make the
                  * EDT unwind, which is not healthy.
                  */
-                        }
-                    });
+            }
+        }
+        apply(edits);
+        documentEventCapturer.activate();
+        TraceRecorder recorder = traceRecorder;
+        if (traced != null && recorder != null) {
+            long appliedAt = Trace.now();
+            for (MyTextEvent mte : traced) {
+                recorder.record(mte, appliedAt);
+            }
+        }
+        replayedEvents.addAndGet(batch.size());
+        replayedBatches.incrementAndGet();
+    }
+
+    /**
+     * Apply the edits of a batch to the area. Every edit of a text area costs time in proportion to the length of
+     * the line it is on, so if there are many edits, they are applied to a copy of the text kept in a {@link Rope},
+     * and only the part of the area that has changed is replaced. Edits that are out of bounds are skipped.
+     * @param edits the edits in order
+     */
+    private void apply(List<Edit> edits) {
+        if (edits.size() <= MAX_SEPARATE_EDITS) {
+            for (Edit edit : edits) {
+                try {
+                    if (edit.text != null) {
+                        area.insert(edit.text.toString(), edit.offset);
+                    } else {
+                        area.replaceRange(null, edit.offset, edit.offset + edit.length);
+                    }
+                } catch (Exception e) {
+                    System.err.println(e);
+                    e.printStackTrace();
                 }
-            } catch (Exception e) {
-                wasInterrupted = true;
             }
+            return;
+        }
+
+        String before = area.getText();
+        Rope text = Rope.of(before);
+        for (Edit edit : edits) {
+            try {
+                text = edit.text != null
+                        ? text.insert(edit.offset, edit.text.toString())
+                        : text.remove(edit.offset, edit.length);
+            } catch (IndexOutOfBoundsException e) {
+                System.err.println(e);
+            }
+        }
+        String after = text.toString();
+
+        // Replace the part between the common prefix and suffix of the texts
+        int shorter = Math.min(before.length(), after.length());
+        int prefix = 0;
+        while (prefix < shorter && before.charAt(prefix) == after.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < shorter - prefix
+                && before.charAt(before.length() - 1 - suffix) == after.charAt(after.length() - 1 - suffix)) {
+            suffix++;
+        }
+        area.replaceRange(after.substring(prefix, after.length() - suffix), prefix, before.length() - suffix);
+    }
+
+    /**
+     * An edit of the area, made of one or more events that are merged.
+     * The events are not changed, since they may also be in the log of a sequencer.
+     */
+    private static class Edit {
+        private int offset;
+        // The inserted text, or null if this edit is a remove
+        private StringBuilder text;
+        // The number of removed characters
+        private int length;
+
+        Edit(MyTextEvent event) {
+            offset = event.getOffset();
+            if (event instanceof TextInsertEvent) {
+                text = new StringBuilder(((TextInsertEvent) event).getText());
+            } else {
+                length = ((TextRemoveEvent) event).getLength();
+            }
+        }
+
+        /**
+         * Merge an event applied right after this edit into it, if the two can be made as one edit
+         * @param event the event
+         * @return true if merged, false if the event must be applied on its own
+         */
+        boolean merge(MyTextEvent event) {
+            int eventOffset = event.getOffset();
+            if (text != null) {
+                if (event instanceof TextInsertEvent) {
+                    String inserted = ((TextInsertEvent) event).getText();
+                    // Typed after this text, or in front of it
+                    if (eventOffset == offset + text.length()) {
+                        text.append(inserted);
+                        return true;
+                    } else if (eventOffset == offset) {
+                        text.insert(0, inserted);
+                        return true;
+                    }
+                } else {
+                    // Removes some of this text, like a typo that is erased
+                    int removed = ((TextRemoveEvent) event).getLength();
+                    if (eventOffset >= offset && eventOffset + removed <= offset + text.length()) {
+                        text.delete(eventOffset - offset, eventOffset - offset + removed);
+                        return true;
+                    }
+                }
+            } else if (event instanceof TextRemoveEvent) {
+                int removed = ((TextRemoveEvent) event).getLength();
+                // Deleted forwards from the same offset, or backwards up to it
+                if (eventOffset == offset) {
+                    length += removed;
+                    return true;
+                } else if (eventOffset + removed == offset) {
+                    offset = eventOffset;
+                    length += removed;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void transformAgainstPendingEvents(MyTextEvent event) {
+        OptimisticDispatcher dispatcher = optimisticDispatcher;
+        if (dispatcher != null) {
+            dispatcher.transform(event);
+        }
+    }
+
+    /**
+     * Apply a local event to the area, skipping it if it is out of bounds
+     * @param event the local event
+     */
+    private void applyLocalEvent(MyTextEvent event) {
+        int length = area.getDocument().getLength();
+        if (event instanceof TextInsertEvent && event.getOffset() <= length) {
+            area.insert(((TextInsertEvent) event).getText(), event.getOffset());
+        } else if (event instanceof TextRemoveEvent
+                && event.getOffset() + ((TextRemoveEvent) event).getLength() <= length) {
+            area.replaceRange(null, event.getOffset(), event.getOffset() + ((TextRemoveEvent) event).getLength());
         }
-        System.out.println("I'm the thread running the EventReplayer, now I die!");
     }
 
     public int getLatestReplayedEventNumber() {
         return latestReplayedEventNumber;
     }
 
+    /**
+     * @return the number of events replayed so far
+     */
+    public long getReplayedEventCount() {
+        return replayedEvents.get();
+    }
+
+    /**
+     * @return the number of tasks on the event dispatch thread, that the events have been replayed in
+     */
+    public long getReplayedBatchCount() {
+        return replayedBatches.get();
+    }
+
+    /**
+     * Set the dispatcher holding the local events, that are applied before they are sequenced,
+     * or null if local events are only applied when they are replayed
+     * @param optimisticDispatcher the dispatcher
+     */
+    public void setOptimisticDispatcher(OptimisticDispatcher optimisticDispatcher) {
+        this.optimisticDispatcher = optimisticDispatcher;
+    }
+
+    /**
+     * Set the recorder of the latency of traced events, or null to not record it
+     * @param traceRecorder the recorder
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
     public void setDocumentEventCapturer(DocumentEventCapturer documentEventCapturer) {
         this.documentEventCapturer = documentEventCapturer;
     }
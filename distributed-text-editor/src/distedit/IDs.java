@@ -9,4 +9,11 @@ public class IDs {
     public static int getNextId() {
         return r.nextInt(100000);
     }
+
+    /**
+     * Standby clients get ids above those of other clients, so they win elections
+     */
+    public static int getNextStandbyId() {
+        return 100000 + r.nextInt(100000);
+    }
 }
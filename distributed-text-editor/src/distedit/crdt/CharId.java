@@ -0,0 +1,61 @@
+package distedit.crdt;
+
+/**
+ * Identifies a character of an {@link Rga} on every peer: the Lamport clock of the peer when it inserted the
+ * character, and the id of the peer, from {@link distedit.net.Client#getId()}, to break ties.
+ *
+ * Ids are ordered by clock and then by site. A character always has a higher id than the character it was
+ * inserted after, since the clock of the peer is past every id it has seen.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public final class CharId implements Comparable<CharId> {
+    /**
+     * The id of the start of the document, that characters at offset 0 are inserted after
+     */
+    public static final CharId START = new CharId(0, 0);
+
+    private final int clock;
+    private final int site;
+
+    public CharId(int clock, int site) {
+        this.clock = clock;
+        this.site = site;
+    }
+
+    public int getClock() {
+        return clock;
+    }
+
+    public int getSite() {
+        return site;
+    }
+
+    @Override
+    public int compareTo(CharId other) {
+        if (clock != other.clock) {
+            return Integer.compare(clock, other.clock);
+        }
+        return Integer.compare(site, other.site);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CharId)) {
+            return false;
+        }
+        CharId other = (CharId) o;
+        return clock == other.clock && site == other.site;
+    }
+
+    @Override
+    public int hashCode() {
+        return clock * 31 + site;
+    }
+
+    @Override
+    public String toString() {
+        return clock + "@" + site;
+    }
+}
@@ -0,0 +1,47 @@
+package distedit.crdt;
+
+/**
+ * Inserts text after a character. The characters of the text get consecutive clocks from the id of the first one,
+ * and each of them is inserted after the one before it.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class CrdtInsert extends CrdtOperation {
+    private final CharId id;
+    private final CharId after;
+    private final String text;
+
+    /**
+     * @param site the peer that made the insert
+     * @param seq the number of the operation among those of the peer
+     * @param id the id of the first character
+     * @param after the id of the character the text is inserted after, or {@link CharId#START}
+     * @param text the text
+     */
+    public CrdtInsert(int site, int seq, CharId id, CharId after, String text) {
+        super(site, seq);
+        this.id = id;
+        this.after = after;
+        this.text = text;
+    }
+
+    public CharId getId() {
+        return id;
+    }
+
+    public CharId getAfter() {
+        return after;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the clock of the last character
+     */
+    public int getLastClock() {
+        return id.getClock() + text.length() - 1;
+    }
+}
@@ -0,0 +1,34 @@
+package distedit.crdt;
+
+/**
+ * An edit of an {@link Rga}, broadcast by the peer that made it.
+ *
+ * The operations of a peer are numbered from 1 in the order it made them, so a peer can tell which operations
+ * of another peer it has seen with a {@link VersionVector}, and applies them in order.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public abstract class CrdtOperation {
+    private final int site;
+    private final int seq;
+
+    protected CrdtOperation(int site, int seq) {
+        this.site = site;
+        this.seq = seq;
+    }
+
+    /**
+     * @return the id of the peer that made the operation
+     */
+    public int getSite() {
+        return site;
+    }
+
+    /**
+     * @return the number of the operation among those of its peer
+     */
+    public int getSeq() {
+        return seq;
+    }
+}
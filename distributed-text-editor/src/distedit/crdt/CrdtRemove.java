@@ -0,0 +1,23 @@
+package distedit.crdt;
+
+import java.util.List;
+
+/**
+ * Removes characters by their ids. Removed characters are kept as tombstones, so inserts after them
+ * still find their place, and removing a character twice, like two peers removing it at once, is harmless.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class CrdtRemove extends CrdtOperation {
+    private final List<CharId> ids;
+
+    public CrdtRemove(int site, int seq, List<CharId> ids) {
+        super(site, seq);
+        this.ids = ids;
+    }
+
+    public List<CharId> getIds() {
+        return ids;
+    }
+}
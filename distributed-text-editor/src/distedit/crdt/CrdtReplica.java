@@ -0,0 +1,189 @@
+package distedit.crdt;
+
+import distedit.event.MyTextEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The copy of the document of one peer, that edits it on its own and merges the operations of the other peers
+ * in whatever order they arrive, with no coordinator to put them in order.
+ *
+ * Local edits are turned into operations with ids from the Lamport clock of the peer, applied, and kept in a log,
+ * so they can be sent again to a peer that missed them. Operations received from other peers are applied in the
+ * order each peer made them. An operation that arrives early, before one of the same peer, or before the
+ * character it refers to has been inserted, waits until it can be applied, and an operation that has already
+ * been applied is dropped, so operations can be sent more than once, and through more than one peer.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class CrdtReplica {
+    private final int site;
+    private final Rga rga = new Rga();
+    private final VersionVector version = new VersionVector();
+    // The operations applied, in the order they were applied, which is an order every peer can apply them in
+    private final List<CrdtOperation> log = new ArrayList<>();
+    // The positions in the log of the operations of every peer, in the order it made them
+    private final Map<Integer, List<Integer>> logPositions = new HashMap<>();
+    // Operations received that cannot be applied yet, by peer and number
+    private final Map<Integer, TreeMap<Integer, CrdtOperation>> pending = new HashMap<>();
+    private int pendingCount;
+    private int clock;
+    private long duplicateCount;
+
+    /**
+     * @param site the id of the peer, that must differ from the ids of the other peers
+     */
+    public CrdtReplica(int site) {
+        this.site = site;
+    }
+
+    /**
+     * Insert text typed by the local user
+     * @param offset the offset in the visible text
+     * @param text the text
+     * @return the operation to send to the other peers, which has been applied
+     */
+    public synchronized CrdtInsert insert(int offset, String text) {
+        CrdtInsert insert = new CrdtInsert(site, version.get(site) + 1,
+                new CharId(clock + 1, site), rga.idBefore(offset), text);
+        apply(insert);
+        return insert;
+    }
+
+    /**
+     * Remove text removed by the local user
+     * @param offset the offset in the visible text
+     * @param length the number of characters
+     * @return the operation to send to the other peers, which has been applied
+     */
+    public synchronized CrdtRemove remove(int offset, int length) {
+        CrdtRemove remove = new CrdtRemove(site, version.get(site) + 1, rga.idsAt(offset, length));
+        apply(remove);
+        return remove;
+    }
+
+    /**
+     * Merge an operation of another peer, and any operations that were waiting for it
+     * @param operation the operation
+     * @return the edits of the visible text, in the order they are to be applied
+     */
+    public synchronized List<MyTextEvent> receive(CrdtOperation operation) {
+        int peer = operation.getSite();
+        if (operation.getSeq() <= version.get(peer)) {
+            duplicateCount++;
+            return new ArrayList<>();
+        }
+        TreeMap<Integer, CrdtOperation> waiting = pending.computeIfAbsent(peer, p -> new TreeMap<>());
+        if (waiting.put(operation.getSeq(), operation) == null) {
+            pendingCount++;
+        } else {
+            duplicateCount++;
+        }
+
+        // Applying an operation may let operations of other peers through, that refer to its characters
+        List<MyTextEvent> edits = new ArrayList<>();
+        boolean applied = true;
+        while (applied) {
+            applied = false;
+            for (Iterator<TreeMap<Integer, CrdtOperation>> i = pending.values().iterator(); i.hasNext(); ) {
+                TreeMap<Integer, CrdtOperation> next = i.next();
+                while (!next.isEmpty()) {
+                    CrdtOperation first = next.firstEntry().getValue();
+                    if (first.getSeq() != version.get(first.getSite()) + 1 || !rga.canApply(first)) {
+                        break;
+                    }
+                    next.pollFirstEntry();
+                    pendingCount--;
+                    edits.addAll(apply(first));
+                    applied = true;
+                }
+                if (next.isEmpty()) {
+                    i.remove();
+                }
+            }
+        }
+        return edits;
+    }
+
+    private List<MyTextEvent> apply(CrdtOperation operation) {
+        if (operation instanceof CrdtInsert) {
+            clock = Math.max(clock, ((CrdtInsert) operation).getLastClock());
+        }
+        version.set(operation.getSite(), operation.getSeq());
+        logPositions.computeIfAbsent(operation.getSite(), s -> new ArrayList<>()).add(log.size());
+        log.add(operation);
+        return rga.apply(operation);
+    }
+
+    /**
+     * Find the operations applied here, that another peer has not applied, in the order they were applied here,
+     * so the other peer can apply each of them when it arrives, even if it only gets the first of them
+     * @param other the version of the other peer
+     * @param limit the most operations to return
+     * @return the operations
+     */
+    public synchronized List<CrdtOperation> getMissing(VersionVector other, int limit) {
+        // Start at the first operation missing of any peer. The nth operation of a peer is at index n - 1.
+        int from = log.size();
+        for (Map.Entry<Integer, List<Integer>> entry : logPositions.entrySet()) {
+            int seen = other.get(entry.getKey());
+            if (seen < entry.getValue().size()) {
+                from = Math.min(from, entry.getValue().get(seen));
+            }
+        }
+        List<CrdtOperation> missing = new ArrayList<>();
+        for (int i = from; i < log.size() && missing.size() < limit; i++) {
+            CrdtOperation operation = log.get(i);
+            if (operation.getSeq() > other.get(operation.getSite())) {
+                missing.add(operation);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return a copy of the version of the document
+     */
+    public synchronized VersionVector getVersionVector() {
+        return version.copy();
+    }
+
+    public synchronized String getText() {
+        return rga.getText();
+    }
+
+    public synchronized int length() {
+        return rga.length();
+    }
+
+    /**
+     * @return the number of characters kept, including removed characters
+     */
+    public synchronized int size() {
+        return rga.size();
+    }
+
+    /**
+     * @return the number of operations received, that cannot be applied yet
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the number of operations received, that had already been received
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    public int getSite() {
+        return site;
+    }
+}
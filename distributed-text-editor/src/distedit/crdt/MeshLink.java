@@ -0,0 +1,132 @@
+package distedit.crdt;
+
+import distedit.net.Client;
+import distedit.net.MessageInputStream;
+import distedit.net.MessageOutputStream;
+import distedit.threads.ThreadManager;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A link of a {@link PeerMesh} to one other peer, with a thread sending the messages queued for the peer,
+ * and a thread handing the messages from the peer to the mesh.
+ *
+ * A message is dropped if the queue is full, rather than holding up the peer that sent it, since the
+ * anti-entropy of the mesh sends any operation the peer has missed again.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+class MeshLink {
+    static final int QUEUE_CAPACITY = Integer.getInteger("distedit.crdt.queueCapacity", 10000);
+    // Queued when the link is closed, to wake up the sender
+    private static final Object CLOSE = new Object();
+
+    private final PeerMesh mesh;
+    private final Socket socket;
+    private final MessageInputStream inputStream;
+    private final MessageOutputStream outputStream;
+    private final Client peer;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    MeshLink(PeerMesh mesh, Socket socket, MessageInputStream inputStream, MessageOutputStream outputStream,
+             Client peer) {
+        this.mesh = mesh;
+        this.socket = socket;
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+        this.peer = peer;
+    }
+
+    void start(ThreadManager threadManager) {
+        threadManager.start("mesh-sender-" + peer.getId(), this::sendMessages);
+        threadManager.start("mesh-receiver-" + peer.getId(), this::receiveMessages);
+    }
+
+    /**
+     * Queue a message for the peer
+     * @param message the message
+     * @return false if the message was dropped, because the link is closed or its queue is full
+     */
+    boolean send(Object message) {
+        if (closed.get()) {
+            return false;
+        }
+        if (!queue.offer(message)) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void sendMessages() {
+        try {
+            while (true) {
+                Object message = queue.take();
+                if (message == CLOSE) {
+                    return;
+                }
+                outputStream.writeMessage(message);
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.out.println("[MeshLink] Could not send to peer " + peer.getId() + ": " + e);
+            }
+            close();
+        } catch (InterruptedException e) {
+            close();
+        }
+    }
+
+    private void receiveMessages() {
+        try {
+            while (true) {
+                mesh.receive(this, inputStream.readMessage());
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                System.out.println("[MeshLink] Lost the link to peer " + peer.getId() + ": " + e);
+            }
+            close();
+        }
+    }
+
+    /**
+     * Close the socket, which ends both threads, and remove the link from the mesh
+     */
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        queue.clear();
+        queue.offer(CLOSE);
+        mesh.removeLink(this);
+    }
+
+    Client getPeer() {
+        return peer;
+    }
+
+    /**
+     * @return the room left in the queue
+     */
+    int getRemainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
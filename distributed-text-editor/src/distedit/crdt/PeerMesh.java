@@ -0,0 +1,305 @@
+package distedit.crdt;
+
+import distedit.net.Client;
+import distedit.net.MessageInputStream;
+import distedit.net.MessageOutputStream;
+import distedit.threads.ThreadManager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Links the peers editing a document in the peer-to-peer mode, where every peer has a {@link CrdtReplica},
+ * and sends its operations straight to every other peer. There is no coordinator, so no peer holds up the others,
+ * and there is no election when a peer leaves.
+ *
+ * A peer joins the mesh through any peer in it. The two peers tell each other their ids, which the ids of the
+ * characters are made from, so a peer with the id of a peer it is linked to is refused. Then they tell each other
+ * the peers they are linked to, and tell those about the new link, so every pair of peers hears of each other,
+ * and the one with the lower id links to the other.
+ *
+ * Every distedit.crdt.antiEntropyMillis, and when a link is made, a peer sends its {@link VersionVector} to the
+ * peers it is linked to, which answer with the operations it has not applied. That way a peer catches up when it
+ * joins, and gets the operations it has missed, like those dropped from a full queue, or made by a peer it is
+ * not linked to.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class PeerMesh {
+    private static final long ANTI_ENTROPY_MILLIS = Long.getLong("distedit.crdt.antiEntropyMillis", 1000);
+
+    /**
+     * Takes the operations received from other peers, which have not necessarily been applied yet,
+     * and may have been received before
+     */
+    public interface Listener {
+        void received(CrdtOperation operation);
+    }
+
+    private volatile Listener listener;
+    private final ThreadManager threadManager = new ThreadManager();
+    private final Map<Integer, MeshLink> links = new ConcurrentHashMap<>();
+    // The ids of the peers being linked to, since several peers may tell us about the same peer at once
+    private final Set<Integer> joining = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private String myIP;
+    private int myPort;
+    private final Client me;
+    private final CrdtReplica replica;
+
+    /**
+     * Construct the mesh of a new peer, and open the socket it listens for other peers on.
+     * Set the listener before the mesh is started.
+     */
+    public PeerMesh() {
+        try {
+            myIP = InetAddress.getLocalHost().getHostAddress();
+        } catch (UnknownHostException e) {
+            e.printStackTrace();
+        }
+        // Run with -Ddistedit.port=N to listen on another port. The next free port is used if it is taken,
+        // and any free port if N is 0.
+        myPort = Integer.getInteger("distedit.port", 40403);
+        openServerSocket();
+        me = new Client(myPort, myIP);
+        replica = new CrdtReplica(me.getId());
+    }
+
+    private void openServerSocket() {
+        while (serverSocket == null) {
+            try {
+                serverSocket = new ServerSocket(myPort);
+                serverSocket.setReuseAddress(true);
+                myPort = serverSocket.getLocalPort();
+            } catch (IOException e) {
+                System.out.println("There was an error opening a connection on the specified port. Trying next port...");
+                myPort++;
+            }
+        }
+    }
+
+    /**
+     * Set what takes the operations received from other peers
+     * @param listener the listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start accepting peers, and sending the version of the document to them
+     */
+    public void start() {
+        threadManager.start("mesh-listener", () -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    threadManager.start("mesh-handshake", () -> accept(socket));
+                } catch (IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        System.out.println("Something went wrong, when trying to accept an incoming peer..");
+                        System.err.println(e);
+                    }
+                }
+            }
+            System.out.println("[PeerMesh] Listener stopped.");
+        });
+        threadManager.start("mesh-anti-entropy", () -> {
+            try {
+                while (true) {
+                    Thread.sleep(ANTI_ENTROPY_MILLIS);
+                    VersionVector version = replica.getVersionVector();
+                    for (MeshLink link : links.values()) {
+                        link.send(version);
+                    }
+                }
+            } catch (InterruptedException e) {
+                System.out.println("[PeerMesh] Anti-entropy interrupted.");
+            }
+        });
+    }
+
+    /**
+     * Join the mesh of a peer
+     * @param IP the address of the peer
+     * @param port the port of the peer
+     * @return true if linked to the peer
+     */
+    public boolean join(String IP, int port) {
+        Socket socket = null;
+        try {
+            socket = new Socket(IP, port);
+            socket.setTcpNoDelay(true);
+            MessageOutputStream outputStream = new MessageOutputStream(socket.getOutputStream());
+            outputStream.writeMessage(me);
+            MessageInputStream inputStream = new MessageInputStream(socket.getInputStream());
+            Object hello = inputStream.readMessage();
+            if (hello instanceof Client && addLink(socket, inputStream, outputStream, (Client) hello)) {
+                return true;
+            }
+            System.out.println("[PeerMesh] Peer at " + IP + ":" + port + " did not link to us.");
+        } catch (EOFException e) {
+            // The peer closes the socket if it refuses the link
+            System.out.println("[PeerMesh] Peer at " + IP + ":" + port + " refused to link to us.");
+        } catch (IOException e) {
+            System.out.println("[PeerMesh] Could not link to peer at " + IP + ":" + port + ": " + e);
+        }
+        closeQuietly(socket);
+        return false;
+    }
+
+    /**
+     * Read the id of a peer that has connected, and answer with ours, unless it is refused
+     */
+    private void accept(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            MessageInputStream inputStream = new MessageInputStream(socket.getInputStream());
+            Object hello = inputStream.readMessage();
+            if (hello instanceof Client && canLink((Client) hello)) {
+                MessageOutputStream outputStream = new MessageOutputStream(socket.getOutputStream());
+                outputStream.writeMessage(me);
+                if (addLink(socket, inputStream, outputStream, (Client) hello)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("[PeerMesh] Handshake with a peer failed: " + e);
+        }
+        closeQuietly(socket);
+    }
+
+    private boolean canLink(Client peer) {
+        return peer.getId() != me.getId() && !links.containsKey(peer.getId());
+    }
+
+    /**
+     * Add a link to a peer, send it our version and the peers we are linked to, and tell those about it
+     * @return false if refused, since the peer has our id, or we are already linked to it
+     */
+    private synchronized boolean addLink(Socket socket, MessageInputStream inputStream,
+                                         MessageOutputStream outputStream, Client peer) {
+        if (!canLink(peer)) {
+            System.out.println("[PeerMesh] Refused a link to peer " + peer.getId() + ", which has our id or is linked already.");
+            return false;
+        }
+        MeshLink link = new MeshLink(this, socket, inputStream, outputStream, peer);
+        link.send(replica.getVersionVector());
+        for (MeshLink other : links.values()) {
+            link.send(other.getPeer());
+            other.send(peer);
+        }
+        links.put(peer.getId(), link);
+        link.start(threadManager);
+        System.out.println("[PeerMesh] Linked to peer " + peer.getId() + " at " + peer.getIP() + ":" + peer.getPort());
+        return true;
+    }
+
+    void removeLink(MeshLink link) {
+        links.remove(link.getPeer().getId(), link);
+    }
+
+    /**
+     * Handle a message from a peer
+     * @param link the link it came from
+     * @param message the message
+     */
+    void receive(MeshLink link, Object message) {
+        if (message instanceof CrdtOperation) {
+            listener.received((CrdtOperation) message);
+        } else if (message instanceof VersionVector) {
+            // Send no more than there is room for, and the rest when the peer asks again
+            for (CrdtOperation operation : replica.getMissing((VersionVector) message, link.getRemainingCapacity())) {
+                link.send(operation);
+            }
+        } else if (message instanceof Client) {
+            Client peer = (Client) message;
+            // Of two peers that hear of each other, the one with the lower id links to the other
+            if (me.getId() < peer.getId() && canLink(peer) && joining.add(peer.getId())) {
+                threadManager.start("mesh-join", () -> {
+                    try {
+                        join(peer.getIP(), peer.getPort());
+                    } finally {
+                        joining.remove(peer.getId());
+                    }
+                });
+            }
+        } else {
+            System.out.println("[PeerMesh] Unexpected message from peer " + link.getPeer().getId() + ": " + message);
+        }
+    }
+
+    /**
+     * Send an operation of this peer to every peer it is linked to
+     * @param operation the operation
+     */
+    public void broadcast(CrdtOperation operation) {
+        for (MeshLink link : links.values()) {
+            link.send(operation);
+        }
+    }
+
+    /**
+     * Close every link, stop listening, and stop all threads
+     */
+    public void stop() {
+        closeQuietly(serverSocket);
+        for (MeshLink link : links.values()) {
+            link.close();
+        }
+        threadManager.stop();
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public CrdtReplica getReplica() {
+        return replica;
+    }
+
+    public int getId() {
+        return me.getId();
+    }
+
+    public String getMyIP() {
+        return myIP;
+    }
+
+    public int getMyPort() {
+        return myPort;
+    }
+
+    /**
+     * @return the number of peers linked to
+     */
+    public int getLinkCount() {
+        return links.size();
+    }
+
+    /**
+     * @return the number of messages dropped from full queues, on the links there are now
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (MeshLink link : links.values()) {
+            dropped += link.getDroppedCount();
+        }
+        return dropped;
+    }
+}
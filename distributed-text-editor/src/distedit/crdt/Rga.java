@@ -0,0 +1,222 @@
+package distedit.crdt;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Replicated Growable Array, a sequence CRDT, holding the characters of the document with their ids.
+ *
+ * The characters are kept in a linked list in document order, and removed characters stay in it as tombstones.
+ * A character is inserted after the character it was typed after, but skips the characters there with higher ids,
+ * which were inserted after the same character concurrently, or after those. Every peer thus orders concurrent
+ * inserts the same way, whatever order it applies them in, as long as a character is inserted after the one it
+ * refers to, and removed after it has been inserted.
+ *
+ * Finding a character by its offset, and the offset of a character, takes time linear in the number of characters
+ * including tombstones, which are never collected.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class Rga {
+
+    private static final class Node {
+        private final CharId id;
+        private final char character;
+        private boolean removed;
+        private Node next;
+
+        private Node(CharId id, char character) {
+            this.id = id;
+            this.character = character;
+        }
+    }
+
+    private final Node head = new Node(CharId.START, '\0');
+    private final Map<CharId, Node> nodes = new HashMap<>();
+    private int length;
+
+    public Rga() {
+        nodes.put(CharId.START, head);
+    }
+
+    /**
+     * @param operation an operation
+     * @return true if every character the operation refers to has been inserted
+     */
+    public boolean canApply(CrdtOperation operation) {
+        if (operation instanceof CrdtInsert) {
+            return nodes.containsKey(((CrdtInsert) operation).getAfter());
+        }
+        for (CharId id : ((CrdtRemove) operation).getIds()) {
+            if (!nodes.containsKey(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply an operation, that {@link #canApply} has allowed
+     * @param operation the operation
+     * @return the edits of the visible text, in the order they are to be applied
+     */
+    public List<MyTextEvent> apply(CrdtOperation operation) {
+        List<MyTextEvent> edits = new ArrayList<>();
+        if (operation instanceof CrdtInsert) {
+            CrdtInsert insert = (CrdtInsert) operation;
+            if (!nodes.containsKey(insert.getId())) {
+                int offset = integrate(insert);
+                edits.add(new TextInsertEvent(offset, insert.getText(), -1));
+            }
+        } else {
+            removeAll(((CrdtRemove) operation).getIds(), edits);
+        }
+        return edits;
+    }
+
+    /**
+     * Insert the characters of an insert after the character they refer to, skipping those with higher ids
+     * @return the offset of the first character in the visible text
+     */
+    private int integrate(CrdtInsert insert) {
+        Node previous = head;
+        int offset = 0;
+        Node after = nodes.get(insert.getAfter());
+        while (previous != after) {
+            previous = previous.next;
+            if (!previous.removed) {
+                offset++;
+            }
+        }
+        while (previous.next != null && previous.next.id.compareTo(insert.getId()) > 0) {
+            previous = previous.next;
+            if (!previous.removed) {
+                offset++;
+            }
+        }
+        String text = insert.getText();
+        CharId first = insert.getId();
+        for (int i = 0; i < text.length(); i++) {
+            Node node = new Node(new CharId(first.getClock() + i, first.getSite()), text.charAt(i));
+            node.next = previous.next;
+            previous.next = node;
+            nodes.put(node.id, node);
+            previous = node;
+        }
+        length += text.length();
+        return offset;
+    }
+
+    /**
+     * Remove characters, and add a remove of the visible text for every run of them next to each other.
+     * The removes are applied one after the other, so each starts at its offset after the runs before it are gone.
+     */
+    private void removeAll(List<CharId> ids, List<MyTextEvent> edits) {
+        Set<Node> targets = new HashSet<>();
+        for (CharId id : ids) {
+            Node node = nodes.get(id);
+            if (!node.removed) {
+                targets.add(node);
+            }
+        }
+        int remaining = targets.size();
+        int offset = 0;
+        int run = 0;
+        for (Node node = head.next; node != null && remaining > 0; node = node.next) {
+            if (node.removed) {
+                continue;
+            }
+            if (targets.contains(node)) {
+                node.removed = true;
+                run++;
+                remaining--;
+            } else {
+                if (run > 0) {
+                    edits.add(new TextRemoveEvent(offset, run, -1));
+                    run = 0;
+                }
+                offset++;
+            }
+        }
+        if (run > 0) {
+            edits.add(new TextRemoveEvent(offset, run, -1));
+        }
+        length -= targets.size();
+    }
+
+    /**
+     * @param offset an offset in the visible text, from 0 to its length
+     * @return the id of the visible character before the offset, or {@link CharId#START} at offset 0
+     */
+    public CharId idBefore(int offset) {
+        if (offset < 0 || offset > length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " outside text of length " + length);
+        }
+        Node node = head;
+        for (int visible = 0; visible < offset; ) {
+            node = node.next;
+            if (!node.removed) {
+                visible++;
+            }
+        }
+        return node.id;
+    }
+
+    /**
+     * @param offset the offset of the first character in the visible text
+     * @param count the number of characters
+     * @return the ids of the visible characters
+     */
+    public List<CharId> idsAt(int offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > length) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + count + " outside text of length " + length);
+        }
+        List<CharId> ids = new ArrayList<>(count);
+        int visible = 0;
+        for (Node node = head.next; node != null && ids.size() < count; node = node.next) {
+            if (!node.removed) {
+                if (visible >= offset) {
+                    ids.add(node.id);
+                }
+                visible++;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the number of visible characters
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the number of characters kept, including tombstones
+     */
+    public int size() {
+        return nodes.size() - 1;
+    }
+
+    /**
+     * @return the visible text
+     */
+    public String getText() {
+        StringBuilder text = new StringBuilder(length);
+        for (Node node = head.next; node != null; node = node.next) {
+            if (!node.removed) {
+                text.append(node.character);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package distedit.crdt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tells, for every peer, the number of its operations that have been applied, which are all of
+ * its operations up to that number, since the operations of a peer are applied in order.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class VersionVector {
+    private final Map<Integer, Integer> seqs;
+
+    public VersionVector() {
+        this(new LinkedHashMap<>());
+    }
+
+    private VersionVector(Map<Integer, Integer> seqs) {
+        this.seqs = seqs;
+    }
+
+    /**
+     * @param site the id of a peer
+     * @return the number of operations of the peer applied, or 0 if none
+     */
+    public int get(int site) {
+        Integer seq = seqs.get(site);
+        return seq == null ? 0 : seq;
+    }
+
+    public void set(int site, int seq) {
+        seqs.put(site, seq);
+    }
+
+    /**
+     * @return the number of operations applied of every peer that has made any, by the id of the peer
+     */
+    public Map<Integer, Integer> asMap() {
+        return seqs;
+    }
+
+    public VersionVector copy() {
+        return new VersionVector(new LinkedHashMap<>(seqs));
+    }
+
+    @Override
+    public String toString() {
+        return seqs.toString();
+    }
+}
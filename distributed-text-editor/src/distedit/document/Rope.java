@@ -0,0 +1,226 @@
+package distedit.document;
+
+import java.io.Serializable;
+
+/**
+ * An immutable text, kept as a balanced binary tree of short strings.
+ *
+ * Inserting or removing text makes a new rope, that shares all but O(log n) nodes with the old one,
+ * so an edit costs O(log n) regardless of the length of the text, and the old rope can be kept as a
+ * snapshot without copying it. The tree is kept balanced like an AVL tree, by the heights of the subtrees.
+ *
+ * Used as the document of the coordinator, which does not depend on the Swing text area.
+ *
+ * @author DA4-03
+ * @version 2017-06-14
+ */
+public final class Rope implements Serializable {
+    // Longest string kept in a leaf. Shorter leaves are merged when they are joined.
+    private static final int LEAF_LENGTH = 512;
+
+    public static final Rope EMPTY = new Rope("");
+
+    // The text of a leaf, or null for a node
+    private final String text;
+    private final Rope left;
+    private final Rope right;
+    private final int length;
+    private final int height;
+
+    private Rope(String text) {
+        this.text = text;
+        this.left = null;
+        this.right = null;
+        this.length = text.length();
+        this.height = 0;
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.text = null;
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+        this.height = Math.max(left.height, right.height) + 1;
+    }
+
+    /**
+     * Make a balanced rope of a string
+     * @param s the string
+     * @return the rope
+     */
+    public static Rope of(String s) {
+        if (s.isEmpty()) {
+            return EMPTY;
+        }
+        return build(s, 0, s.length());
+    }
+
+    private static Rope build(String s, int start, int end) {
+        if (end - start <= LEAF_LENGTH) {
+            return new Rope(s.substring(start, end));
+        }
+        int middle = (start + end) >>> 1;
+        return new Rope(build(s, start, middle), build(s, middle, end));
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param index the index of the character
+     * @return the character at the index
+     * @throws IndexOutOfBoundsException if the index is outside the text
+     */
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + ", length " + length);
+        }
+        Rope rope = this;
+        while (rope.text == null) {
+            if (index < rope.left.length) {
+                rope = rope.left;
+            } else {
+                index -= rope.left.length;
+                rope = rope.right;
+            }
+        }
+        return rope.text.charAt(index);
+    }
+
+    /**
+     * Insert a string
+     * @param offset where the string is inserted
+     * @param s the string
+     * @return the new rope
+     * @throws IndexOutOfBoundsException if the offset is outside the text
+     */
+    public Rope insert(int offset, String s) {
+        checkRange(offset, 0);
+        if (s.isEmpty()) {
+            return this;
+        }
+        Rope[] parts = split(this, offset);
+        return join(join(parts[0], of(s)), parts[1]);
+    }
+
+    /**
+     * Remove a range of the text
+     * @param offset where the range starts
+     * @param count the number of characters in the range
+     * @return the new rope
+     * @throws IndexOutOfBoundsException if the range is outside the text
+     */
+    public Rope remove(int offset, int count) {
+        checkRange(offset, count);
+        if (count == 0) {
+            return this;
+        }
+        Rope[] before = split(this, offset);
+        Rope[] after = split(before[1], count);
+        return join(before[0], after[1]);
+    }
+
+    /**
+     * Append another rope
+     * @param other the rope to append
+     * @return the new rope
+     */
+    public Rope append(Rope other) {
+        return join(this, other);
+    }
+
+    /**
+     * @return the text as a string, which takes time linear in the length of the text
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(length);
+        appendTo(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Append the text to a builder, without making a string of it first
+     * @param builder the builder
+     */
+    public void appendTo(StringBuilder builder) {
+        if (text != null) {
+            builder.append(text);
+        } else {
+            left.appendTo(builder);
+            right.appendTo(builder);
+        }
+    }
+
+    private void checkRange(int offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > length || offset + count < 0) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + count + ", length " + length);
+        }
+    }
+
+    /**
+     * Split a rope in two
+     * @return the rope before the offset, and the rope from the offset
+     */
+    private static Rope[] split(Rope rope, int offset) {
+        if (offset == 0) {
+            return new Rope[]{EMPTY, rope};
+        }
+        if (offset == rope.length) {
+            return new Rope[]{rope, EMPTY};
+        }
+        if (rope.text != null) {
+            return new Rope[]{new Rope(rope.text.substring(0, offset)), new Rope(rope.text.substring(offset))};
+        }
+        if (offset <= rope.left.length) {
+            Rope[] parts = split(rope.left, offset);
+            return new Rope[]{parts[0], join(parts[1], rope.right)};
+        }
+        Rope[] parts = split(rope.right, offset - rope.left.length);
+        return new Rope[]{join(rope.left, parts[0]), parts[1]};
+    }
+
+    /**
+     * Concatenate two ropes, keeping the tree balanced.
+     * The shorter tree is hung into the spine of the taller one at the same height, and the nodes
+     * above it are rebalanced on the way up, which takes time proportional to the difference in height.
+     */
+    private static Rope join(Rope left, Rope right) {
+        if (left.length == 0) {
+            return right;
+        }
+        if (right.length == 0) {
+            return left;
+        }
+        if (left.text != null && right.text != null && left.length + right.length <= LEAF_LENGTH) {
+            return new Rope(left.text + right.text);
+        }
+        if (left.height > right.height + 1) {
+            return balance(left.left, join(left.right, right));
+        }
+        if (right.height > left.height + 1) {
+            return balance(join(left, right.left), right.right);
+        }
+        return new Rope(left, right);
+    }
+
+    /**
+     * Make a node of two subtrees, whose heights differ by at most two, rotating it if they differ by two
+     */
+    private static Rope balance(Rope left, Rope right) {
+        if (left.height > right.height + 1) {
+            if (left.left.height >= left.right.height) {
+                return new Rope(left.left, new Rope(left.right, right));
+            }
+            return new Rope(new Rope(left.left, left.right.left), new Rope(left.right.right, right));
+        }
+        if (right.height > left.height + 1) {
+            if (right.right.height >= right.left.height) {
+                return new Rope(new Rope(left, right.left), right.right);
+            }
+            return new Rope(new Rope(left, right.left.left), new Rope(right.left.right, right.right));
+        }
+        return new Rope(left, right);
+    }
+}
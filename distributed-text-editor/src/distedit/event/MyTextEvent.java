@@ -13,6 +13,17 @@ public class MyTextEvent implements Serializable {
 
     private int offset;
 
+    // Id of the connection the coordinator received the event on, if that client applies its own events
+    // without waiting for them to be broadcast back, or 0 otherwise. Not sent over the network.
+    private int origin;
+
+    // True if the coordinator could not transform the event, and sequenced it as an edit that changes nothing.
+    // Not sent over the network.
+    private boolean rejected;
+
+    // Timestamps of the stages the event has passed, if it is traced, or null. See distedit.trace.Trace.
+    private long[] trace;
+
     public MyTextEvent(int offset, int latestReplayedEventNumber) {
         this.offset = offset;
         this.basedOn = latestReplayedEventNumber;
@@ -30,6 +41,10 @@ public class MyTextEvent implements Serializable {
         return basedOn;
     }
 
+    public void setBasedOn(int basedOn) {
+        this.basedOn = basedOn;
+    }
+
     public int getSequenceNumber() {
         return sequenceNumber;
     }
@@ -38,4 +53,28 @@ public class MyTextEvent implements Serializable {
         this.offset = offset;
     }
 
+    public int getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(int origin) {
+        this.origin = origin;
+    }
+
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    public void setRejected(boolean rejected) {
+        this.rejected = rejected;
+    }
+
+    public long[] getTrace() {
+        return trace;
+    }
+
+    public void setTrace(long[] trace) {
+        this.trace = trace;
+    }
+
 }
@@ -0,0 +1,13 @@
+package distedit.event;
+
+/**
+ * Sent by the coordinator to the author of an event instead of the event itself, when the author
+ * has already applied the event locally. Tells the author the sequence number given to its event.
+ */
+public class TextAckEvent extends MyTextEvent {
+
+	public TextAckEvent(int sequenceNumber) {
+		super(0, sequenceNumber - 1);
+		setSequenceNumber(sequenceNumber);
+	}
+}
@@ -0,0 +1,112 @@
+package distedit.event;
+
+/**
+ * Transforms a {@link MyTextEvent} against another event, that was applied to the same document first,
+ * so that the event keeps its effect. Used by the sequencer of the coordinator for events based on an
+ * older document, and by clients for events that they have applied before they were sequenced.
+ *
+ * Applying b and then a transformed against b gives the same text as applying a and then b transformed
+ * against a, as long as the same event wins ties in both transformations:
+ * <ul>
+ *     <li>Inserts at the same offset are ordered by which event wins the tie</li>
+ *     <li>Removes of overlapping ranges only remove what the other event has not removed</li>
+ *     <li>An insert inside a range that is removed concurrently is removed too</li>
+ * </ul>
+ *
+ * @author DA4-03
+ * @version 2017-06-07
+ */
+public final class TextEventTransformer {
+
+    private TextEventTransformer() {
+    }
+
+    /**
+     * Change an event, so that it can be applied after another event
+     * @param event          the event to change
+     * @param before         the event applied first, which is not changed
+     * @param beforeWinsTies true if the text inserted by before goes first, when both events insert at the same offset
+     */
+    public static void transform(MyTextEvent event, MyTextEvent before, boolean beforeWinsTies) {
+        int offset = event.getOffset();
+        int beforeOffset = before.getOffset();
+        if (event instanceof TextInsertEvent) {
+            if (before instanceof TextInsertEvent) {
+                if (beforeOffset < offset || (beforeOffset == offset && beforeWinsTies)) {
+                    event.setOffset(offset + ((TextInsertEvent) before).getText().length());
+                }
+            } else if (before instanceof TextRemoveEvent) {
+                int beforeEnd = beforeOffset + ((TextRemoveEvent) before).getLength();
+                if (offset >= beforeEnd) {
+                    event.setOffset(offset - ((TextRemoveEvent) before).getLength());
+                } else if (offset > beforeOffset) {
+                    // Inserted inside the removed range, so it is removed too
+                    event.setOffset(beforeOffset);
+                    ((TextInsertEvent) event).setText("");
+                }
+            }
+        } else if (event instanceof TextRemoveEvent) {
+            TextRemoveEvent remove = (TextRemoveEvent) event;
+            int end = offset + remove.getLength();
+            if (before instanceof TextInsertEvent) {
+                int inserted = ((TextInsertEvent) before).getText().length();
+                if (beforeOffset <= offset) {
+                    event.setOffset(offset + inserted);
+                } else if (beforeOffset < end) {
+                    // The text is inserted inside the removed range, and is removed too
+                    remove.setLength(remove.getLength() + inserted);
+                }
+            } else if (before instanceof TextRemoveEvent) {
+                int beforeLength = ((TextRemoveEvent) before).getLength();
+                int start = mapRemoved(offset, beforeOffset, beforeLength);
+                event.setOffset(start);
+                remove.setLength(mapRemoved(end, beforeOffset, beforeLength) - start);
+            }
+        }
+    }
+
+    /**
+     * Keep an event inside a document, so it can be applied as it is.
+     * An insert beyond the end of the text goes at the end, and a remove only removes what is there.
+     * @param event  the event to change
+     * @param length the length of the document
+     */
+    public static void clamp(MyTextEvent event, int length) {
+        int offset = Math.max(0, Math.min(event.getOffset(), length));
+        event.setOffset(offset);
+        if (event instanceof TextRemoveEvent) {
+            TextRemoveEvent remove = (TextRemoveEvent) event;
+            remove.setLength(Math.max(0, Math.min(remove.getLength(), length - offset)));
+        }
+    }
+
+    /**
+     * Make a copy of an insert or remove event, including its sequence number, origin and trace
+     * @param event the event to copy
+     * @return the copy
+     */
+    public static MyTextEvent copy(MyTextEvent event) {
+        MyTextEvent copy;
+        if (event instanceof TextInsertEvent) {
+            copy = new TextInsertEvent(event.getOffset(), ((TextInsertEvent) event).getText(), event.getBasedOn());
+        } else if (event instanceof TextRemoveEvent) {
+            copy = new TextRemoveEvent(event.getOffset(), ((TextRemoveEvent) event).getLength(), event.getBasedOn());
+        } else {
+            throw new IllegalArgumentException("Cannot copy event: " + event);
+        }
+        copy.setSequenceNumber(event.getSequenceNumber());
+        copy.setOrigin(event.getOrigin());
+        copy.setTrace(event.getTrace());
+        return copy;
+    }
+
+    /**
+     * @return where an offset ends up after the given range has been removed
+     */
+    private static int mapRemoved(int offset, int removedOffset, int removedLength) {
+        if (offset <= removedOffset) {
+            return offset;
+        }
+        return Math.max(removedOffset, offset - removedLength);
+    }
+}
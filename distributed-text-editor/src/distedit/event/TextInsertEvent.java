@@ -12,5 +12,6 @@ public class TextInsertEvent extends MyTextEvent {
 		this.text = text;
 	}
 	public String getText() { return text; }
+	public void setText(String text) { this.text = text; }
 }
 
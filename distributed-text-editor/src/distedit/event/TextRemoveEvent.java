@@ -10,4 +10,5 @@ public class TextRemoveEvent extends MyTextEvent {
 	}
 	
 	public int getLength() { return length; }
+	public void setLength(int length) { this.length = length; }
 }
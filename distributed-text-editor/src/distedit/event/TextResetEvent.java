@@ -0,0 +1,18 @@
+package distedit.event;
+
+/**
+ * Replaces the whole text of the document. Used to bring a client up to date
+ * with a snapshot of the document, instead of replaying every event.
+ */
+public class TextResetEvent extends MyTextEvent {
+
+	private String text;
+
+	public TextResetEvent(String text, int sequenceNumber) {
+		super(0, sequenceNumber - 1);
+		this.text = text;
+		setSequenceNumber(sequenceNumber);
+	}
+
+	public String getText() { return text; }
+}
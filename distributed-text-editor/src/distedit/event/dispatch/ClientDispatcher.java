@@ -2,6 +2,7 @@ package distedit.event.dispatch;
 
 import distedit.event.MyTextEvent;
 import distedit.net.ConnectionManager;
+import distedit.trace.Trace;
 
 /**
  * Dispatch text events to a peer via a {@link ConnectionManager}
@@ -24,6 +25,7 @@ public class ClientDispatcher implements TextEventDispatcher {
     @Override
     public void dispatch(MyTextEvent textEvent) {
         try {
+            Trace.stamp(textEvent, Trace.DISPATCH);
             manager.queueOutgoingEvent(textEvent);
         } catch (InterruptedException e) {
             e.printStackTrace();
@@ -0,0 +1,197 @@
+package distedit.event.dispatch;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+
+/**
+ * Merges bursts of {@link MyTextEvent}s before passing them on to another {@link TextEventDispatcher}.
+ *
+ * While typing, every character produces its own event. The coalescing dispatcher holds on to the
+ * latest event for a short window, and merges following events into it when both are based on the same
+ * event number. The events are not applied to the local document until they come back from the coordinator,
+ * so both are offsets in the same document, and the sequencer transforms the second against the first.
+ * The merged event has the same effect as the sequencer gives the two events:
+ * <ul>
+ *     <li>inserts at the same offset, where the text of the first goes first</li>
+ *     <li>removes of overlapping or adjacent ranges, which remove the union of the ranges,
+ *         so repeated backspaces at the same caret remove a single character</li>
+ * </ul>
+ * The pending event is dispatched when the window has elapsed since it was started, when it reaches
+ * the maximum length, or when an event arrives that cannot be merged into it.
+ *
+ * The window and the maximum length are set with distedit.coalesce.windowMillis and distedit.coalesce.maxLength,
+ * and a window of 0 turns coalescing off.
+ *
+ * @author DA4-03
+ * @version 2017-06-02
+ */
+public class CoalescingDispatcher implements TextEventDispatcher {
+    public static final long DEFAULT_WINDOW_MILLIS = Long.getLong("distedit.coalesce.windowMillis", 30);
+    public static final int DEFAULT_MAX_LENGTH = Integer.getInteger("distedit.coalesce.maxLength", 256);
+
+    private final TextEventDispatcher dispatcher;
+    private final long windowMillis;
+    private final int maxLength;
+
+    private MyTextEvent pending;
+    // Time in milliseconds at which the pending event must be dispatched
+    private long deadline;
+
+    private Thread flusher;
+
+    /**
+     * Construct the coalescing dispatcher with the default window and maximum length
+     * @param dispatcher the dispatcher to pass merged events on to
+     */
+    public CoalescingDispatcher(TextEventDispatcher dispatcher) {
+        this(dispatcher, DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * Construct the coalescing dispatcher
+     * @param dispatcher   the dispatcher to pass merged events on to
+     * @param windowMillis the longest time an event is held back waiting for more events
+     * @param maxLength    the largest number of characters inserted or removed by a merged event
+     */
+    public CoalescingDispatcher(TextEventDispatcher dispatcher, long windowMillis, int maxLength) {
+        this.dispatcher = dispatcher;
+        this.windowMillis = windowMillis;
+        this.maxLength = maxLength;
+        startFlushing();
+    }
+
+    /**
+     * Wrap a dispatcher in a coalescing dispatcher with the default window, unless coalescing is turned off
+     * @param dispatcher the dispatcher to pass merged events on to
+     * @return the coalescing dispatcher, or the dispatcher itself if the default window is 0
+     */
+    public static TextEventDispatcher wrap(TextEventDispatcher dispatcher) {
+        return DEFAULT_WINDOW_MILLIS > 0 ? new CoalescingDispatcher(dispatcher) : dispatcher;
+    }
+
+    /**
+     * Merge the event into the pending event if possible, otherwise dispatch the pending event
+     * and let the new event be pending
+     * @param textEvent the text event to dispatch
+     */
+    @Override
+    public synchronized void dispatch(MyTextEvent textEvent) {
+        MyTextEvent merged = pending == null ? null : merge(pending, textEvent);
+        if (merged != null) {
+            pending = merged;
+        } else {
+            flush();
+            pending = textEvent;
+            deadline = System.currentTimeMillis() + windowMillis;
+            notifyAll();
+        }
+        if (lengthOf(pending) >= maxLength) {
+            flush();
+        }
+    }
+
+    /**
+     * Dispatch the pending event, if any
+     */
+    public synchronized void flush() {
+        if (pending != null) {
+            dispatcher.dispatch(pending);
+            pending = null;
+        }
+    }
+
+    /**
+     * Dispatch the pending event and stop the thread flushing events when the window has elapsed
+     */
+    public synchronized void close() {
+        flush();
+        flusher.interrupt();
+    }
+
+    public TextEventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Start a thread that dispatches the pending event when its window has elapsed
+     */
+    private void startFlushing() {
+        flusher = new Thread(() -> {
+            try {
+                synchronized (this) {
+                    while (true) {
+                        if (pending == null) {
+                            wait();
+                        } else {
+                            long remaining = deadline - System.currentTimeMillis();
+                            if (remaining > 0) {
+                                wait(remaining);
+                            } else {
+                                flush();
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                System.out.println("[CoalescingDispatcher] Flusher interrupted.");
+            }
+        }, "coalescing-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Merge two events, that are both based on the same document, into one
+     * @param first  the earlier event
+     * @param second the later event
+     * @return an event with the effect the sequencer gives both events, or null if they cannot be merged
+     */
+    static MyTextEvent merge(MyTextEvent first, MyTextEvent second) {
+        if (first.getBasedOn() != second.getBasedOn()) {
+            // The document has changed between the two events
+            return null;
+        }
+        MyTextEvent merged = mergeEdits(first, second);
+        if (merged != null) {
+            // The merged event is traced from the keypress of the first event
+            merged.setTrace(first.getTrace());
+        }
+        return merged;
+    }
+
+    private static MyTextEvent mergeEdits(MyTextEvent first, MyTextEvent second) {
+        if (first instanceof TextInsertEvent && second instanceof TextInsertEvent) {
+            TextInsertEvent firstInsert = (TextInsertEvent) first;
+            TextInsertEvent secondInsert = (TextInsertEvent) second;
+            // The sequencer moves the second insert after the text of the first, if it is at the same offset
+            // or further on, so only inserts at the same offset end up next to each other
+            if (secondInsert.getOffset() == firstInsert.getOffset()) {
+                return new TextInsertEvent(firstInsert.getOffset(),
+                        firstInsert.getText() + secondInsert.getText(),
+                        first.getBasedOn());
+            }
+        } else if (first instanceof TextRemoveEvent && second instanceof TextRemoveEvent) {
+            TextRemoveEvent firstRemove = (TextRemoveEvent) first;
+            TextRemoveEvent secondRemove = (TextRemoveEvent) second;
+            int firstEnd = firstRemove.getOffset() + firstRemove.getLength();
+            int secondEnd = secondRemove.getOffset() + secondRemove.getLength();
+            // The sequencer removes what the second remove has left after the first, so together they remove
+            // the union of both ranges, which is one range if they overlap or touch
+            if (secondRemove.getOffset() <= firstEnd && secondEnd >= firstRemove.getOffset()) {
+                int offset = Math.min(firstRemove.getOffset(), secondRemove.getOffset());
+                return new TextRemoveEvent(offset, Math.max(firstEnd, secondEnd) - offset, first.getBasedOn());
+            }
+        }
+        return null;
+    }
+
+    private static int lengthOf(MyTextEvent event) {
+        if (event instanceof TextInsertEvent) {
+            return ((TextInsertEvent) event).getText().length();
+        } else if (event instanceof TextRemoveEvent) {
+            return ((TextRemoveEvent) event).getLength();
+        }
+        return 0;
+    }
+}
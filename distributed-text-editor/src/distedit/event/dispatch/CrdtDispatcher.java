@@ -0,0 +1,41 @@
+package distedit.event.dispatch;
+
+import distedit.crdt.CrdtReplica;
+import distedit.crdt.PeerMesh;
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+
+/**
+ * Dispatch text events in the peer-to-peer mode, by making them operations of the {@link CrdtReplica}
+ * of a {@link PeerMesh}, and sending those to the other peers.
+ *
+ * The events have already been applied to the text area, so they must be dispatched on the event dispatch thread,
+ * where the operations of the other peers are applied to both the replica and the area, to keep them the same.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class CrdtDispatcher implements TextEventDispatcher {
+    private final PeerMesh mesh;
+
+    public CrdtDispatcher(PeerMesh mesh) {
+        this.mesh = mesh;
+    }
+
+    @Override
+    public void dispatch(MyTextEvent textEvent) {
+        CrdtReplica replica = mesh.getReplica();
+        if (textEvent instanceof TextInsertEvent) {
+            String text = ((TextInsertEvent) textEvent).getText();
+            if (!text.isEmpty()) {
+                mesh.broadcast(replica.insert(textEvent.getOffset(), text));
+            }
+        } else if (textEvent instanceof TextRemoveEvent) {
+            int length = ((TextRemoveEvent) textEvent).getLength();
+            if (length > 0) {
+                mesh.broadcast(replica.remove(textEvent.getOffset(), length));
+            }
+        }
+    }
+}
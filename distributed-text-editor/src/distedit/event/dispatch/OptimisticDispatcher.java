@@ -0,0 +1,186 @@
+package distedit.event.dispatch;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextEventTransformer;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Dispatches the events of a client, that applies its own events to the document right away,
+ * instead of waiting for the coordinator to send them back.
+ *
+ * At most one event is sent to the coordinator at a time. Events captured while it is waiting for its
+ * acknowledgement are buffered, merging them where possible, and the next one is sent when the
+ * acknowledgement arrives. The sent event is therefore always based on the latest event the client
+ * has seen, so the coordinator transforms it against the events of the other clients only.
+ *
+ * Events from the coordinator were sequenced before the pending events, but are replayed after them.
+ * Like in the Jupiter protocol, every incoming event is transformed against the pending events, and the
+ * pending events against the incoming event, with the {@link TextEventTransformer} used by the coordinator.
+ *
+ * Every method must be called on the event dispatch thread, which also applies the events to the document.
+ *
+ * @author DA4-03
+ * @version 2017-06-07
+ */
+public class OptimisticDispatcher implements TextEventDispatcher {
+    private final TextEventDispatcher dispatcher;
+
+    // The event waiting for an acknowledgement, or null
+    private MyTextEvent sent;
+    // Events applied locally, but not yet sent
+    private final LinkedList<MyTextEvent> buffered = new LinkedList<>();
+
+    /**
+     * Construct the optimistic dispatcher
+     * @param dispatcher the dispatcher sending events to the coordinator
+     */
+    public OptimisticDispatcher(TextEventDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Send an event, that has already been applied locally, or buffer it if an event is waiting
+     * for its acknowledgement
+     * @param textEvent the text event to dispatch
+     */
+    @Override
+    public void dispatch(MyTextEvent textEvent) {
+        if (sent == null) {
+            send(textEvent);
+            return;
+        }
+        MyTextEvent merged = buffered.isEmpty() ? null : merge(buffered.getLast(), textEvent);
+        if (merged != null) {
+            buffered.set(buffered.size() - 1, merged);
+        } else {
+            buffered.add(textEvent);
+        }
+    }
+
+    /**
+     * Handle the acknowledgement of the sent event, and send the next buffered event
+     * @param sequenceNumber the sequence number given to the sent event
+     */
+    public void acknowledge(int sequenceNumber) {
+        sent = null;
+        if (!buffered.isEmpty()) {
+            MyTextEvent next = buffered.removeFirst();
+            next.setBasedOn(sequenceNumber);
+            send(next);
+        }
+    }
+
+    /**
+     * Transform an event from the coordinator, so that it can be applied after the pending events,
+     * and transform the pending events, so that they apply after the event from the coordinator
+     * @param event the event from the coordinator, whose offset is changed
+     */
+    public void transform(MyTextEvent event) {
+        if (sent != null) {
+            transformPair(event, sent);
+        }
+        for (MyTextEvent pending : buffered) {
+            transformPair(event, pending);
+        }
+    }
+
+    /**
+     * Forget the sent event when the document is replaced by a snapshot. The coordinator sends the sent
+     * event in full if it is not included in the snapshot, or drops it if it was rejected. The buffered events
+     * are kept and sent. They were made on another document than the snapshot, so they are clamped to it
+     * like the coordinator clamps events, or the client could skip an event the coordinator applies.
+     * @param sequenceNumber the sequence number of the snapshot
+     * @param length the length of the snapshot
+     * @return the buffered events, that must be applied to the snapshot again
+     */
+    public List<MyTextEvent> reset(int sequenceNumber, int length) {
+        sent = null;
+        for (MyTextEvent event : buffered) {
+            TextEventTransformer.clamp(event, length);
+            if (event instanceof TextInsertEvent) {
+                length += ((TextInsertEvent) event).getText().length();
+            } else if (event instanceof TextRemoveEvent) {
+                length -= ((TextRemoveEvent) event).getLength();
+            }
+        }
+        List<MyTextEvent> reapplied = new ArrayList<>(buffered);
+        acknowledge(sequenceNumber);
+        return reapplied;
+    }
+
+    /**
+     * @return the number of events applied locally, but not yet acknowledged
+     */
+    public int getPendingCount() {
+        return buffered.size() + (sent == null ? 0 : 1);
+    }
+
+    public TextEventDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Send a copy of the event, so the pending event can be transformed while the copy is being sent
+     */
+    private void send(MyTextEvent event) {
+        sent = event;
+        dispatcher.dispatch(TextEventTransformer.copy(event));
+    }
+
+    /**
+     * Merge two buffered events into one, when
+     * <ul>
+     *     <li>an insert continues right after the text of the first insert</li>
+     *     <li>a remove ends where the first remove starts (backspace) or starts at the same offset (delete)</li>
+     * </ul>
+     * The rules only hold for events applied one after the other, as local events are, and not for events
+     * that are both based on the same document, which the coordinator transforms against each other.
+     * Those are merged by the {@link CoalescingDispatcher}.
+     * @param first  the earlier event
+     * @param second the later event
+     * @return an event with the combined effect of both events, or null if they cannot be merged
+     */
+    private static MyTextEvent merge(MyTextEvent first, MyTextEvent second) {
+        MyTextEvent merged = null;
+        if (first instanceof TextInsertEvent && second instanceof TextInsertEvent) {
+            TextInsertEvent firstInsert = (TextInsertEvent) first;
+            TextInsertEvent secondInsert = (TextInsertEvent) second;
+            if (secondInsert.getOffset() == firstInsert.getOffset() + firstInsert.getText().length()) {
+                merged = new TextInsertEvent(firstInsert.getOffset(),
+                        firstInsert.getText() + secondInsert.getText(),
+                        first.getBasedOn());
+            }
+        } else if (first instanceof TextRemoveEvent && second instanceof TextRemoveEvent) {
+            TextRemoveEvent firstRemove = (TextRemoveEvent) first;
+            TextRemoveEvent secondRemove = (TextRemoveEvent) second;
+            int length = firstRemove.getLength() + secondRemove.getLength();
+            if (secondRemove.getOffset() + secondRemove.getLength() == firstRemove.getOffset()) {
+                // Backspace
+                merged = new TextRemoveEvent(secondRemove.getOffset(), length, first.getBasedOn());
+            } else if (secondRemove.getOffset() == firstRemove.getOffset()) {
+                // Delete
+                merged = new TextRemoveEvent(firstRemove.getOffset(), length, first.getBasedOn());
+            }
+        }
+        if (merged != null) {
+            // The merged event is traced from the keypress of the first event
+            merged.setTrace(first.getTrace());
+        }
+        return merged;
+    }
+
+    /**
+     * Transform an incoming event and a pending event against each other. The incoming event was sequenced
+     * first, so it goes first when both are at the same offset.
+     */
+    private static void transformPair(MyTextEvent incoming, MyTextEvent pending) {
+        MyTextEvent original = TextEventTransformer.copy(incoming);
+        TextEventTransformer.transform(incoming, pending, false);
+        TextEventTransformer.transform(pending, original, true);
+    }
+}
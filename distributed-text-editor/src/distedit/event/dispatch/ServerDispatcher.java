@@ -2,6 +2,7 @@ package distedit.event.dispatch;
 
 import distedit.event.MyTextEvent;
 import distedit.event.sequencer.TextEventSequencer;
+import distedit.trace.Trace;
 
 
 /**
@@ -28,6 +29,7 @@ public class ServerDispatcher implements TextEventDispatcher {
     @Override
     public void dispatch(MyTextEvent textEvent) {
         try {
+            Trace.stamp(textEvent, Trace.DISPATCH);
             sequencer.sequenceEvent(textEvent);
         } catch (InterruptedException e) {
             e.printStackTrace();
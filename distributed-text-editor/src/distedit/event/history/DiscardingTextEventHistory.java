@@ -0,0 +1,48 @@
+package distedit.event.history;
+
+import distedit.event.MyTextEvent;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A history that forgets its events, for a coordinator that has no text area to replay them in.
+ * The document of such a coordinator is kept by its {@link distedit.event.sequencer.TextEventSequencer}.
+ * Benchmarks use it too, to measure what puts events into a history without the history itself.
+ *
+ * @author DA4-03
+ * @version 2017-06-15
+ */
+public class DiscardingTextEventHistory implements TextEventHistory {
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    @Override
+    public void put(MyTextEvent event) {
+    }
+
+    /**
+     * Nothing is ever replayed from this history, so this blocks until the history is closed
+     * @throws InterruptedException when the history is closed, or if the thread is interrupted
+     */
+    @Override
+    public MyTextEvent take() throws InterruptedException {
+        closed.await();
+        throw new InterruptedException("The history is closed");
+    }
+
+    @Override
+    public int drainTo(List<MyTextEvent> events, int maxEvents) {
+        return 0;
+    }
+
+    @Override
+    public void addAll(List<MyTextEvent> eventList) {
+    }
+
+    /**
+     * Release the threads waiting in, and the threads that later call, {@link #take()}
+     */
+    public void close() {
+        closed.countDown();
+    }
+}
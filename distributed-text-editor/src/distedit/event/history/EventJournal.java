@@ -0,0 +1,366 @@
+package distedit.event.history;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+import distedit.event.TextResetEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of sequenced {@link MyTextEvent}s, kept in a directory of memory-mapped segment files.
+ *
+ * Every segment starts with a header holding the id of the log, and is named after the sequence number of
+ * its first event. Each event is written as a record of its length, a CRC32 checksum and the encoded event.
+ * A record of length zero, like the unwritten end of a segment, ends the segment.
+ *
+ * Appending only copies the record into the mapped segment, so it costs no system call. How often the segment
+ * is forced to disk is chosen when the journal is opened:
+ * <ul>
+ *     <li>Every N events: the appending thread forces the segment after every N events, so the events
+ *         of a burst share one sync (group commit). With N = 1 every event is durable when appended.</li>
+ *     <li>Asynchronously: a background thread forces the segment at a fixed interval, so an event may be
+ *         lost if the machine fails within the interval, but appending never waits for the disk.</li>
+ * </ul>
+ * Since the operating system writes the pages of a mapping back in any order, a crash may leave a torn record.
+ * When the journal is opened, its events are read back up to the first record that is incomplete or fails its
+ * checksum, and everything after that record is discarded.
+ *
+ * @author DA4-03
+ * @version 2017-06-13
+ */
+public class EventJournal implements AutoCloseable {
+    private static final int MAGIC = 0x44454A31; // "DEJ1"
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final String SUFFIX = ".journal";
+
+    private static final byte TYPE_INSERT = 1;
+    private static final byte TYPE_REMOVE = 2;
+    private static final byte TYPE_RESET = 3;
+
+    private static ScheduledExecutorService flusher;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int syncEvery;
+    private final int logId;
+    private final CRC32 crc = new CRC32();
+
+    private MappedByteBuffer segment;
+    private int unsynced;
+    private ScheduledFuture<?> flushTask;
+
+    private EventJournal(File directory, int segmentBytes, int syncEvery, int logId) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncEvery = syncEvery;
+        this.logId = logId;
+    }
+
+    /**
+     * Open the journal in a directory, reading back the events already in it
+     * @param directory the directory of the segment files, which is created if it does not exist
+     * @param newLogId the log id written to a new journal
+     * @param segmentBytes the size of a segment file
+     * @param syncEvery force the segment to disk after this many events, or 0 to force it in the background
+     * @param flushIntervalMillis how often the segment is forced in the background, if syncEvery is 0
+     * @param recovered is given the events in the journal, in the order they were appended
+     * @return the journal, ready for appending events after those read back
+     * @throws IOException if the directory cannot be read or written
+     */
+    public static EventJournal open(File directory, int newLogId, int segmentBytes, int syncEvery,
+                                    long flushIntervalMillis, Consumer<MyTextEvent> recovered) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        List<File> segments = listSegments(directory);
+
+        EventJournal journal;
+        if (segments.isEmpty()) {
+            journal = new EventJournal(directory, segmentBytes, syncEvery, newLogId);
+            journal.segment = journal.createSegment(0);
+        } else {
+            journal = new EventJournal(directory, segmentBytes, syncEvery, readSegmentLogId(segments.get(0)));
+            journal.recover(segments, recovered);
+        }
+        if (syncEvery <= 0) {
+            journal.flushTask = flusher().scheduleWithFixedDelay(journal::flushInBackground,
+                    flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return journal;
+    }
+
+    /**
+     * @return the id of the log the events of this journal were sequenced in
+     */
+    public int getLogId() {
+        return logId;
+    }
+
+    /**
+     * Append an event to the journal. Events that are not insertions, removals or resets are ignored.
+     * @param event the sequenced event
+     * @throws IOException if the event is larger than a segment, or a new segment cannot be created
+     */
+    public synchronized void append(MyTextEvent event) throws IOException {
+        byte type;
+        byte[] text = null;
+        if (event instanceof TextInsertEvent) {
+            type = TYPE_INSERT;
+            text = ((TextInsertEvent) event).getText().getBytes(StandardCharsets.UTF_8);
+        } else if (event instanceof TextRemoveEvent) {
+            type = TYPE_REMOVE;
+        } else if (event instanceof TextResetEvent) {
+            type = TYPE_RESET;
+            text = ((TextResetEvent) event).getText().getBytes(StandardCharsets.UTF_8);
+        } else {
+            return;
+        }
+        if (segment == null) {
+            throw new IOException("Journal is closed");
+        }
+
+        int payloadBytes = 1 + 4 * 4 + (text == null ? 0 : text.length);
+        int recordBytes = RECORD_HEADER_BYTES + payloadBytes;
+        if (HEADER_BYTES + recordBytes > segmentBytes) {
+            throw new IOException("Event " + event.getSequenceNumber() + " is larger than a journal segment");
+        }
+        // Keep room for the zero length that ends the segment
+        if (segment.remaining() < recordBytes + 4) {
+            segment.force();
+            segment = createSegment(event.getSequenceNumber());
+            unsynced = 0;
+        }
+
+        int start = segment.position();
+        segment.position(start + RECORD_HEADER_BYTES);
+        segment.put(type);
+        segment.putInt(event.getSequenceNumber());
+        segment.putInt(event.getBasedOn());
+        segment.putInt(event.getOffset());
+        if (type == TYPE_REMOVE) {
+            segment.putInt(((TextRemoveEvent) event).getLength());
+        } else {
+            segment.putInt(text.length);
+            segment.put(text);
+        }
+
+        ByteBuffer payload = segment.duplicate();
+        payload.position(start + RECORD_HEADER_BYTES).limit(start + recordBytes);
+        crc.reset();
+        crc.update(payload);
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, payloadBytes);
+
+        if (syncEvery > 0 && ++unsynced >= syncEvery) {
+            segment.force();
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Force every appended event to disk
+     */
+    public synchronized void sync() {
+        if (segment != null) {
+            segment.force();
+            unsynced = 0;
+        }
+    }
+
+    /**
+     * Force every appended event to disk and stop appending
+     */
+    @Override
+    public synchronized void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        sync();
+        segment = null;
+    }
+
+    /**
+     * Force the current segment without holding the lock, so appending goes on while the disk is written
+     */
+    private void flushInBackground() {
+        MappedByteBuffer current;
+        synchronized (this) {
+            current = segment;
+        }
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    /**
+     * Read back the records of every segment, and continue appending after the last complete one
+     */
+    private void recover(List<File> segments, Consumer<MyTextEvent> recovered) throws IOException {
+        for (int i = 0; i < segments.size(); i++) {
+            MappedByteBuffer mapped = map(segments.get(i));
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(8) != logId) {
+                throw new StreamCorruptedException("Not a segment of this journal: " + segments.get(i));
+            }
+            mapped.position(HEADER_BYTES);
+            boolean complete = readRecords(mapped, recovered);
+            if (!complete || i == segments.size() - 1) {
+                // Wipe what follows the last complete record, so it is not read back after newer records
+                int end = mapped.position();
+                while (mapped.hasRemaining()) {
+                    mapped.put((byte) 0);
+                }
+                mapped.position(end);
+                mapped.force();
+                segment = mapped;
+                for (File discarded : segments.subList(i + 1, segments.size())) {
+                    System.out.println("[EventJournal] Discarding " + discarded + " after a torn record.");
+                    if (!discarded.delete()) {
+                        System.out.println("[EventJournal] Could not delete " + discarded);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the records of a segment from its position, leaving the position after the last complete record
+     * @return true if the segment ended properly, false if a record was torn
+     */
+    private boolean readRecords(MappedByteBuffer mapped, Consumer<MyTextEvent> recovered) {
+        while (mapped.remaining() >= RECORD_HEADER_BYTES) {
+            int start = mapped.position();
+            int payloadBytes = mapped.getInt(start);
+            if (payloadBytes == 0) {
+                return true;
+            }
+            if (payloadBytes < 0 || payloadBytes > mapped.remaining() - RECORD_HEADER_BYTES) {
+                return false;
+            }
+            ByteBuffer payload = mapped.duplicate();
+            payload.position(start + RECORD_HEADER_BYTES).limit(start + RECORD_HEADER_BYTES + payloadBytes);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != mapped.getInt(start + 4)) {
+                return false;
+            }
+            MyTextEvent event = decode(payload);
+            if (event == null) {
+                return false;
+            }
+            recovered.accept(event);
+            mapped.position(start + RECORD_HEADER_BYTES + payloadBytes);
+        }
+        return true;
+    }
+
+    private static MyTextEvent decode(ByteBuffer payload) {
+        byte type = payload.get();
+        int sequenceNumber = payload.getInt();
+        int basedOn = payload.getInt();
+        int offset = payload.getInt();
+        int value = payload.getInt();
+        MyTextEvent event;
+        if (type == TYPE_REMOVE) {
+            event = new TextRemoveEvent(offset, value, basedOn);
+        } else if ((type == TYPE_INSERT || type == TYPE_RESET) && value == payload.remaining()) {
+            byte[] text = new byte[value];
+            payload.get(text);
+            String s = new String(text, StandardCharsets.UTF_8);
+            if (type == TYPE_RESET) {
+                return new TextResetEvent(s, sequenceNumber);
+            }
+            event = new TextInsertEvent(offset, s, basedOn);
+        } else {
+            return null;
+        }
+        event.setSequenceNumber(sequenceNumber);
+        return event;
+    }
+
+    private MappedByteBuffer createSegment(int firstSequenceNumber) throws IOException {
+        File file = new File(directory, String.format("%010d%s", firstSequenceNumber, SUFFIX));
+        MappedByteBuffer mapped = map(file);
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, HEADER_BYTES);
+        mapped.putInt(8, logId);
+        mapped.putInt(12, firstSequenceNumber);
+        mapped.position(HEADER_BYTES);
+        return mapped;
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // The mapping stays valid after the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, raf.length()));
+        }
+    }
+
+    /**
+     * Read the log id of the journal in a directory, without opening it
+     * @param directory the directory of the segment files
+     * @param newLogId the log id to return if there is no journal in the directory
+     * @return the log id
+     * @throws IOException if the journal cannot be read
+     */
+    public static int readLogId(File directory, int newLogId) throws IOException {
+        if (!directory.isDirectory()) {
+            return newLogId;
+        }
+        List<File> segments = listSegments(directory);
+        return segments.isEmpty() ? newLogId : readSegmentLogId(segments.get(0));
+    }
+
+    private static int readSegmentLogId(File segment) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+            if (raf.length() < HEADER_BYTES || raf.readInt() != MAGIC) {
+                throw new StreamCorruptedException("Not a journal segment: " + segment);
+            }
+            raf.readInt();
+            return raf.readInt();
+        }
+    }
+
+    /**
+     * @return the segment files of the journal, in the order they were created
+     */
+    private static List<File> listSegments(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            throw new IOException("Cannot list journal directory " + directory);
+        }
+        // The names are zero padded sequence numbers, so they sort in order
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    private static synchronized ScheduledExecutorService flusher() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return flusher;
+    }
+}
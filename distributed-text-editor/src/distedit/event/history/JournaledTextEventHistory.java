@@ -0,0 +1,69 @@
+package distedit.event.history;
+
+import distedit.event.MyTextEvent;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A {@link TextEventHistory} of the coordinator, that appends every sequenced event put into it
+ * to an {@link EventJournal} before passing it on to be replayed, so the session survives a crash.
+ *
+ * Events added with {@link #addAll} are only replayed, since they are used for bringing the text area
+ * up to date with a state that is already in the journal. Until the journal is set, which is done once
+ * the sequencer putting events into this history has been rebuilt from it, events are only replayed.
+ *
+ * @author DA4-03
+ * @version 2017-06-13
+ */
+public class JournaledTextEventHistory implements TextEventHistory {
+    private final TextEventHistory history;
+    private volatile EventJournal journal;
+
+    /**
+     * @param history the history the events are replayed from
+     */
+    public JournaledTextEventHistory(TextEventHistory history) {
+        this.history = history;
+    }
+
+    @Override
+    public void put(MyTextEvent event) throws InterruptedException {
+        EventJournal journal = this.journal;
+        if (journal != null) {
+            try {
+                journal.append(event);
+            } catch (IOException e) {
+                System.out.println("[JournaledTextEventHistory] Could not journal event " + event.getSequenceNumber());
+                e.printStackTrace();
+            }
+        }
+        history.put(event);
+    }
+
+    @Override
+    public MyTextEvent take() throws InterruptedException {
+        return history.take();
+    }
+
+    @Override
+    public int drainTo(List<MyTextEvent> events, int maxEvents) {
+        return history.drainTo(events, maxEvents);
+    }
+
+    @Override
+    public void addAll(List<MyTextEvent> eventList) {
+        history.addAll(eventList);
+    }
+
+    /**
+     * @param journal the journal the events are appended to
+     */
+    public void setJournal(EventJournal journal) {
+        this.journal = journal;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+}
@@ -26,7 +26,6 @@ public class StandardTextEventHistory implements TextEventHistory {
     @Override
     public void put(MyTextEvent event) throws InterruptedException {
         queue.put(event);
-        //TODO: Log events
     }
 
     @Override
@@ -34,6 +33,11 @@ public class StandardTextEventHistory implements TextEventHistory {
         return queue.take();
     }
 
+    @Override
+    public int drainTo(List<MyTextEvent> events, int maxEvents) {
+        return queue.drainTo(events, maxEvents);
+    }
+
     @Override
     public void addAll(List<MyTextEvent> eventList) {
         queue.addAll(eventList);
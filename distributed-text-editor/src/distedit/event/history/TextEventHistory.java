@@ -25,5 +25,13 @@ public interface TextEventHistory {
      */
     MyTextEvent take() throws InterruptedException;
 
+    /**
+     * Take the oldest {@link MyTextEvent}s that are in the history, without blocking
+     * @param events the list the events are added to, in order
+     * @param maxEvents the largest number of events to take
+     * @return the number of events taken
+     */
+    int drainTo(List<MyTextEvent> events, int maxEvents);
+
     void addAll(List<MyTextEvent> eventList);
 }
@@ -0,0 +1,18 @@
+package distedit.event.pipeline;
+
+import distedit.event.MyTextEvent;
+
+/**
+ * Processes the events of one stage of an {@link EventPipeline}
+ *
+ * @author DA4-03
+ * @version 2017-06-08
+ */
+public interface EventHandler {
+    /**
+     * Process an event. Events are processed one at a time, in the order they were published.
+     * @param event the event
+     * @throws InterruptedException if the thread is interrupted
+     */
+    void onEvent(MyTextEvent event) throws InterruptedException;
+}
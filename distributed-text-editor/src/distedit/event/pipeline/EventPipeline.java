@@ -0,0 +1,219 @@
+package distedit.event.pipeline;
+
+import distedit.event.MyTextEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes published events through stages, each running in its own thread, without any queues between them.
+ *
+ * All events live in one {@link EventRingBuffer}. Every stage keeps a {@link Sequence} of the last event it
+ * has processed, and only processes events that the stages it depends on have already processed. A stage
+ * processes every event that has become available in one batch, before it moves its sequence, so a stage
+ * that falls behind catches up with a few reads of the sequences. Stages that depend on the same stages,
+ * run in parallel.
+ *
+ * A thread waiting for events, or for room in the buffer, spins for a short while, then yields and
+ * finally parks, so the latency stays low under load without burning a core when the pipeline is idle.
+ *
+ * @author DA4-03
+ * @version 2017-06-08
+ */
+public class EventPipeline {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = 50000;
+
+    private final EventRingBuffer ringBuffer;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Construct the pipeline
+     * @param bufferSize the number of events in the ring buffer, which must be a power of two
+     */
+    public EventPipeline(int bufferSize) {
+        ringBuffer = new EventRingBuffer(bufferSize);
+    }
+
+    /**
+     * Add a stage, that processes events after the given stages have processed them,
+     * or as soon as they are published if no stages are given
+     * @param name      the name of the thread running the stage
+     * @param handler   processes the events
+     * @param dependsOn the stages, that must process an event first
+     * @return the stage
+     */
+    public Stage addStage(String name, EventHandler handler, Stage... dependsOn) {
+        if (!threads.isEmpty()) {
+            throw new IllegalStateException("The pipeline has already been started");
+        }
+        Stage stage = new Stage(name, handler, dependsOn);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Start a thread for every stage. Producers are held back by the stages, that no other stage depends on.
+     */
+    public void start() {
+        List<Sequence> gating = new ArrayList<>();
+        for (Stage stage : stages) {
+            boolean isLast = true;
+            for (Stage other : stages) {
+                for (Stage dependency : other.dependsOn) {
+                    isLast &= dependency != stage;
+                }
+            }
+            if (isLast) {
+                gating.add(stage.sequence);
+            }
+        }
+        ringBuffer.setGatingSequences(gating.toArray(new Sequence[0]));
+
+        for (Stage stage : stages) {
+            Thread thread = new Thread(stage, stage.name);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Publish an event to the first stages of the pipeline, waiting while the buffer is full
+     * @param event the event
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void publish(MyTextEvent event) throws InterruptedException {
+        ringBuffer.publish(event);
+    }
+
+    /**
+     * Publish an event to the first stages of the pipeline, unless the buffer is full
+     * @param event the event
+     * @return false if the buffer is full, in which case the room listener is called once a stage has moved on
+     */
+    public boolean tryPublish(MyTextEvent event) {
+        return ringBuffer.tryPublish(event);
+    }
+
+    /**
+     * Set what is told that there may be room, after {@link #tryPublish} found the buffer full.
+     * It is called on the thread of a stage, so it must not wait.
+     * @param roomListener the listener
+     */
+    public void setRoomListener(Runnable roomListener) {
+        ringBuffer.setRoomListener(roomListener);
+    }
+
+    /**
+     * Stop the threads of the stages. Events not yet processed by every stage are dropped.
+     */
+    public void stop() {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public EventRingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    /**
+     * Wait a little, a little longer every time the thread has been idle
+     * @param idle the number of times the thread has waited so far
+     * @return the new number of times the thread has waited
+     */
+    static int idle(int idle) {
+        if (idle < SPIN_TRIES) {
+            // Spin
+        } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+            return idle;
+        }
+        return idle + 1;
+    }
+
+    /**
+     * A stage of the pipeline, processing events in its own thread
+     */
+    public class Stage implements Runnable {
+        private final String name;
+        private final EventHandler handler;
+        private final Stage[] dependsOn;
+        private final Sequence[] dependencies;
+        private final Sequence sequence = new Sequence(-1);
+
+        private Stage(String name, EventHandler handler, Stage[] dependsOn) {
+            this.name = name;
+            this.handler = handler;
+            this.dependsOn = dependsOn;
+            dependencies = new Sequence[dependsOn.length];
+            for (int i = 0; i < dependsOn.length; i++) {
+                dependencies[i] = dependsOn[i].sequence;
+            }
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            int idle = 0;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    long available = getAvailable(next);
+                    if (available < next) {
+                        idle = idle(idle);
+                        continue;
+                    }
+                    idle = 0;
+                    for (long s = next; s <= available; s++) {
+                        try {
+                            handler.onEvent(ringBuffer.get(s));
+                        } catch (RuntimeException e) {
+                            System.out.println("[EventPipeline] Stage " + name + " failed to process an event.");
+                            e.printStackTrace();
+                        }
+                    }
+                    sequence.set(available);
+                    ringBuffer.stageMoved();
+                    next = available + 1;
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+            System.out.println("[EventPipeline] Stage " + name + " stopped.");
+        }
+
+        /**
+         * @return the highest sequence, that this stage may process
+         */
+        private long getAvailable(long next) {
+            if (dependencies.length == 0) {
+                return ringBuffer.getHighestPublished(next);
+            }
+            return Sequence.minimum(dependencies);
+        }
+
+        /**
+         * @return the sequence of the last event processed by the stage
+         */
+        public long getSequence() {
+            return sequence.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package distedit.event.pipeline;
+
+import distedit.event.MyTextEvent;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A fixed size ring of {@link MyTextEvent}s, published by any number of producers and read by the stages
+ * of an {@link EventPipeline}.
+ *
+ * A producer waits until the slowest stage has moved past the slot of the next sequence one lap earlier,
+ * claims that sequence with a compare-and-set, stores the event and marks the slot as published with the
+ * lap number. Producers therefore never lock, and a stage sees a sequence as soon as it, and every sequence
+ * before it, has been published. Since a producer only claims a sequence once there is room for it, a claimed
+ * sequence is always published, even if the producer is interrupted while waiting.
+ *
+ * The slots hold references to the events, which are decoded by the producers, rather than pre-allocated
+ * events that are copied into, since the events differ in type.
+ *
+ * @author DA4-03
+ * @version 2017-06-08
+ */
+public class EventRingBuffer {
+    private final MyTextEvent[] entries;
+    private final int mask;
+    private final int indexShift;
+    // The lap, in which the event in each slot was published
+    private final AtomicIntegerArray published;
+
+    // The highest sequence claimed by a producer
+    private final Sequence claimed = new Sequence(-1);
+    // The sequences of the last stages, that a producer must not lap
+    private volatile Sequence[] gatingSequences = new Sequence[0];
+    // The slowest gating sequence seen by a producer, so producers rarely read every gating sequence
+    private final Sequence cachedGatingSequence = new Sequence(-1);
+    // True if a producer found the buffer full in tryPublish, and the room listener must be called
+    private volatile boolean producerWaiting;
+    private volatile Runnable roomListener;
+
+    /**
+     * Construct the ring buffer
+     * @param bufferSize the number of slots, which must be a power of two
+     */
+    public EventRingBuffer(int bufferSize) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("The buffer size must be a power of two: " + bufferSize);
+        }
+        entries = new MyTextEvent[bufferSize];
+        mask = bufferSize - 1;
+        indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        published = new AtomicIntegerArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Publish an event, waiting while the buffer is full
+     * @param event the event to publish
+     * @return the sequence of the event
+     * @throws InterruptedException if the thread is interrupted while waiting, in which case no sequence
+     *                              has been claimed
+     */
+    public long publish(MyTextEvent event) throws InterruptedException {
+        long sequence;
+        int idle = 0;
+        // Full, so wait for the slowest stage before claiming
+        while ((sequence = tryClaim()) < 0) {
+            idle = EventPipeline.idle(idle);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        store(sequence, event);
+        return sequence;
+    }
+
+    /**
+     * Publish an event if there is room for it, without waiting
+     * @param event the event to publish
+     * @return false if the buffer is full, in which case the room listener is called once a stage has moved on
+     */
+    public boolean tryPublish(MyTextEvent event) {
+        long sequence = tryClaim();
+        if (sequence < 0) {
+            producerWaiting = true;
+            // A stage may have moved on before the flag was set, without calling the listener
+            sequence = tryClaim();
+            if (sequence < 0) {
+                return false;
+            }
+        }
+        store(sequence, event);
+        return true;
+    }
+
+    /**
+     * Claim the next sequence if there is room for it, trying again if another producer claims it first
+     * @return the sequence, or -1 if the buffer is full
+     */
+    private long tryClaim() {
+        while (true) {
+            long current = claimed.get();
+            long sequence = current + 1;
+            long wrapPoint = sequence - entries.length;
+            if (wrapPoint > cachedGatingSequence.get()) {
+                long gatingSequence = Sequence.minimum(gatingSequences);
+                cachedGatingSequence.set(gatingSequence);
+                if (wrapPoint > gatingSequence) {
+                    return -1;
+                }
+            }
+            if (claimed.compareAndSet(current, sequence)) {
+                return sequence;
+            }
+        }
+    }
+
+    private void store(long sequence, MyTextEvent event) {
+        int index = (int) sequence & mask;
+        entries[index] = event;
+        published.lazySet(index, (int) (sequence >>> indexShift));
+    }
+
+    /**
+     * Called by a stage after it has moved on, to call the room listener if a producer found the buffer full
+     */
+    void stageMoved() {
+        if (producerWaiting) {
+            producerWaiting = false;
+            Runnable listener = roomListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * @param roomListener called by a stage when there may be room for a producer, that found the buffer full
+     */
+    void setRoomListener(Runnable roomListener) {
+        this.roomListener = roomListener;
+    }
+
+    /**
+     * @return the event stored for a published sequence
+     */
+    public MyTextEvent get(long sequence) {
+        return entries[(int) sequence & mask];
+    }
+
+    /**
+     * @return true if the event of the sequence has been published
+     */
+    public boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * Find the highest sequence, from the given sequence and up, below which every sequence is published
+     * @param from the first sequence to check
+     * @return the highest published sequence without gaps, or from - 1 if from is not published
+     */
+    public long getHighestPublished(long from) {
+        long highest = claimed.get();
+        for (long sequence = from; sequence <= highest; sequence++) {
+            if (!isPublished(sequence)) {
+                return sequence - 1;
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * @return the number of events published, but not yet processed by every stage
+     */
+    public long getBacklog() {
+        return Math.max(0, claimed.get() - Sequence.minimum(gatingSequences));
+    }
+
+    public int getBufferSize() {
+        return entries.length;
+    }
+
+    void setGatingSequences(Sequence[] gatingSequences) {
+        this.gatingSequences = gatingSequences;
+    }
+}
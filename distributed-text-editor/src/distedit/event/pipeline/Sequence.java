@@ -0,0 +1,33 @@
+package distedit.event.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A position in an {@link EventRingBuffer}, i.e., the highest sequence claimed by the producers
+ * or the highest sequence processed by a stage of an {@link EventPipeline}.
+ *
+ * The fields after the value keep sequences, that are written by different threads, from sharing a cache line.
+ *
+ * @author DA4-03
+ * @version 2017-06-08
+ */
+public class Sequence extends AtomicLong {
+    // Padding, so that the value does not share a cache line with other hot fields
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7;
+
+    public Sequence(long initialValue) {
+        super(initialValue);
+    }
+
+    /**
+     * @return the smallest of the given sequences, or Long.MAX_VALUE if there are none
+     */
+    static long minimum(Sequence[] sequences) {
+        long minimum = Long.MAX_VALUE;
+        for (Sequence sequence : sequences) {
+            minimum = Math.min(minimum, sequence.get());
+        }
+        return minimum;
+    }
+}
@@ -0,0 +1,56 @@
+package distedit.event.sequencer;
+
+import distedit.document.Rope;
+import distedit.event.TextResetEvent;
+
+import java.io.Serializable;
+
+/**
+ * The text of the document as it was right after the event with a given sequence number
+ * was replayed. Sent to new clients instead of the full log of events.
+ *
+ * The text is kept as an immutable {@link Rope}, so taking a snapshot of the document of the sequencer
+ * does not copy it. The text is only made into a string when the snapshot is sent.
+ *
+ * @author DA4-03
+ * @version 2017-06-02
+ */
+public class DocumentSnapshot implements Serializable {
+    private final Rope document;
+    private final int sequenceNumber;
+
+    public DocumentSnapshot(String text, int sequenceNumber) {
+        this(Rope.of(text), sequenceNumber);
+    }
+
+    public DocumentSnapshot(Rope document, int sequenceNumber) {
+        this.document = document;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * @return the text, which is made into a string on every call
+     */
+    public String getText() {
+        return document.toString();
+    }
+
+    public Rope getDocument() {
+        return document;
+    }
+
+    /**
+     * @return the sequence number of the latest event included in the snapshot, or -1 if no events are included
+     */
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * Make an event that replaces the document with the snapshot when replayed
+     * @return a reset event carrying the sequence number of the snapshot
+     */
+    public TextResetEvent toEvent() {
+        return new TextResetEvent(getText(), sequenceNumber);
+    }
+}
@@ -0,0 +1,120 @@
+package distedit.event.sequencer;
+
+import distedit.event.MyTextEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A log of sequenced {@link MyTextEvent}s indexed by their sequence number.
+ *
+ * The events are kept in a growable ring buffer, so looking up the event with a given
+ * sequence number is a constant time operation, and old events can be trimmed from the
+ * front of the log without copying the rest of it.
+ *
+ * The log is not thread safe. It is guarded by the {@link TextEventSequencer} owning it.
+ *
+ * @author DA4-03
+ * @version 2017-06-02
+ */
+public class SequencedEventLog {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private MyTextEvent[] events;
+    // Index in the array of the oldest event in the log
+    private int head;
+    // Number of events in the log
+    private int size;
+    // Sequence number of the oldest event in the log
+    private int firstSequenceNumber;
+
+    public SequencedEventLog() {
+        events = new MyTextEvent[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Append an event to the log. Events must be appended in the order of their sequence numbers.
+     * @param event the sequenced event
+     * @throws IllegalArgumentException if the event does not directly follow the newest event in the log
+     */
+    public void add(MyTextEvent event) {
+        if (size == 0) {
+            firstSequenceNumber = event.getSequenceNumber();
+        } else if (event.getSequenceNumber() != getNextSequenceNumber()) {
+            throw new IllegalArgumentException("Expected event number " + getNextSequenceNumber()
+                    + " but got " + event.getSequenceNumber());
+        }
+        if (size == events.length) {
+            grow();
+        }
+        events[(head + size) & (events.length - 1)] = event;
+        size++;
+    }
+
+    /**
+     * Get the event with the given sequence number
+     * @param sequenceNumber the sequence number of the event
+     * @return the event, or null if it is not in the log
+     */
+    public MyTextEvent get(int sequenceNumber) {
+        if (!contains(sequenceNumber)) {
+            return null;
+        }
+        return events[(head + sequenceNumber - firstSequenceNumber) & (events.length - 1)];
+    }
+
+    public boolean contains(int sequenceNumber) {
+        return size > 0 && sequenceNumber >= firstSequenceNumber && sequenceNumber < getNextSequenceNumber();
+    }
+
+    /**
+     * Copy the events with a sequence number larger than the given one
+     * @param sequenceNumber the sequence number of the latest event not to include
+     * @return the events in sequence order
+     */
+    public List<MyTextEvent> after(int sequenceNumber) {
+        int from = Math.max(sequenceNumber + 1, firstSequenceNumber);
+        List<MyTextEvent> result = new ArrayList<>(Math.max(getNextSequenceNumber() - from, 0));
+        for (int seq = from; seq < getNextSequenceNumber(); seq++) {
+            result.add(get(seq));
+        }
+        return result;
+    }
+
+    /**
+     * Remove all events with a sequence number smaller than the given one
+     * @param sequenceNumber the sequence number of the oldest event to keep
+     */
+    public void trimBefore(int sequenceNumber) {
+        while (size > 0 && firstSequenceNumber < sequenceNumber) {
+            events[head] = null;
+            head = (head + 1) & (events.length - 1);
+            firstSequenceNumber++;
+            size--;
+        }
+    }
+
+    public int getFirstSequenceNumber() {
+        return firstSequenceNumber;
+    }
+
+    public int getNextSequenceNumber() {
+        return firstSequenceNumber + size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Double the capacity of the ring, moving the oldest event to the front of the new array
+     */
+    private void grow() {
+        MyTextEvent[] grown = new MyTextEvent[events.length * 2];
+        int firstPart = events.length - head;
+        System.arraycopy(events, head, grown, 0, firstPart);
+        System.arraycopy(events, 0, grown, firstPart, head);
+        events = grown;
+        head = 0;
+    }
+}
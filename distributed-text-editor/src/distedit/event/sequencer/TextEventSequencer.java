@@ -1,25 +1,67 @@
 package distedit.event.sequencer;
 
+import distedit.document.Rope;
 import distedit.event.MyTextEvent;
+import distedit.event.TextEventTransformer;
 import distedit.event.TextInsertEvent;
 import distedit.event.TextRemoveEvent;
+import distedit.event.TextResetEvent;
+import distedit.event.history.EventJournal;
+import distedit.event.history.JournaledTextEventHistory;
 import distedit.event.history.TextEventHistory;
+import distedit.event.pipeline.EventPipeline;
+import distedit.metrics.MBeans;
+import distedit.metrics.Meter;
 import distedit.net.ConnectionManager;
+import distedit.trace.Trace;
 
-import java.util.LinkedList;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A standard implementation that sequences {@link MyTextEvent}s
  *
+ * While it sequences the events of a coordinator, it is registered as an MXBean. Its counters are
+ * {@link LongAdder}s, so they are read without taking the lock of the sequencer.
+ *
  * @author DA4-03
  * @version 2017-05-08
  */
-public class TextEventSequencer {
+public class TextEventSequencer implements TextEventSequencerMXBean {
+    // Number of events between two snapshots of the document
+    private static final int SNAPSHOT_INTERVAL = 1000;
+    // Most events kept in the log for transforming events based on older events, if a client lags that far behind
+    private static final int MAX_LOG_EVENTS = Integer.getInteger("distedit.sequencer.maxLogEvents", 100000);
+
     private ConnectionManager manager;
     private TextEventHistory history;
     private int nextEventNumber;
-    private List<MyTextEvent> log;
+    private SequencedEventLog log;
+    private DocumentSnapshot snapshot;
+    // The text after every event sequenced so far
+    private Rope document;
+    // Identifies the numbering of this log, which a standby keeps when it takes over
+    private int logId;
+    // Keeps the sequenced events on disk, or null if they are only kept in memory
+    private EventJournal journal;
+    // Sequences, records and broadcasts events in separate threads, or null if that is done by the caller
+    private volatile EventPipeline pipeline;
+    // Held while an event is sequenced and passed on, so events are queued in the order they are sequenced,
+    // while the lock of the sequencer is only held for sequencing
+    private final Object dispatchLock = new Object();
+
+    private final Meter sequenced = new Meter();
+    private final LongAdder transformed = new LongAdder();
+    private final LongAdder transforms = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder replicated = new LongAdder();
+    // The name of the MXBean, or null if it is not registered
+    private ObjectName mbeanName;
 
     /**
      * Constructs the sequencer with a {@link ConnectionManager} and a {@link TextEventHistory}
@@ -28,65 +70,434 @@ public class TextEventSequencer {
     public TextEventSequencer(TextEventHistory history) {
         this.history = history;
         nextEventNumber = 0;
-        this.log = new LinkedList<>();
+        this.log = new SequencedEventLog();
+        this.snapshot = new DocumentSnapshot(Rope.EMPTY, -1);
+        this.document = Rope.EMPTY;
+        this.logId = new Random().nextInt(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Make the sequencer of a coordinator, that puts its events in a history.
+     * Run with -Ddistedit.journal=DIRECTORY to also append the sequenced events to a journal in that directory.
+     * If the directory already holds a journal, the sequencer is rebuilt from it, so the session goes on
+     * where it stopped. Events are broadcast before they are forced to disk, so events after the last sync may
+     * have reached clients without being recovered, and their numbers are given to other events. The rebuilt
+     * sequencer therefore goes on in a new log, so clients that reconnect are resynced with a snapshot instead of
+     * catching up from numbers that now mean other events. The rebuilt document is added to the history
+     * to be replayed.
+     * The journal is forced to disk after every -Ddistedit.journal.syncEvery events, or every
+     * -Ddistedit.journal.flushIntervalMillis in the background if that is 0.
+     * @param history the history of the coordinator
+     * @return the sequencer
+     */
+    public static TextEventSequencer forCoordinator(TextEventHistory history) {
+        String directory = System.getProperty("distedit.journal");
+        if (directory == null) {
+            return new TextEventSequencer(history);
+        }
+        JournaledTextEventHistory journaled = new JournaledTextEventHistory(history);
+        TextEventSequencer sequencer = new TextEventSequencer(journaled);
+        try {
+            File dir = new File(directory);
+            sequencer.restore(new DocumentSnapshot(Rope.EMPTY, -1), EventJournal.readLogId(dir, sequencer.getLogId()));
+            sequencer.journal = EventJournal.open(dir, sequencer.getLogId(),
+                    Integer.getInteger("distedit.journal.segmentBytes", 64 * 1024 * 1024),
+                    Integer.getInteger("distedit.journal.syncEvery", 64),
+                    Long.getLong("distedit.journal.flushIntervalMillis", 100),
+                    sequencer::replicate);
+            journaled.setJournal(sequencer.journal);
+        } catch (IOException e) {
+            System.out.println("Could not open the journal in " + directory + ", running without it.");
+            e.printStackTrace();
+            return new TextEventSequencer(history);
+        }
+        // Show the recovered document
+        DocumentSnapshot recovered = sequencer.getCurrentSnapshot();
+        if (recovered.getSequenceNumber() >= 0) {
+            sequencer.startNewLog();
+            history.addAll(Collections.singletonList(recovered.toEvent()));
+        }
+        return sequencer;
     }
 
     /**
      * Controls the ordering of events
      * Keeps a log of all sequenced events
      * If necessary, the events are modified, so that they reflect the changes of the events in the log.
+     * If the pipeline is started, the event is only published to it, and sequenced by its first stage.
      * @param e
      * @throws InterruptedException
      */
-    public synchronized void sequenceEvent(MyTextEvent e) throws InterruptedException {
+    public void sequenceEvent(MyTextEvent e) throws InterruptedException {
+        EventPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.publish(e);
+        } else {
+            sequenceAndDispatch(e);
+        }
+    }
+
+    /**
+     * Sequence the event, and pass it on after releasing the lock of the sequencer, since the queues may be full,
+     * and the broadcaster that empties them takes the lock for the snapshot of a resync
+     */
+    private void sequenceAndDispatch(MyTextEvent e) throws InterruptedException {
+        synchronized (dispatchLock) {
+            sequence(e);
+            if (manager != null) {
+                manager.queueOutgoingEvent(e); // Send the event to the client
+            }
+            history.put(e);             // Put the event in the local history
+        }
+    }
+
+    /**
+     * Give the event its sequence number, transform it, apply it to the document and add it to the log,
+     * without passing it on
+     * @param e the event
+     */
+    private synchronized void sequence(MyTextEvent e) {
+        Trace.stamp(e, Trace.SEQUENCE);
         // Set the sequence number of the event
         // to be the next event number
         e.setSequenceNumber(nextEventNumber);
 
         if(e.getSequenceNumber() != (e.getBasedOn() + 1)) {
             // e is not based on the latest event number
-            transformEvent(e);
+            if (e.getBasedOn() + 1 < getOldestTransformable()) {
+                reject(e);
+            } else {
+                transformEvent(e);
+                transformed.increment();
+            }
         }
+        clampToDocument(e);
+        document = applyEvent(document, e);
         nextEventNumber++;
-        manager.queueOutgoingEvent(e); // Send the event to the client
-        history.put(e);             // Put the event in the local history
+        sequenced.mark();
         log.add(e);                 // Put the event in the log, so that future events, that depends
                                     // this event, can be adjusted to reflect the changes of this event.
+
+        if (e.getSequenceNumber() - snapshot.getSequenceNumber() >= SNAPSHOT_INTERVAL) {
+            takeSnapshot();
+        }
+    }
+
+    /**
+     * Add an event sequenced by the coordinator to the log, as a standby does, so this sequencer
+     * can take over and continue numbering where the coordinator stopped.
+     * Events already in the log are ignored, and a reset replaces the log with its text.
+     * @param e the sequenced event
+     */
+    public synchronized void replicate(MyTextEvent e) {
+        if (e instanceof TextResetEvent) {
+            restore(new DocumentSnapshot(((TextResetEvent) e).getText(), e.getSequenceNumber()), logId);
+            return;
+        }
+        if (e.getSequenceNumber() < nextEventNumber) {
+            return;
+        }
+        if (e.getSequenceNumber() > nextEventNumber) {
+            System.out.println("[TextEventSequencer] Cannot replicate event " + e.getSequenceNumber()
+                    + ", missing events from " + nextEventNumber);
+            return;
+        }
+        document = applyEvent(document, e);
+        nextEventNumber++;
+        replicated.increment();
+        log.add(e);
+        if (e.getSequenceNumber() - snapshot.getSequenceNumber() >= SNAPSHOT_INTERVAL) {
+            takeSnapshot();
+        }
     }
 
     /**
-     * Iterate through the log of events, and modify the event,
-     * so that it reflects the changes of the events in the log
+     * Replace the log with a snapshot of the coordinator, so that the next event is numbered right after it
+     * @param snapshot the snapshot
+     * @param logId the id of the log of the coordinator
+     */
+    public synchronized void restore(DocumentSnapshot snapshot, int logId) {
+        this.snapshot = snapshot;
+        this.logId = logId;
+        document = snapshot.getDocument();
+        log = new SequencedEventLog();
+        nextEventNumber = snapshot.getSequenceNumber() + 1;
+    }
+
+    /**
+     * Go on numbering events in a log with a new id, so clients that followed the old log are resynced
+     */
+    private synchronized void startNewLog() {
+        int previous = logId;
+        while (logId == previous) {
+            logId = new Random().nextInt(Integer.MAX_VALUE);
+        }
+        System.out.println("[TextEventSequencer] Recovered " + nextEventNumber + " events of log " + previous
+                + ", going on in log " + logId);
+    }
+
+    /**
+     * Snapshot the document, and trim the events from the log, that no event can be based on anymore.
+     * The log keeps the events after the previous snapshot, and those after the oldest event that the coordinator
+     * or a client can still base an event on, but no more than distedit.sequencer.maxLogEvents events.
+     */
+    private void takeSnapshot() {
+        DocumentSnapshot current = getCurrentSnapshot();
+        int keepFrom = snapshot.getSequenceNumber() + 1;
+        if (manager != null) {
+            keepFrom = Math.min(keepFrom, manager.getOldestBasedOn() + 1);
+        }
+        log.trimBefore(Math.max(keepFrom, nextEventNumber - MAX_LOG_EVENTS));
+        snapshot = current;
+    }
+
+    /**
+     * @return the sequence number of the oldest event, that events based on it or later can be transformed against
+     */
+    private int getOldestTransformable() {
+        return log.size() > 0 ? log.getFirstSequenceNumber() : nextEventNumber;
+    }
+
+    /**
+     * Turn an event into an edit that changes nothing, because it is based on events that have been trimmed from
+     * the log, so it cannot be transformed. The event is still sequenced, so the author gets an answer, and an
+     * author that has applied the event already is resynced with a snapshot when the event is broadcast.
+     * @param event the event
+     */
+    private void reject(MyTextEvent event) {
+        System.out.println("[TextEventSequencer] Rejected an event based on " + event.getBasedOn()
+                + ", the log starts at " + getOldestTransformable());
+        event.setRejected(true);
+        event.setOffset(0);
+        if (event instanceof TextInsertEvent) {
+            ((TextInsertEvent) event).setText("");
+        } else if (event instanceof TextRemoveEvent) {
+            ((TextRemoveEvent) event).setLength(0);
+        }
+        rejected.increment();
+    }
+
+    /**
+     * Keep a transformed event inside the document, so every client can replay it as it is.
+     * An insert beyond the end of the text goes at the end, and a remove only removes what is there.
+     * @param event the event
+     */
+    private void clampToDocument(MyTextEvent event) {
+        TextEventTransformer.clamp(event, document.length());
+    }
+
+    /**
+     * Apply an event to a document the same way the {@link distedit.EventReplayer} does,
+     * i.e., events that are out of bounds are skipped
+     * @param document the document
+     * @param event the event to apply
+     * @return the new document
+     */
+    private static Rope applyEvent(Rope document, MyTextEvent event) {
+        int offset = event.getOffset();
+        if (event instanceof TextInsertEvent) {
+            if (offset >= 0 && offset <= document.length()) {
+                return document.insert(offset, ((TextInsertEvent) event).getText());
+            }
+        } else if (event instanceof TextRemoveEvent) {
+            int end = offset + ((TextRemoveEvent) event).getLength();
+            if (offset >= 0 && end >= offset && end <= document.length()) {
+                return document.remove(offset, end - offset);
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Iterate through the events in the log that were sequenced after the event, that
+     * event is based on, and modify the event, so that it reflects the changes of those events.
+     * The events must all be in the log.
      * @param event
      */
     private void transformEvent(MyTextEvent event) {
-        for (MyTextEvent nextEvent : log) {
-            if (nextEvent.getSequenceNumber() > event.getBasedOn() && nextEvent.getSequenceNumber() <= event.getSequenceNumber()) {
-                //nextEvent is an event that will be replayed after the event corresponding to event.basedOn and before event.
-                if (nextEvent.getOffset() <= event.getOffset()) {
-                    //event is dependent on nextEvent.
-                    if (nextEvent instanceof TextInsertEvent) {
-                        //the offset of event is adjusted by the length of the string inserted by nextEvent.
-                        event.setOffset(event.getOffset()+((TextInsertEvent) nextEvent).getText().length());
-                    } else if (nextEvent instanceof TextRemoveEvent){
-                        //the offset of nextEvent is adjusted by the length being removed by nextEvent.
-                        event.setOffset(event.getOffset()-((TextRemoveEvent) nextEvent).getLength());
-
-                        // Avoid IllegalRemove-exceptions
-                        if(event.getOffset() < 0) {
-                            event.setOffset(0);
-                        }
-                    }
-                }
+        for (int seq = event.getBasedOn() + 1; seq < event.getSequenceNumber(); seq++) {
+            //nextEvent is an event that will be replayed after the event corresponding to event.basedOn and before event.
+            MyTextEvent nextEvent = log.get(seq);
+            // nextEvent was sequenced first, so its text goes first when both insert at the same offset
+            TextEventTransformer.transform(event, nextEvent, true);
+            transforms.increment();
+        }
+    }
+
+    /**
+     * Sequence events in a pipeline of threads instead of in the threads calling {@link #sequenceEvent}.
+     * A single thread sequences the events, and after it, one thread puts them in the local history
+     * while another broadcasts them through the manager, without the queues in between.
+     * @param bufferSize the number of events in the ring buffer of the pipeline, which must be a power of two
+     */
+    public void startPipeline(int bufferSize) {
+        EventPipeline pipeline = new EventPipeline(bufferSize);
+        EventPipeline.Stage sequencing = pipeline.addStage("Sequencer", this::sequence);
+        pipeline.addStage("Journal", history::put, sequencing);
+        pipeline.addStage("Broadcaster", event -> {
+            if (manager != null) {
+                manager.broadcast(event);
+            }
+        }, sequencing);
+        // Connections that stopped reading because the pipeline was full are resumed when there is room
+        pipeline.setRoomListener(() -> {
+            if (manager != null) {
+                manager.resumeReading();
             }
+        });
+        pipeline.start();
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Stop the pipeline, if it is started. Events published later are sequenced by the calling thread.
+     */
+    public void stopPipeline() {
+        EventPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            this.pipeline = null;
+            pipeline.stop();
         }
     }
 
+    public EventPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Stop the pipeline, force the journal to disk and close it, if there are any, and unregister the MXBean
+     */
+    public void close() {
+        stopPipeline();
+        unregisterMBean();
+        EventJournal journal = this.journal;
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Set the manager that sequenced events are sent through, and register the MXBean of this sequencer.
+     * The manager resyncs clients, that fall behind, with snapshots from this sequencer.
+     * @param manager the manager
+     */
     public void setManager(ConnectionManager manager) {
         this.manager = manager;
+        manager.setSequencer(this);
+        unregisterMBean();
+        synchronized (this) {
+            mbeanName = MBeans.register("type=TextEventSequencer,port=" + manager.getMyPort(), this);
+        }
+    }
+
+    private synchronized void unregisterMBean() {
+        MBeans.unregister(mbeanName);
+        mbeanName = null;
+    }
+
+    /**
+     * @return the id of the numbering of this log. Events with the same sequence number and log id are the same.
+     */
+    @Override
+    public synchronized int getLogId() {
+        return logId;
+    }
+
+    @Override
+    public synchronized int getLatestSequenceNumber() {
+        return nextEventNumber - 1;
+    }
+
+    @Override
+    public synchronized int getLogLength() {
+        return log.size();
+    }
+
+    @Override
+    public synchronized int getSnapshotSequenceNumber() {
+        return snapshot.getSequenceNumber();
     }
 
-    public List<MyTextEvent> getLog() {
-        return log;
+    @Override
+    public synchronized int getDocumentLength() {
+        return document.length();
+    }
+
+    @Override
+    public long getSequencedCount() {
+        return sequenced.getCount();
+    }
+
+    @Override
+    public double getSequencedPerSecond() {
+        return sequenced.getRate();
+    }
+
+    @Override
+    public long getTransformedCount() {
+        return transformed.sum();
+    }
+
+    @Override
+    public long getTransformCount() {
+        return transforms.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getReplicatedCount() {
+        return replicated.sum();
+    }
+
+    @Override
+    public boolean isPipelined() {
+        return pipeline != null;
+    }
+
+    /**
+     * @return the latest snapshot of the document
+     */
+    public synchronized DocumentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Make a snapshot of the document including every event sequenced so far.
+     * The document is immutable, so this takes constant time.
+     * @return the snapshot
+     */
+    public synchronized DocumentSnapshot getCurrentSnapshot() {
+        return new DocumentSnapshot(document, nextEventNumber - 1);
+    }
+
+    /**
+     * Copy the events a client has missed, if the client has followed this log and the events are still in it
+     * @param logId the id of the log the client has followed
+     * @param sequenceNumber the sequence number of the latest event the client has received
+     * @return the events in sequence order, or null if the client must be resynced with a snapshot
+     */
+    public synchronized List<MyTextEvent> getMissingEvents(int logId, int sequenceNumber) {
+        if (logId != this.logId || sequenceNumber < 0 || sequenceNumber >= nextEventNumber) {
+            return null;
+        }
+        if (sequenceNumber + 1 < nextEventNumber && !log.contains(sequenceNumber + 1)) {
+            // The missing events have been trimmed
+            return null;
+        }
+        return log.after(sequenceNumber);
+    }
+
+    /**
+     * Copy the events in the log sequenced after the given sequence number.
+     * The log always contains the events after the latest snapshot.
+     * @param sequenceNumber the sequence number of the latest event not to include
+     * @return the events in sequence order
+     */
+    public synchronized List<MyTextEvent> getLogAfter(int sequenceNumber) {
+        return log.after(sequenceNumber);
     }
 }
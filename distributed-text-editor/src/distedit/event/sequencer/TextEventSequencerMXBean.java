@@ -0,0 +1,56 @@
+package distedit.event.sequencer;
+
+/**
+ * The management interface of a {@link TextEventSequencer}, registered as distedit:type=TextEventSequencer,port=N
+ * while it sequences the events of the coordinator listening on port N
+ *
+ * @author DA4-03
+ * @version 2017-06-19
+ */
+public interface TextEventSequencerMXBean {
+
+    int getLogId();
+
+    /**
+     * @return the sequence number of the latest event, or -1 if none
+     */
+    int getLatestSequenceNumber();
+
+    /**
+     * @return the number of events kept in the log for transforming events based on older events
+     */
+    int getLogLength();
+
+    int getSnapshotSequenceNumber();
+
+    int getDocumentLength();
+
+    /**
+     * @return the number of events sequenced by this sequencer, not counting replicated events
+     */
+    long getSequencedCount();
+
+    double getSequencedPerSecond();
+
+    /**
+     * @return the number of sequenced events, that were based on an older event and had to be transformed
+     */
+    long getTransformedCount();
+
+    /**
+     * @return the number of times an event has been transformed against an event in the log
+     */
+    long getTransformCount();
+
+    /**
+     * @return the number of events, that were based on events trimmed from the log, and sequenced as no edit
+     */
+    long getRejectedCount();
+
+    /**
+     * @return the number of events copied from the log of a coordinator, as a standby does
+     */
+    long getReplicatedCount();
+
+    boolean isPipelined();
+}
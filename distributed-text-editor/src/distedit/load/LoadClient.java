@@ -0,0 +1,339 @@
+package distedit.load;
+
+import distedit.Editor;
+import distedit.document.Rope;
+import distedit.event.MyTextEvent;
+import distedit.event.TextAckEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+import distedit.event.TextResetEvent;
+import distedit.event.dispatch.ClientDispatcher;
+import distedit.event.dispatch.OptimisticDispatcher;
+import distedit.event.history.StandardTextEventHistory;
+import distedit.event.history.TextEventHistory;
+import distedit.net.ConnectionManager;
+import distedit.net.strategies.ClientAcceptSocketStrategy;
+import distedit.trace.Trace;
+import distedit.trace.TraceRecorder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A client without a text area, that connects to a coordinator through a {@link ConnectionManager} like the
+ * {@link distedit.DistributedTextEditor}, and makes the edits of a {@link Workload}.
+ *
+ * The client is optimistic: it applies its edits to its own copy of the document right away, and sends them
+ * through an {@link OptimisticDispatcher}. Its thread plays the part of the event dispatch thread of the editor,
+ * both making the edits and replaying the events from the coordinator, transformed against the pending edits.
+ *
+ * The latency of an edit is the time from when it was due, until the coordinator has acknowledged the event
+ * that carries it. Edits are due at a fixed rate, whether or not the client keeps up, so a client falling
+ * behind shows as a higher latency rather than as fewer samples.
+ *
+ * @author DA4-03
+ * @version 2017-06-16
+ */
+public class LoadClient implements Editor, Runnable {
+    // Largest number of events from the coordinator replayed before the next due edit is made
+    private static final int MAX_BATCH = 1024;
+
+    private final Workload workload;
+    private final Random random;
+    private final TextEventHistory history = new StandardTextEventHistory();
+    private final ConnectionManager manager;
+    private final OptimisticDispatcher dispatcher;
+    private final Thread thread;
+    // Records the latency of every hop of the traced events of the other clients
+    private final TraceRecorder traceRecorder = new TraceRecorder();
+
+    // Only used by the thread of the client
+    private Rope document = Rope.EMPTY;
+    // The times at which the edits were due, that are not yet acknowledged
+    private final ArrayDeque<Long> dueTimes = new ArrayDeque<>();
+    // The number of edits merged into each pending event, the sent event first
+    private final ArrayDeque<Integer> editsPerEvent = new ArrayDeque<>();
+    private long[] latencies = new long[1024];
+    private int latencyCount;
+
+    // Edits due in this window are measured
+    private volatile long measureFrom = Long.MAX_VALUE;
+    private volatile long measureUntil = Long.MAX_VALUE;
+
+    private volatile boolean running = true;
+    private volatile boolean generating;
+    private volatile boolean connected;
+    private volatile int latestReplayedEventNumber = -1;
+    private volatile int pendingCount;
+    private volatile long edits;
+    private volatile long acknowledgedEdits;
+    private volatile long lostEdits;
+    private volatile long skippedEvents;
+    private volatile String title;
+    private volatile Rope snapshot = Rope.EMPTY;
+
+    /**
+     * Construct the client, listening for other clients on any free port
+     * @param workload the edits to make
+     * @param seed the seed of the random edits
+     */
+    public LoadClient(Workload workload, long seed) {
+        this.workload = workload;
+        this.random = new Random(seed);
+        // Every event from the coordinator wakes up the thread of the client
+        manager = new ConnectionManager(this,
+                new ClientAcceptSocketStrategy(),
+                event -> {
+                    try {
+                        history.put(event);
+                        LockSupport.unpark(getThread());
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                },
+                history,
+                false);
+        manager.setOptimistic(true);
+        manager.setReplayProgress(this::getLatestReplayedEventNumber);
+        dispatcher = new OptimisticDispatcher(new ClientDispatcher(manager));
+        thread = new Thread(this, "load-client");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Connect to the coordinator and start the thread of the client
+     * @param IP the address of the coordinator
+     * @param port the port of the coordinator
+     * @return true if connected
+     */
+    public boolean connect(String IP, int port) {
+        if (!manager.connectToServer(IP, port)) {
+            return false;
+        }
+        manager.start();
+        thread.start();
+        return true;
+    }
+
+    @Override
+    public void run() {
+        long interval = workload.getIntervalNanos();
+        long nextEditAt = 0;
+        List<MyTextEvent> batch = new ArrayList<>();
+        while (running) {
+            batch.clear();
+            history.drainTo(batch, MAX_BATCH);
+            for (MyTextEvent event : batch) {
+                replay(event);
+            }
+
+            long now = System.nanoTime();
+            if (!generating || !connected) {
+                // Spread the first edits of the clients over the interval, so they do not edit in lockstep
+                nextEditAt = now + (long) (random.nextDouble() * interval);
+            } else if (now >= nextEditAt) {
+                edit(nextEditAt);
+                nextEditAt += interval;
+                continue;
+            }
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(this, generating ? Math.max(1, nextEditAt - now) : 1000000);
+            }
+        }
+    }
+
+    /**
+     * Make an edit, apply it to the document and send it to the coordinator
+     * @param due the time at which the edit was due
+     */
+    private void edit(long due) {
+        MyTextEvent event = Trace.start(workload.next(random, document.length(), latestReplayedEventNumber));
+        apply(event);
+        int before = dispatcher.getPendingCount();
+        dispatcher.dispatch(event);
+        if (dispatcher.getPendingCount() > before) {
+            editsPerEvent.addLast(1);
+        } else {
+            // Merged into the latest buffered event
+            editsPerEvent.addLast(editsPerEvent.removeLast() + 1);
+        }
+        dueTimes.addLast(due);
+        pendingCount = dispatcher.getPendingCount();
+        edits++;
+        snapshot = document;
+    }
+
+    /**
+     * Replay an event from the coordinator, like the {@link distedit.EventReplayer} of an optimistic editor
+     */
+    private void replay(MyTextEvent event) {
+        latestReplayedEventNumber = event.getSequenceNumber();
+        if (event instanceof TextInsertEvent || event instanceof TextRemoveEvent) {
+            dispatcher.transform(event);
+            apply(event);
+            traceRecorder.record(event, Trace.now());
+        } else if (event instanceof TextResetEvent) {
+            document = Rope.of(((TextResetEvent) event).getText());
+            boolean sentDropped = dispatcher.getPendingCount() > 0;
+            for (MyTextEvent local : dispatcher.reset(event.getSequenceNumber(), document.length())) {
+                apply(local);
+            }
+            if (sentDropped) {
+                // The sent event is either in the snapshot or sent again in full, but is never acknowledged
+                for (int i = editsPerEvent.removeFirst(); i > 0; i--) {
+                    dueTimes.removeFirst();
+                    lostEdits++;
+                }
+            }
+            connected = true;
+        } else if (event instanceof TextAckEvent) {
+            dispatcher.acknowledge(event.getSequenceNumber());
+            long now = System.nanoTime();
+            for (int i = editsPerEvent.removeFirst(); i > 0; i--) {
+                long due = dueTimes.removeFirst();
+                if (due >= measureFrom && due < measureUntil) {
+                    record(now - due);
+                }
+                acknowledgedEdits++;
+            }
+        }
+        pendingCount = dispatcher.getPendingCount();
+        snapshot = document;
+    }
+
+    /**
+     * Apply an event to the document, skipping it if it is out of bounds like the editor does
+     */
+    private void apply(MyTextEvent event) {
+        try {
+            if (event instanceof TextInsertEvent) {
+                document = document.insert(event.getOffset(), ((TextInsertEvent) event).getText());
+            } else if (event instanceof TextRemoveEvent) {
+                document = document.remove(event.getOffset(), ((TextRemoveEvent) event).getLength());
+            }
+        } catch (IndexOutOfBoundsException e) {
+            skippedEvents++;
+        }
+    }
+
+    private void record(long latency) {
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[latencyCount++] = latency;
+    }
+
+    /**
+     * Start or stop making edits
+     * @param generating true to make edits
+     */
+    public void setGenerating(boolean generating) {
+        this.generating = generating;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Measure the latency of the edits due in a window of time
+     * @param from the start of the window, as of System.nanoTime
+     * @param until the end of the window
+     */
+    public void setMeasurementWindow(long from, long until) {
+        measureFrom = from;
+        measureUntil = until;
+    }
+
+    /**
+     * Stop the thread of the client and disconnect
+     * @return the latencies measured, in nanoseconds and in no particular order
+     * @throws InterruptedException if interrupted while waiting for the thread to stop
+     */
+    public long[] stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+        manager.disconnect();
+        return Arrays.copyOf(latencies, latencyCount);
+    }
+
+    private Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * @return the recorder of the traced events of the other clients, if run with -Ddistedit.trace=true
+     */
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * @return the latest event from the coordinator, that has been replayed
+     */
+    public int getLatestReplayedEventNumber() {
+        return latestReplayedEventNumber;
+    }
+
+    /**
+     * @return the number of events applied locally, but not yet acknowledged
+     */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the document as of the latest edit or replayed event
+     */
+    public Rope getDocument() {
+        return snapshot;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public long getEditCount() {
+        return edits;
+    }
+
+    public long getAcknowledgedEditCount() {
+        return acknowledgedEdits;
+    }
+
+    /**
+     * @return the number of edits dropped by a resync with a snapshot, that are never acknowledged
+     */
+    public long getLostEditCount() {
+        return lostEdits;
+    }
+
+    /**
+     * @return the number of events, that were out of bounds of the document and skipped
+     */
+    public long getSkippedEventCount() {
+        return skippedEvents;
+    }
+
+    /**
+     * @return the latest status of the connection manager
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    @Override
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    /**
+     * A load client never takes over from the coordinator. It lets the election go on without it.
+     */
+    @Override
+    public void becomeServer() {
+        System.out.println("[LoadClient] Won an election, but load clients do not coordinate.");
+    }
+}
@@ -0,0 +1,233 @@
+package distedit.load;
+
+import distedit.event.sequencer.DocumentSnapshot;
+import distedit.server.HeadlessCoordinator;
+import distedit.trace.Trace;
+import distedit.trace.TraceRecorder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Puts a coordinator under load with many headless {@link LoadClient}s in one process, and reports the
+ * throughput, the latency percentiles of the edits, and whether all documents are the same afterwards.
+ *
+ * The clients connect through the same protocol as the editor. Without an address, a {@link HeadlessCoordinator}
+ * is started in the process, configured by the same system properties as when run on its own. After a warm-up,
+ * the edits due in the measurement window are measured. Then the clients stop editing, wait for their pending
+ * edits to be acknowledged and for every event to arrive, and their documents are compared with each other,
+ * and with the document of the coordinator if it runs in the process.
+ *
+ * Configured by the system properties of the {@link Workload}, and
+ * <ul>
+ *     <li>distedit.load.warmupSeconds: seconds of editing before measuring (5)</li>
+ *     <li>distedit.load.durationSeconds: seconds of editing that are measured (30)</li>
+ *     <li>distedit.load.seed: the seed of the random edits (1)</li>
+ *     <li>distedit.trace: trace the edits, and report the latency of every hop from one client to the others</li>
+ * </ul>
+ *
+ * Run with: java distedit.load.LoadGenerator [clients] [host:port]
+ * The exit status is 1 if the documents have not converged.
+ *
+ * @author DA4-03
+ * @version 2017-06-16
+ */
+public class LoadGenerator {
+
+    private static final int DEFAULT_CLIENTS = 10;
+    private static final long SETTLE_TIMEOUT_MILLIS = 60000;
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        long warmup = Long.getLong("distedit.load.warmupSeconds", 5) * 1000000000L;
+        long duration = Long.getLong("distedit.load.durationSeconds", 30) * 1000000000L;
+        long seed = Long.getLong("distedit.load.seed", 1);
+        Workload workload = Workload.fromSystemProperties();
+
+        HeadlessCoordinator coordinator = null;
+        String host;
+        int port;
+        if (args.length > 1) {
+            host = args[1].substring(0, args[1].lastIndexOf(':'));
+            port = Integer.parseInt(args[1].substring(args[1].lastIndexOf(':') + 1));
+        } else {
+            coordinator = new HeadlessCoordinator();
+            coordinator.start();
+            host = coordinator.getManager().getMyIP();
+            port = coordinator.getManager().getMyPort();
+        }
+        // The clients listen for each other on any free port
+        System.setProperty("distedit.port", "0");
+
+        System.out.println("Connecting " + clientCount + " clients to " + host + ":" + port + ", " + workload);
+        List<LoadClient> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            LoadClient client = new LoadClient(workload, seed + i);
+            if (!client.connect(host, port)) {
+                System.out.println("Client " + i + " could not connect");
+                System.exit(1);
+            }
+            clients.add(client);
+        }
+        for (LoadClient client : clients) {
+            while (!client.isConnected()) {
+                Thread.sleep(10);
+            }
+        }
+
+        long start = System.nanoTime();
+        for (LoadClient client : clients) {
+            client.setMeasurementWindow(start + warmup, start + warmup + duration);
+            client.setGenerating(true);
+        }
+        Thread.sleep(warmup / 1000000);
+        int firstEvent = clients.get(0).getLatestReplayedEventNumber();
+        long firstEdits = editCount(clients);
+        Thread.sleep(duration / 1000000);
+        int lastEvent = clients.get(0).getLatestReplayedEventNumber();
+        long lastEdits = editCount(clients);
+        for (LoadClient client : clients) {
+            client.setGenerating(false);
+        }
+
+        double seconds = duration / 1e9;
+        System.out.println(String.format("Edits:      %9.0f/s made, target %.0f/s", (lastEdits - firstEdits) / seconds,
+                workload.getRate() * clientCount));
+        System.out.println(String.format("Sequenced:  %9.0f events/s, as replayed by the first client",
+                (lastEvent - firstEvent) / seconds));
+
+        boolean settled = settle(clients);
+        long acknowledged = 0;
+        long lost = 0;
+        long skipped = 0;
+        List<long[]> samples = new ArrayList<>();
+        for (LoadClient client : clients) {
+            acknowledged += client.getAcknowledgedEditCount();
+            lost += client.getLostEditCount();
+            skipped += client.getSkippedEventCount();
+        }
+        boolean converged = settled && converged(clients, coordinator);
+        for (LoadClient client : clients) {
+            samples.add(client.stop());
+        }
+        if (coordinator != null) {
+            coordinator.stop();
+        }
+
+        printLatencies(samples);
+        if (Trace.ENABLED) {
+            TraceRecorder traces = new TraceRecorder();
+            for (LoadClient client : clients) {
+                traces.add(client.getTraceRecorder());
+            }
+            System.out.print(traces.report());
+        }
+        System.out.println(String.format("Edits acknowledged %d, lost in a resync %d, events skipped out of bounds %d",
+                acknowledged, lost, skipped));
+        if (!converged) {
+            System.out.println("FAIL: the documents have not converged");
+            System.exit(1);
+        }
+        System.out.println("OK: all " + clientCount + " documents are the same, "
+                + clients.get(0).getDocument().length() + " characters");
+        System.exit(0);
+    }
+
+    /**
+     * Wait until every edit has been acknowledged, and every client has replayed the latest event
+     * @return true if settled before the timeout
+     */
+    private static boolean settle(List<LoadClient> clients) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MILLIS;
+        while (pendingCount(clients) > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("Timed out waiting for " + pendingCount(clients) + " edits to be acknowledged");
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        // Every event has been sequenced, and the author of the latest one has seen it
+        int latest = -1;
+        for (LoadClient client : clients) {
+            latest = Math.max(latest, client.getLatestReplayedEventNumber());
+        }
+        for (LoadClient client : clients) {
+            while (client.getLatestReplayedEventNumber() < latest) {
+                if (System.currentTimeMillis() > deadline) {
+                    System.out.println("Timed out waiting for event " + latest + ", a client is at "
+                            + client.getLatestReplayedEventNumber());
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+        }
+        return true;
+    }
+
+    private static boolean converged(List<LoadClient> clients, HeadlessCoordinator coordinator) {
+        String expected = clients.get(0).getDocument().toString();
+        boolean converged = true;
+        for (int i = 1; i < clients.size(); i++) {
+            String document = clients.get(i).getDocument().toString();
+            if (!document.equals(expected)) {
+                System.out.println("Client " + i + " differs from client 0: " + document.length()
+                        + " characters, against " + expected.length());
+                converged = false;
+            }
+        }
+        if (coordinator != null) {
+            DocumentSnapshot snapshot = coordinator.getManager().getCurrentSnapshot();
+            if (!snapshot.getText().equals(expected)) {
+                System.out.println("The coordinator differs from client 0: " + snapshot.getDocument().length()
+                        + " characters, against " + expected.length());
+                converged = false;
+            }
+        }
+        return converged;
+    }
+
+    private static void printLatencies(List<long[]> samples) {
+        int count = 0;
+        for (long[] latencies : samples) {
+            count += latencies.length;
+        }
+        long[] all = new long[count];
+        int i = 0;
+        for (long[] latencies : samples) {
+            System.arraycopy(latencies, 0, all, i, latencies.length);
+            i += latencies.length;
+        }
+        if (count == 0) {
+            System.out.println("Latency:    no edits measured");
+            return;
+        }
+        Arrays.sort(all);
+        System.out.println(String.format("Latency:    p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms (%d edits)",
+                percentile(all, 0.5), percentile(all, 0.9), percentile(all, 0.99), percentile(all, 0.999),
+                all[count - 1] / 1e6, count));
+    }
+
+    /**
+     * @return the percentile of sorted latencies in milliseconds
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)] / 1e6;
+    }
+
+    private static long editCount(List<LoadClient> clients) {
+        long edits = 0;
+        for (LoadClient client : clients) {
+            edits += client.getEditCount();
+        }
+        return edits;
+    }
+
+    private static int pendingCount(List<LoadClient> clients) {
+        int pending = 0;
+        for (LoadClient client : clients) {
+            pending += client.getPendingCount();
+        }
+        return pending;
+    }
+}
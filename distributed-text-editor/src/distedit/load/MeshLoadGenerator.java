@@ -0,0 +1,239 @@
+package distedit.load;
+
+import distedit.crdt.CrdtOperation;
+import distedit.crdt.CrdtReplica;
+import distedit.crdt.PeerMesh;
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts a mesh of peers in the peer-to-peer mode under load, with many peers in one process, that make the edits of
+ * a {@link Workload} and merge each other's operations with no coordinator. Reports the throughput, and whether
+ * all documents are the same afterwards.
+ *
+ * Every peer joins the mesh through the first one, and the generator waits for every peer to be linked to all the
+ * others. After a warm-up, the operations made and merged in the measurement window are counted. Then the peers
+ * stop editing, and once every peer has applied every operation, their documents are compared.
+ *
+ * Configured by the system properties of the {@link Workload}, and
+ * <ul>
+ *     <li>distedit.load.warmupSeconds: seconds of editing before measuring (5)</li>
+ *     <li>distedit.load.durationSeconds: seconds of editing that are measured (30)</li>
+ *     <li>distedit.load.seed: the seed of the random edits (1)</li>
+ * </ul>
+ *
+ * Run with: java distedit.load.MeshLoadGenerator [peers]
+ * The exit status is 1 if the documents have not converged.
+ *
+ * @author DA4-03
+ * @version 2017-06-20
+ */
+public class MeshLoadGenerator {
+
+    private static final int DEFAULT_PEERS = 10;
+    private static final long SETTLE_TIMEOUT_MILLIS = 60000;
+
+    public static void main(String[] args) throws Exception {
+        int peerCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PEERS;
+        long warmup = Long.getLong("distedit.load.warmupSeconds", 5) * 1000000000L;
+        long duration = Long.getLong("distedit.load.durationSeconds", 30) * 1000000000L;
+        long seed = Long.getLong("distedit.load.seed", 1);
+        Workload workload = Workload.fromSystemProperties();
+        // The peers listen for each other on any free port
+        System.setProperty("distedit.port", "0");
+
+        System.out.println("Starting a mesh of " + peerCount + " peers, " + workload);
+        List<Peer> peers = new ArrayList<>();
+        for (int i = 0; i < peerCount; i++) {
+            Peer peer = new Peer(workload, seed + i);
+            if (i > 0 && !peer.mesh.join(peers.get(0).mesh.getMyIP(), peers.get(0).mesh.getMyPort())) {
+                System.out.println("Peer " + i + " could not join the mesh");
+                System.exit(1);
+            }
+            peers.add(peer);
+        }
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MILLIS;
+        for (Peer peer : peers) {
+            while (peer.mesh.getLinkCount() < peerCount - 1) {
+                if (System.currentTimeMillis() > deadline) {
+                    System.out.println("Timed out waiting for the mesh, a peer has " + peer.mesh.getLinkCount()
+                            + " links");
+                    System.exit(1);
+                }
+                Thread.sleep(10);
+            }
+        }
+
+        for (Peer peer : peers) {
+            peer.generating = true;
+        }
+        Thread.sleep(warmup / 1000000);
+        long firstEdits = editCount(peers);
+        long firstMerged = appliedCount(peers.get(0).replica);
+        Thread.sleep(duration / 1000000);
+        long lastEdits = editCount(peers);
+        long lastMerged = appliedCount(peers.get(0).replica);
+        for (Peer peer : peers) {
+            peer.generating = false;
+        }
+
+        double seconds = duration / 1e9;
+        System.out.println(String.format("Edits:      %9.0f/s made, target %.0f/s", (lastEdits - firstEdits) / seconds,
+                workload.getRate() * peerCount));
+        System.out.println(String.format("Merged:     %9.0f operations/s, as applied by the first peer",
+                (lastMerged - firstMerged) / seconds));
+
+        long settleStart = System.nanoTime();
+        boolean settled = settle(peers);
+        System.out.println(String.format("Settled in %.0f ms", (System.nanoTime() - settleStart) / 1e6));
+        boolean converged = settled && converged(peers);
+        long dropped = 0;
+        long duplicates = 0;
+        for (Peer peer : peers) {
+            dropped += peer.mesh.getDroppedCount();
+            duplicates += peer.replica.getDuplicateCount();
+            peer.stop();
+        }
+        System.out.println(String.format("Messages dropped from full queues %d, operations received twice %d",
+                dropped, duplicates));
+        if (!converged) {
+            System.out.println("FAIL: the documents have not converged");
+            System.exit(1);
+        }
+        CrdtReplica first = peers.get(0).replica;
+        System.out.println("OK: all " + peerCount + " documents are the same, " + first.length()
+                + " characters, " + (first.size() - first.length()) + " removed characters kept");
+        System.exit(0);
+    }
+
+    /**
+     * Wait until every peer has applied every operation of every peer
+     * @return true if settled before the timeout
+     */
+    private static boolean settle(List<Peer> peers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MILLIS;
+        while (true) {
+            long expected = 0;
+            for (Peer peer : peers) {
+                expected += peer.replica.getVersionVector().get(peer.replica.getSite());
+            }
+            boolean settled = true;
+            for (Peer peer : peers) {
+                settled &= appliedCount(peer.replica) == expected;
+            }
+            if (settled) {
+                return true;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("Timed out waiting for " + expected + " operations to be applied everywhere");
+                return false;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static boolean converged(List<Peer> peers) {
+        String expected = peers.get(0).replica.getText();
+        boolean converged = true;
+        for (int i = 1; i < peers.size(); i++) {
+            String document = peers.get(i).replica.getText();
+            if (!document.equals(expected)) {
+                System.out.println("Peer " + i + " differs from peer 0: " + document.length()
+                        + " characters, against " + expected.length());
+                converged = false;
+            }
+        }
+        return converged;
+    }
+
+    /**
+     * @return the number of operations of all peers, that a replica has applied
+     */
+    private static long appliedCount(CrdtReplica replica) {
+        long applied = 0;
+        for (Map.Entry<Integer, Integer> entry : replica.getVersionVector().asMap().entrySet()) {
+            applied += entry.getValue();
+        }
+        return applied;
+    }
+
+    private static long editCount(List<Peer> peers) {
+        long edits = 0;
+        for (Peer peer : peers) {
+            edits += peer.edits;
+        }
+        return edits;
+    }
+
+    /**
+     * A peer without a text area, that makes its edits in its own thread,
+     * and merges the operations of the other peers as they arrive
+     */
+    private static class Peer implements PeerMesh.Listener, Runnable {
+        private final Workload workload;
+        private final Random random;
+        private final PeerMesh mesh = new PeerMesh();
+        private final CrdtReplica replica = mesh.getReplica();
+        private final Thread thread = new Thread(this, "mesh-load-peer");
+        private volatile boolean running = true;
+        private volatile boolean generating;
+        private volatile long edits;
+
+        Peer(Workload workload, long seed) {
+            this.workload = workload;
+            this.random = new Random(seed);
+            mesh.setListener(this);
+            mesh.start();
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void received(CrdtOperation operation) {
+            replica.receive(operation);
+        }
+
+        @Override
+        public void run() {
+            long interval = workload.getIntervalNanos();
+            long nextEditAt = System.nanoTime() + (long) (random.nextDouble() * interval);
+            while (running) {
+                long now = System.nanoTime();
+                if (generating && now >= nextEditAt) {
+                    edit();
+                    nextEditAt += interval;
+                } else if (!generating) {
+                    nextEditAt = now + (long) (random.nextDouble() * interval);
+                }
+                LockSupport.parkNanos(this, generating ? Math.max(1, nextEditAt - now) : 1000000);
+            }
+        }
+
+        private void edit() {
+            CrdtOperation operation;
+            // Hold the replica, so operations of other peers cannot change its length before the edit is made
+            synchronized (replica) {
+                MyTextEvent event = workload.next(random, replica.length(), -1);
+                if (event instanceof TextInsertEvent) {
+                    operation = replica.insert(event.getOffset(), ((TextInsertEvent) event).getText());
+                } else {
+                    operation = replica.remove(event.getOffset(), ((TextRemoveEvent) event).getLength());
+                }
+            }
+            mesh.broadcast(operation);
+            edits++;
+        }
+
+        void stop() {
+            running = false;
+            mesh.stop();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package distedit.load;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+
+import java.util.Random;
+
+/**
+ * The edits made by a {@link LoadClient}: a mix of typing single characters, pasting blocks of text
+ * and deleting a few characters backwards, made at a target rate.
+ *
+ * The offsets follow a Zipfian distribution of the distance from the end of the document, so most edits
+ * are made near the end, like when writing, while the rest of the document is edited less often. All clients
+ * share the same hot spot, so their edits are concurrent, and transformed against each other, as often as possible.
+ *
+ * Configured by the system properties
+ * <ul>
+ *     <li>distedit.load.rate: edits per second of each client (10)</li>
+ *     <li>distedit.load.typing, distedit.load.paste, distedit.load.delete: relative weights of the kinds of edits (90, 2, 8)</li>
+ *     <li>distedit.load.pasteLength: characters in a pasted block (200)</li>
+ *     <li>distedit.load.deleteLength: most characters deleted at once (5)</li>
+ *     <li>distedit.load.zipfTheta: skew of the offsets, where 0 is uniform (0.99)</li>
+ *     <li>distedit.load.zipfItems: number of offsets from the end, that the skew is spread over (10000)</li>
+ * </ul>
+ *
+ * @author DA4-03
+ * @version 2017-06-16
+ */
+public class Workload {
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz      ";
+
+    private final double rate;
+    private final int typingWeight;
+    private final int pasteWeight;
+    private final int deleteWeight;
+    private final int pasteLength;
+    private final int deleteLength;
+    private final ZipfianGenerator offsets;
+
+    public Workload(double rate, int typingWeight, int pasteWeight, int deleteWeight,
+                    int pasteLength, int deleteLength, ZipfianGenerator offsets) {
+        if (typingWeight + pasteWeight + deleteWeight <= 0) {
+            throw new IllegalArgumentException("At least one kind of edit must have a positive weight");
+        }
+        this.rate = rate;
+        this.typingWeight = typingWeight;
+        this.pasteWeight = pasteWeight;
+        this.deleteWeight = deleteWeight;
+        this.pasteLength = pasteLength;
+        this.deleteLength = deleteLength;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return the workload configured by the system properties
+     */
+    public static Workload fromSystemProperties() {
+        return new Workload(
+                Double.parseDouble(System.getProperty("distedit.load.rate", "10")),
+                Integer.getInteger("distedit.load.typing", 90),
+                Integer.getInteger("distedit.load.paste", 2),
+                Integer.getInteger("distedit.load.delete", 8),
+                Integer.getInteger("distedit.load.pasteLength", 200),
+                Integer.getInteger("distedit.load.deleteLength", 5),
+                new ZipfianGenerator(Integer.getInteger("distedit.load.zipfItems", 10000),
+                        Double.parseDouble(System.getProperty("distedit.load.zipfTheta", "0.99"))));
+    }
+
+    /**
+     * Make the next edit of a document
+     * @param random the source of randomness of the client
+     * @param length the length of the document of the client
+     * @param basedOn the latest event the client has replayed
+     * @return the edit, which is within the document
+     */
+    public MyTextEvent next(Random random, int length, int basedOn) {
+        int offset = length - Math.min(length, offsets.next(random));
+        int kind = random.nextInt(typingWeight + pasteWeight + deleteWeight);
+        if (kind >= typingWeight + pasteWeight && length > 0) {
+            // Backspace a few characters, or delete forwards at the start of the document
+            int count = 1 + random.nextInt(Math.max(1, deleteLength));
+            int start = Math.max(0, offset - count);
+            if (start == offset) {
+                return new TextRemoveEvent(0, Math.min(count, length), basedOn);
+            }
+            return new TextRemoveEvent(start, offset - start, basedOn);
+        }
+        int count = kind >= typingWeight ? pasteLength : 1;
+        return new TextInsertEvent(offset, text(random, count), basedOn);
+    }
+
+    /**
+     * @return the interval between the edits of a client in nanoseconds
+     */
+    public long getIntervalNanos() {
+        return (long) (1e9 / rate);
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f edits/s per client, typing:paste:delete %d:%d:%d, paste %d chars, delete up to %d chars",
+                rate, typingWeight, pasteWeight, deleteWeight, pasteLength, deleteLength);
+    }
+
+    private static String text(Random random, int count) {
+        char[] text = new char[count];
+        for (int i = 0; i < count; i++) {
+            text[i] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+        }
+        return new String(text);
+    }
+}
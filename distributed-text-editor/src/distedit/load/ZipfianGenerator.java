@@ -0,0 +1,63 @@
+package distedit.load;
+
+import java.util.Random;
+
+/**
+ * Draws ranks from 0 to n - 1 with a Zipfian distribution, where rank 0 is the most frequent,
+ * and the frequency of rank i is proportional to 1 / (i + 1)^theta.
+ *
+ * Uses the method of Gray et al., "Quickly generating billion-record synthetic databases", which takes
+ * constant time per rank after computing the zeta constant once. A theta of 0 gives a uniform distribution.
+ *
+ * @author DA4-03
+ * @version 2017-06-16
+ */
+public class ZipfianGenerator {
+    private final int items;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+
+    /**
+     * Construct the generator
+     * @param items the number of ranks
+     * @param theta the skew of the distribution, at least 0 and less than 1
+     * @throws IllegalArgumentException if the skew is out of range
+     */
+    public ZipfianGenerator(int items, double theta) {
+        if (theta < 0 || theta >= 1) {
+            throw new IllegalArgumentException("Skew must be at least 0 and less than 1, was " + theta);
+        }
+        this.items = items;
+        this.theta = theta;
+        this.alpha = 1 / (1 - theta);
+        this.zetaN = zeta(items, theta);
+        double zeta2 = zeta(2, theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+    }
+
+    /**
+     * @param random the source of randomness
+     * @return the next rank
+     */
+    public int next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < 1 + Math.pow(0.5, theta)) {
+            return 1;
+        }
+        return Math.min(items - 1, (int) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
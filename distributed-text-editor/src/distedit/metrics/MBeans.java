@@ -0,0 +1,65 @@
+package distedit.metrics;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registers the MXBeans of the editor with the platform MBean server, under the domain "distedit",
+ * so they can be watched with jconsole, VisualVM or any other JMX client.
+ *
+ * Run with -Ddistedit.jmx=false to not register them. The counters behind them are kept either way.
+ *
+ * @author DA4-03
+ * @version 2017-06-19
+ */
+public class MBeans {
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("distedit.jmx", "true"));
+    private static final String DOMAIN = "distedit";
+
+    private MBeans() {
+    }
+
+    /**
+     * Register an MXBean, replacing an MXBean registered earlier under the same name
+     * @param properties the key properties of the name, like "type=Connection,id=3"
+     * @param mbean the MXBean
+     * @return the name it is registered under, or null if it is not registered
+     */
+    public static ObjectName register(String properties, Object mbean) {
+        if (!ENABLED) {
+            return null;
+        }
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+            return name;
+        } catch (JMException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Unregister an MXBean, if it is still registered
+     * @param name the name returned by {@link #register}, or null
+     */
+    public static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // Already unregistered
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package distedit.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts occurrences, like events sent, and measures their rate.
+ *
+ * Marking only adds to a {@link LongAdder}, which spreads contended updates over cells, so threads marking
+ * the same meter do not wait for each other. The rate is computed when it is read, from the count since the
+ * previous sample, and samples are taken at most once a second, so many readers do not make it jitter.
+ *
+ * @author DA4-03
+ * @version 2017-06-19
+ */
+public class Meter {
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder count = new LongAdder();
+
+    // The latest sample of the count, guarded by this
+    private long sampledAt = System.nanoTime();
+    private long sampledCount;
+    private double rate;
+
+    public void mark() {
+        count.increment();
+    }
+
+    public void mark(long n) {
+        count.add(n);
+    }
+
+    /**
+     * @return the number of occurrences so far
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Measure the occurrences per second since the previous sample, or return the previous rate
+     * if it was sampled less than a second ago
+     * @return the rate in occurrences per second
+     */
+    public synchronized double getRate() {
+        long now = System.nanoTime();
+        if (now - sampledAt >= SAMPLE_INTERVAL_NANOS) {
+            long current = count.sum();
+            rate = (current - sampledCount) / ((now - sampledAt) / 1e9);
+            sampledAt = now;
+            sampledCount = current;
+        }
+        return rate;
+    }
+}
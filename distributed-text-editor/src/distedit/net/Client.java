@@ -25,6 +25,12 @@ public class Client implements Serializable {
         this.id = IDs.getNextId();
     }
 
+    public Client(int port, String ip, int id) {
+        this.port = port;
+        this.IP = ip;
+        this.id = id;
+    }
+
     public String getIP() {
         return IP;
     }
@@ -1,30 +1,81 @@
 package distedit.net;
 
+import distedit.IDs;
 import distedit.event.MyTextEvent;
-import distedit.net.election.Election;
-import distedit.net.election.ElectionMessage;
+import distedit.event.sequencer.DocumentSnapshot;
+import distedit.event.sequencer.TextEventSequencer;
+import distedit.metrics.MBeans;
+import distedit.metrics.Meter;
+import distedit.net.heartbeat.FailureDetector;
+import distedit.net.heartbeat.Heartbeat;
 import distedit.threads.ThreadManager;
+import distedit.trace.Trace;
 
+import javax.management.ObjectName;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public class Connection implements Serializable {
+public class Connection implements Serializable, ConnectionMXBean {
+
+    // Limits on the frames written together by the event sender.
+    // The sender drains the frames already queued, and may linger for more to arrive.
+    private static final int MAX_BATCH_FRAMES = Integer.getInteger("distedit.batch.maxFrames", 256);
+    private static final int MAX_BATCH_BYTES = Integer.getInteger("distedit.batch.maxBytes", 64 * 1024);
+    private static final long BATCH_LINGER_MICROS = Long.getLong("distedit.batch.lingerMicros", 0);
+
+    // Bound on the number of frames waiting to be sent to the peer, and what the coordinator does when it is reached.
+    // A single broadcaster sends to every client, so by default it never waits for the queue of a slow client.
+    static final int QUEUE_CAPACITY = Integer.getInteger("distedit.queue.capacity", 10000);
+    private static final OverflowPolicy OVERFLOW_POLICY =
+            OverflowPolicy.valueOf(System.getProperty("distedit.queue.overflow", OverflowPolicy.RESYNC.name()));
+    private static final long BLOCK_TIMEOUT_MILLIS = Long.getLong("distedit.queue.blockTimeoutMillis", 1000);
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    private static final Frame HEARTBEAT_FRAME = encodeHeartbeat();
 
     private final ThreadManager threadManager;
-    private ObjectOutputStream outputStream;
-    private ObjectInputStream inputStream;
+    private MessageOutputStream outputStream;
+    private MessageInputStream inputStream;
 
-    private Socket socket;
+    protected final Socket socket;
 
     private final String socketIP;
     private final int socketPort;
 
-    private ConnectionManager manager;
-    private BlockingQueue<MyTextEvent> outgoingEventQueue;
+    protected final ConnectionManager manager;
+    private BlockingQueue<Frame> outgoingEventQueue;
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    // Identifies the events received on this connection, if the client applies its own events optimistically
+    private final int id = nextId.getAndIncrement();
+    private volatile boolean optimistic;
+    // Sequence number of the latest snapshot sent to resync the client. Only used by the event broadcaster.
+    private int resyncedAt = -1;
+    // The oldest event the client can still base its events on: the latest event it was synced to when it connected,
+    // or the latest event its events have been based on since. Read by the sequencer when it trims its log.
+    private volatile int basedOnFloor = -1;
+
+    // Tells whether the peer is alive, from the heartbeats and other messages received from it
+    private final FailureDetector failureDetector = FailureDetector.create(HeartbeatMonitor.INTERVAL_MILLIS);
+    // True once the connection is started, and heartbeats are sent and expected
+    private volatile boolean monitored;
+    private final AtomicBoolean suspected = new AtomicBoolean();
+
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final Meter eventsReceived = new Meter();
+    // The name of the MXBean, or null if it is not registered
+    private ObjectName mbeanName;
 
     public Connection(Socket socket, ConnectionManager manager) {
         this.socket = socket;
@@ -32,92 +83,416 @@ public class Connection implements Serializable {
         this.socketPort = socket.getPort();
         this.manager = manager;
         threadManager = new ThreadManager();
+        try {
+            // Send every frame right away. With Nagle's algorithm a small frame waits for the acknowledgement
+            // of the one before it, which the peer delays by up to 40 ms, so most keystrokes waited that long.
+            socket.setTcpNoDelay(true);
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
 
-        outgoingEventQueue = new LinkedBlockingQueue<>();
+        outgoingEventQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
     }
 
     public void start() {
         startSendingEvents();
         startReceivingObjects();
+        startHeartbeats();
+    }
+
+    /**
+     * Start sending heartbeats to the peer and checking its heartbeats. The peer gets a full interval
+     * from now before it is expected to have sent anything.
+     */
+    protected void startHeartbeats() {
+        failureDetector.heartbeat(System.nanoTime());
+        monitored = true;
+    }
+
+    /**
+     * Queue a heartbeat for the peer, unless the queue is full, in which case the peer has plenty to read
+     */
+    void sendHeartbeat() {
+        if (!monitored || HEARTBEAT_FRAME == null) {
+            return;
+        }
+        try {
+            offerFrame(HEARTBEAT_FRAME, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Check whether the peer should be suspected to have failed. The peer is only reported once.
+     * @param nanos the current time
+     * @return true if the peer has just become suspected
+     */
+    boolean checkSuspected(long nanos) {
+        return monitored && !failureDetector.isAvailable(nanos) && suspected.compareAndSet(false, true);
+    }
+
+    private static Frame encodeHeartbeat() {
+        try {
+            return Frame.encode(Heartbeat.INSTANCE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     /**
      * Start sending events to the peer from the {@link Connection#outgoingEventQueue} in a new thread.
+     * Every frame available in the queue is written in one batch, up to {@link #MAX_BATCH_FRAMES}
+     * frames or {@link #MAX_BATCH_BYTES} bytes. If {@link #BATCH_LINGER_MICROS} is positive, the sender
+     * waits up to that long for more frames before writing a batch that is not full.
      */
     private void startSendingEvents() {
         // Start a new thread that sends events to the peer
-        Thread eventSender = new Thread(() -> {
+        threadManager.start("event-sender-" + id, () -> {
             try {
                 // Loop, taking events from the event queue and writing them to the output stream
+                List<Frame> batch = new ArrayList<>();
                 while (true) {
                     if (Thread.interrupted()) {
                         throw new InterruptedException();
                     }
-                    MyTextEvent event = outgoingEventQueue.take();
-                    writeObjectToStream(event);
+                    Frame frame = outgoingEventQueue.take();
+                    batch.add(frame);
+                    int bytes = frame.length();
+                    long lingerDeadline = System.nanoTime() + BATCH_LINGER_MICROS * 1000;
+
+                    while (batch.size() < MAX_BATCH_FRAMES && bytes < MAX_BATCH_BYTES) {
+                        frame = outgoingEventQueue.poll();
+                        if (frame == null) {
+                            long lingerNanos = lingerDeadline - System.nanoTime();
+                            if (lingerNanos <= 0) {
+                                break;
+                            }
+                            frame = outgoingEventQueue.poll(lingerNanos, TimeUnit.NANOSECONDS);
+                            if (frame == null) {
+                                break;
+                            }
+                        }
+                        batch.add(frame);
+                        bytes += frame.length();
+                    }
+
+                    writeFramesToStream(batch, bytes);
+                    batch.clear();
                 }
             } catch (InterruptedException e) {
                 System.out.println("[ConnectionManager] Event sender interrupted.");
             }
         });
-        threadManager.add(eventSender);
-        eventSender.start();
     }
 
     /**
-     * Start receiving objects from the peer in a new thread.
-     * If instance of MyTextEent: Pass on to this connections manager
-     * If instance of ElectionMessage: Have Election class process the message
+     * Start receiving objects from the peer in a new thread, and handle them with {@link #handleMessage(Object)}
      */
     private void startReceivingObjects() {
         // Start a new thread that receives events from the peer
-        Thread eventReceiver = new Thread(() -> {
+        threadManager.start("event-receiver-" + id, () -> {
             // Loop, reading events from the socket and passing them to the manager
             try {
                 while (true) {
                     if (Thread.interrupted()) {
                         throw new InterruptedException();
                     }
-                    Object obj = readObjectFromStream();
-                    if (obj instanceof MyTextEvent) {
-                        // Text events are put in the managers queue
-                        manager.queueIncomingEvent((MyTextEvent) obj);
-                    } else if (obj instanceof Client) {
-                        // Information on new clients are added to the managers list of clients
-                        Client client = (Client) obj;
-                        manager.addClient(client);
-                    } else if (obj instanceof ElectionMessage) {
-                        // Election messages are processed by the Election class
-                        Election.processElectionMessage((ElectionMessage) obj,
-                                manager.getClients(),
-                                manager.getMyID(),
-                                manager.getMyIP(),
-                                manager.getMyPort());
-                    } else {
-                        System.out.println("Connection received an unknown message: " + obj);
-                    }
+                    handleMessage(readObjectFromStream());
                 }
             } catch (SocketException e) {
                 System.out.println("[Connection] Socket closed.");
-            } catch (ClassNotFoundException | IOException e) {
-                System.out.print("Woops! Other side closed the connection.. ");
-
-                if (manager.isCoordinator()) {
-                    System.out.println("Luckily it was only a client!");
-                } else {
-                    System.out.println("I better start an election!");
-                    manager.startElection();
-                }
+            } catch (IOException e) {
+                handlePeerClosed();
             } catch (InterruptedException e) {
                 System.out.println("Event receiver interrupted.");
             }
         });
-        threadManager.add(eventReceiver);
-        eventReceiver.start();
+    }
+
+    /**
+     * Handle a message received from the peer. Every message tells the failure detector that the peer is alive.
+     * If instance of Heartbeat: Nothing more
+     * If instance of MyTextEent: Pass on to this connections manager
+     * If instance of Client: Add to the managers list of clients
+     * If instance of DocumentSnapshot: Pass on to this connections manager as an event
+     * Election messages are not sent over connections, but over the links of the {@link distedit.net.election.Election}
+     * @param obj the message
+     * @throws InterruptedException if the thread is interrupted
+     */
+    protected void handleMessage(Object obj) throws InterruptedException {
+        if (obj instanceof Heartbeat) {
+            failureDetector.heartbeat(System.nanoTime());
+            return;
+        }
+        failureDetector.messageReceived(System.nanoTime());
+
+        if (obj instanceof MyTextEvent) {
+            // Text events are put in the managers queue, marked with their origin
+            // if the client should only get an acknowledgement back
+            MyTextEvent event = (MyTextEvent) obj;
+            eventsReceived.mark();
+            Trace.stamp(event, manager.isCoordinator() ? Trace.COORDINATOR_RECEIVE : Trace.CLIENT_RECEIVE);
+            if (optimistic) {
+                event.setOrigin(id);
+            }
+            // A client bases its events on the latest event it has replayed, which only moves forward
+            basedOnFloor = Math.max(basedOnFloor, event.getBasedOn());
+            queueIncomingEvent(event);
+        } else if (obj instanceof Client) {
+            // Information on new clients are added to the managers list of clients
+            Client client = (Client) obj;
+            manager.addClient(client);
+        } else if (obj instanceof DocumentSnapshot) {
+            // The coordinator resyncs this client with a snapshot, replayed like an event
+            queueIncomingEvent(((DocumentSnapshot) obj).toEvent());
+        } else {
+            System.out.println("Connection received an unknown message: " + obj);
+        }
+    }
+
+    /**
+     * Pass a received event on to the manager, waiting while its queue is full
+     * @param event the event
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    protected void queueIncomingEvent(MyTextEvent event) throws InterruptedException {
+        manager.queueIncomingEvent(event);
+    }
+
+    /**
+     * Handle that the peer closed the connection
+     */
+    protected void handlePeerClosed() {
+        System.out.print("Woops! Other side closed the connection.. ");
+        manager.removeConnection(this);
+
+        if (manager.isCoordinator()) {
+            System.out.println("Luckily it was only a client!");
+        } else {
+            System.out.println("I better reconnect, or start an election!");
+            manager.coordinatorConnectionClosed();
+        }
     }
 
     public void sendEvent(MyTextEvent event) throws InterruptedException {
-        outgoingEventQueue.put(event);
+        try {
+            sendFrame(Frame.encode(event));
+        } catch (IOException e) {
+            System.out.println("[Connection] Cannot send event: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tell if the client should get an acknowledgement instead of the event, because it is the author of the
+     * event and has already applied it. Events that the client sent before it was resynced with a snapshot
+     * are sent in full, since the client discards what it has not had acknowledged when it is resynced.
+     * @param event a sequenced event
+     * @return true if the client should get a {@link distedit.event.TextAckEvent}
+     */
+    boolean acknowledges(MyTextEvent event) {
+        return event.getOrigin() == id && event.getBasedOn() >= resyncedAt;
+    }
+
+    /**
+     * Tell if the client must be resynced instead of getting an event, because it has applied the event
+     * before the coordinator rejected it
+     * @param event a sequenced event
+     * @return true if the client is the author of a rejected event
+     */
+    boolean mustResyncFor(MyTextEvent event) {
+        return event.isRejected() && event.getOrigin() == id;
+    }
+
+    /**
+     * @return the oldest event the client can still base its events on
+     */
+    int getBasedOnFloor() {
+        return basedOnFloor;
+    }
+
+    /**
+     * Send a message, that has already been encoded, to the peer.
+     * The same frame may be shared by many connections.
+     *
+     * If the outgoing queue is full, a client waits for room, while the coordinator
+     * handles the slow client according to the {@link OverflowPolicy}.
+     * @param frame the encoded message
+     * @throws InterruptedException if the thread is interrupted
+     */
+    void sendFrame(Frame frame) throws InterruptedException {
+        if (offerFrame(frame, 0)) {
+            return;
+        }
+        if (!manager.isCoordinator()) {
+            while (!offerFrame(frame, BLOCK_TIMEOUT_MILLIS)) {
+                System.out.println("[Connection] Waiting for the coordinator to catch up.");
+            }
+            return;
+        }
+
+        overflowCount.incrementAndGet();
+        switch (OVERFLOW_POLICY) {
+            case BLOCK:
+                if (offerFrame(frame, BLOCK_TIMEOUT_MILLIS)) {
+                    return;
+                }
+                disconnectSlowClient();
+                break;
+            case DISCONNECT:
+                disconnectSlowClient();
+                break;
+            case RESYNC:
+                resyncSlowClient();
+                break;
+        }
+    }
+
+    /**
+     * Put a frame in the outgoing queue, waiting up to the given time for room
+     * @param frame the frame
+     * @param timeoutMillis the time to wait, or 0 to not wait at all
+     * @return true if the frame was queued
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    protected boolean offerFrame(Frame frame, long timeoutMillis) throws InterruptedException {
+        return outgoingEventQueue.offer(frame, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drop all frames in the outgoing queue
+     */
+    protected void clearFrames() {
+        outgoingEventQueue.clear();
+    }
+
+    /**
+     * @return the number of frames waiting to be sent to the peer
+     */
+    @Override
+    public int getQueueDepth() {
+        return outgoingEventQueue.size();
+    }
+
+    /**
+     * @return the number of times the outgoing queue has been full
+     */
+    @Override
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    @Override
+    public String getPeer() {
+        return socketIP + ":" + socketPort;
+    }
+
+    @Override
+    public boolean isOptimistic() {
+        return optimistic;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getEventsReceived() {
+        return eventsReceived.getCount();
+    }
+
+    @Override
+    public double getEventsReceivedPerSecond() {
+        return eventsReceived.getRate();
+    }
+
+    @Override
+    public boolean isSuspected() {
+        return suspected.get();
+    }
+
+    /**
+     * Count bytes written to the socket, both on this connection and in total on its manager
+     * @param bytes the number of bytes
+     */
+    protected void countBytesSent(long bytes) {
+        bytesSent.add(bytes);
+        manager.countBytesSent(bytes);
+    }
+
+    /**
+     * Count bytes read from the socket, both on this connection and in total on its manager
+     * @param bytes the number of bytes
+     */
+    protected void countBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+        manager.countBytesReceived(bytes);
+    }
+
+    /**
+     * Register the MXBean of this connection, named after the port of its manager and the id of the connection
+     */
+    synchronized void registerMBean() {
+        if (mbeanName == null) {
+            mbeanName = MBeans.register("type=Connection,port=" + manager.getMyPort() + ",id=" + id, this);
+        }
+    }
+
+    synchronized void unregisterMBean() {
+        MBeans.unregister(mbeanName);
+        mbeanName = null;
+    }
+
+    private void disconnectSlowClient() {
+        System.out.println("[Connection] Client " + socketIP + ":" + socketPort + " is too slow, disconnecting it.");
+        manager.removeConnection(this);
+        disconnect();
+    }
+
+    /**
+     * Replace the events queued for a slow client with a snapshot of the document.
+     * Events sequenced after the snapshot are still broadcast to the client, and events
+     * included in the snapshot, but not yet broadcast, are ignored by the client.
+     */
+    private void resyncSlowClient() throws InterruptedException {
+        System.out.println("[Connection] Client " + socketIP + ":" + socketPort + " is too slow, sending it a snapshot.");
+        resync();
+    }
+
+    /**
+     * Resync the author of a rejected event with a snapshot, since it has applied the event already
+     * @throws InterruptedException if the thread is interrupted while waiting for room in the queue
+     */
+    void resyncAuthor() throws InterruptedException {
+        System.out.println("[Connection] Client " + socketIP + ":" + socketPort + " sent an event too old to transform, sending it a snapshot.");
+        resync();
+    }
+
+    /**
+     * Replace the events queued for the client with a snapshot of the document.
+     * Only called by the event broadcaster.
+     */
+    private void resync() throws InterruptedException {
+        clearFrames();
+        Frame snapshot;
+        try {
+            DocumentSnapshot current = manager.getCurrentSnapshot();
+            resyncedAt = current.getSequenceNumber();
+            snapshot = Frame.encode(current);
+        } catch (IOException e) {
+            disconnectSlowClient();
+            return;
+        }
+        if (!offerFrame(snapshot, BLOCK_TIMEOUT_MILLIS)) {
+            disconnectSlowClient();
+        }
     }
 
     public void sendClient(Client client) {
@@ -128,38 +503,91 @@ public class Connection implements Serializable {
      *
      * 1) The server sends a boolean to indicate, that the client has successfully found the server
      * 2) The server reads the port, that the client listens for connections on
-     * 4) The server sends the log of current textevents
-     * @param log
+     * 3) The server reads whether the client applies its own events optimistically
+     * 4) The server reads whether the client is a standby, that keeps a copy of the log to take over from the server
+     * 5) The server reads the id of the client, or -1 if it has none yet, since it has not been connected before
+     * 6) The server reads the id of the log the client has followed, or -1 if it has followed none
+     * 7) The server reads the sequence number of the latest event the client has received from that log
+     * 8) The server sends the client its own entry in the list of clients, so it knows its id
+     * 9) The server sends the id of its log, so a reconnecting client knows if the numbering goes on
+     * 10) The server sends true if the client can catch up with the events it has missed, and false if not
+     * 11) If not, the server sends the latest snapshot of the document
+     * 12) The server sends the textevents the client has missed, or those sequenced after the snapshot
+     * A client that reconnects after a short outage thus only gets the events sequenced meanwhile.
+     * @param sequencer the sequencer of the server
      */
-    public Client sendServerHello(List<MyTextEvent> log) throws IOException, ClassNotFoundException {
+    public Client sendServerHello(TextEventSequencer sequencer) throws IOException {
         Boolean youHaveConnectedToServer = true;
         // 1)
         writeObjectToStream(youHaveConnectedToServer);
         // 2)
         int clientPortForListening = (Integer) readObjectFromStream();
         // 3)
-        writeObjectToStream(log);
+        optimistic = (Boolean) readObjectFromStream();
+        // 4)
+        boolean standby = (Boolean) readObjectFromStream();
+        // 5)
+        int clientId = (Integer) readObjectFromStream();
+        // Use port to make a new client, that keeps its id if it reconnects after an election
+        if (clientId < 0) {
+            clientId = standby ? IDs.getNextStandbyId() : IDs.getNextId();
+        }
+        Client client = new Client(clientPortForListening, socketIP, clientId);
+        // 6)
+        int clientLogId = (Integer) readObjectFromStream();
+        // 7)
+        int latestReceived = (Integer) readObjectFromStream();
+        // 8)
+        writeObjectToStream(client);
+        // 9)
+        writeObjectToStream(sequencer.getLogId());
+        List<MyTextEvent> missing = sequencer.getMissingEvents(clientLogId, latestReceived);
+        // 10)
+        writeObjectToStream(missing != null);
+        basedOnFloor = latestReceived;
+        if (missing == null) {
+            DocumentSnapshot snapshot = sequencer.getSnapshot();
+            basedOnFloor = snapshot.getSequenceNumber();
+            // 11)
+            writeObjectToStream(snapshot);
+            missing = sequencer.getLogAfter(snapshot.getSequenceNumber());
+        }
+        // 12)
+        writeObjectToStream(missing);
 
-        // Use port to return a new client
-        return new Client(clientPortForListening,socketIP);
+        return client;
     }
 
     private void writeObjectToStream(Object obj) {
         try {
             if(outputStream == null) {
-                outputStream = new ObjectOutputStream(socket.getOutputStream());
+                outputStream = new MessageOutputStream(socket.getOutputStream());
             }
-            outputStream.writeObject(obj);
+            countBytesSent(outputStream.writeMessage(obj));
         } catch (IOException e) {
             manager.removeConnection(this);
         }
     }
 
-    private Object readObjectFromStream() throws IOException, ClassNotFoundException {
+    private void writeFramesToStream(List<Frame> frames, int bytes) {
+        try {
+            if(outputStream == null) {
+                outputStream = new MessageOutputStream(socket.getOutputStream());
+            }
+            outputStream.writeFrames(frames);
+            countBytesSent(bytes);
+        } catch (IOException e) {
+            manager.removeConnection(this);
+        }
+    }
+
+    private Object readObjectFromStream() throws IOException {
         if(inputStream == null) {
-            inputStream = new ObjectInputStream(socket.getInputStream());
+            inputStream = new MessageInputStream(socket.getInputStream());
         }
-        return inputStream.readObject();
+        Object message = inputStream.readMessage();
+        countBytesReceived(inputStream.getLastFrameLength());
+        return message;
     }
 
     public String getSocketIP() {
@@ -170,18 +598,23 @@ public class Connection implements Serializable {
         return socketPort;
     }
 
-    public void setInputStream(ObjectInputStream inputStream) {
+    public void setInputStream(MessageInputStream inputStream) {
         this.inputStream = inputStream;
     }
 
-    public void setOutputStream(ObjectOutputStream outputStream) {
+    public void setOutputStream(MessageOutputStream outputStream) {
         this.outputStream = outputStream;
     }
 
     public void disconnect() {
         try {
-            inputStream.close();
-            outputStream.close();
+            if (inputStream != null) {
+                inputStream.close();
+            }
+            if (outputStream != null) {
+                outputStream.close();
+            }
+            socket.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
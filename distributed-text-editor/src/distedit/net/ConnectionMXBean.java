@@ -0,0 +1,38 @@
+package distedit.net;
+
+/**
+ * The management interface of a {@link Connection}, registered as distedit:type=Connection,port=N,id=M
+ * while the connection is open, where N is the port of its manager
+ *
+ * @author DA4-03
+ * @version 2017-06-19
+ */
+public interface ConnectionMXBean {
+
+    /**
+     * @return the address of the peer, as IP:port
+     */
+    String getPeer();
+
+    boolean isOptimistic();
+
+    int getQueueDepth();
+
+    long getOverflowCount();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    /**
+     * @return the number of text events received from the peer
+     */
+    long getEventsReceived();
+
+    double getEventsReceivedPerSecond();
+
+    /**
+     * @return true if the failure detector has reported the peer as failed
+     */
+    boolean isSuspected();
+}
@@ -1,34 +1,57 @@
 package distedit.net;
 
-import com.sun.corba.se.spi.orbutil.threadpool.ThreadPoolManager;
-import distedit.DistributedTextEditor;
+import distedit.Editor;
 import distedit.event.MyTextEvent;
+import distedit.event.TextAckEvent;
 import distedit.event.history.TextEventHistory;
+import distedit.event.sequencer.DocumentSnapshot;
+import distedit.event.sequencer.TextEventSequencer;
+import distedit.metrics.MBeans;
+import distedit.metrics.Meter;
 import distedit.net.election.Election;
 import distedit.net.election.ElectionResult;
 import distedit.net.strategies.AcceptSocketStrategy;
 import distedit.net.strategies.ReceiveEventStrategy;
 import distedit.threads.ThreadManager;
+import distedit.trace.Trace;
 
+import javax.management.ObjectName;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
-
-public class ConnectionManager {
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Connects an editor to its peers, and sends and receives the text events.
+ *
+ * The manager is registered as an MXBean, and registers an MXBean for each of its connections, so the traffic,
+ * the queues, the elections and how far the editor lags behind the coordinator can be watched over JMX.
+ * The counters behind them are {@link LongAdder}s, which are cheap enough to always keep.
+ */
+public class ConnectionManager implements ConnectionManagerMXBean {
 
     private List<Connection> connections;
     private List<Client> clients;
 
-    private boolean isCoordinator;
-    private boolean receivedResponse;
+    private volatile boolean isCoordinator;
+    // True if this client applies its own events right away, and only gets acknowledgements for them
+    private boolean optimistic;
 
     private ServerSocket mySocket;
     private String myIP;
@@ -39,55 +62,128 @@ public class ConnectionManager {
 
     private BlockingQueue<MyTextEvent> incomingEvents;
     private BlockingQueue<MyTextEvent> outgoingEvents;
+    // Connections served by an I/O thread, that stopped reading because there was no room for their events
+    private final Queue<NioConnection> pausedReaders = new ConcurrentLinkedQueue<>();
+    private volatile boolean readersPaused;
+
+    // Sequence number of the latest event received from the coordinator.
+    // Events included in a snapshot may arrive again afterwards, and are then ignored.
+    private volatile int latestReceivedEventNumber = -1;
+    // The id of the log of the coordinator, whose numbering latestReceivedEventNumber follows
+    private int coordinatorLogId = -1;
 
-    private DistributedTextEditor editor;
+    // The sequencer of the coordinator, used for resyncing slow clients
+    private volatile TextEventSequencer sequencer;
+    // A copy of the log of the coordinator kept by a standby client, that takes over if it wins an election
+    private TextEventSequencer standbySequencer;
+
+    private Editor editor;
 
     private AcceptSocketStrategy acceptSocketStrategy;
     private ReceiveEventStrategy receiveEventStrategy;
     private TextEventHistory localHistory;
 
-    private int myID;
+    // The id given to this client by the coordinator, or -1 until it has connected
+    private int myID = -1;
+    // Elects a new coordinator when the coordinator fails
+    private Election election;
 
     private ThreadManager threadManager;
-
-    public ConnectionManager(DistributedTextEditor editor,
+    // Sends heartbeats on the connections and detects when a peer has failed
+    private HeartbeatMonitor heartbeatMonitor;
+
+    // Serves the connections with a few I/O threads, or null if every connection runs its own threads
+    private SelectorPool selectorPool;
+
+    private final Meter eventsReceived = new Meter();
+    private final Meter eventsSent = new Meter();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    // Tells the latest event replayed by the editor, or null if nothing replays the events
+    private volatile IntSupplier replayProgress;
+    // Count the events replayed by the editor, and the batches they are replayed in, or null if nothing replays them
+    private volatile LongSupplier replayedEvents;
+    private volatile LongSupplier replayedBatches;
+    // The name of the MXBean, or null if it is not registered
+    private ObjectName mbeanName;
+
+    public ConnectionManager(Editor editor,
                              AcceptSocketStrategy acceptSocketStrategy,
                              ReceiveEventStrategy receiveEventStrategy,
                              TextEventHistory localHistory,
                              boolean isCoordinator) {
+        this(editor, acceptSocketStrategy, receiveEventStrategy, localHistory, isCoordinator, 0);
+    }
+
+    /**
+     * Constructs the connection manager
+     * @param ioThreads if positive, accepted connections are served by this many selector threads
+     *                  instead of a sender and a receiver thread per connection
+     */
+    public ConnectionManager(Editor editor,
+                             AcceptSocketStrategy acceptSocketStrategy,
+                             ReceiveEventStrategy receiveEventStrategy,
+                             TextEventHistory localHistory,
+                             boolean isCoordinator,
+                             int ioThreads) {
 
         try {
             myIP = InetAddress.getLocalHost().getHostAddress();
-            myPort = 40403;
+            // Run with -Ddistedit.port=N to listen on another port. The next free port is used if it is taken,
+            // and any free port if N is 0.
+            myPort = Integer.getInteger("distedit.port", 40403);
         } catch (UnknownHostException e) {
             e.printStackTrace();
         }
 
         this.editor = editor;
-        connections = new ArrayList<>();
-        incomingEvents = new LinkedBlockingQueue<>();
-        outgoingEvents = new LinkedBlockingQueue<>();
-        clients = new ArrayList<>();
+        connections = new CopyOnWriteArrayList<>();
+        incomingEvents = new LinkedBlockingQueue<>(Connection.QUEUE_CAPACITY);
+        outgoingEvents = new LinkedBlockingQueue<>(Connection.QUEUE_CAPACITY);
+        clients = new CopyOnWriteArrayList<>();
         threadManager = new ThreadManager();
+        heartbeatMonitor = new HeartbeatMonitor(this, connections);
 
         this.acceptSocketStrategy = acceptSocketStrategy;
         this.receiveEventStrategy = receiveEventStrategy;
         this.localHistory = localHistory;
         this.isCoordinator = isCoordinator;
 
+        if (ioThreads > 0) {
+            try {
+                selectorPool = new SelectorPool(ioThreads);
+            } catch (IOException e) {
+                System.out.println("Could not open selectors, falling back to a thread per connection.");
+                e.printStackTrace();
+            }
+        }
+
         openMySocket();
+        election = new Election(clients, myIP, myPort, this::coordinatorElected);
+        mbeanName = MBeans.register("type=ConnectionManager,port=" + myPort, this);
     }
 
     public void start() {
         startListeningForConnections();
         startBroadcastingEvents();
         startReceivingEvents();
+        heartbeatMonitor.start();
     }
 
     private void openMySocket() {
         try {
-            mySocket = new ServerSocket(myPort);
-            mySocket.setReuseAddress(true);
+            if (selectorPool != null) {
+                // Accepted sockets get a channel, that can be handed over to the selector pool
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                mySocket = channel.socket();
+                mySocket.setReuseAddress(true);
+                mySocket.bind(new InetSocketAddress(myPort));
+            } else {
+                mySocket = new ServerSocket(myPort);
+                mySocket.setReuseAddress(true);
+            }
+            // With port 0, the socket is bound to any free port
+            myPort = mySocket.getLocalPort();
             editor.setTitle("I'm a client. Contact me on: " + mySocket.getInetAddress().getHostAddress() + ":" + myPort);
         } catch (IOException e) {
             System.out.println("There was an error opening a connection on the specified myPort. Trying next port...");
@@ -102,7 +198,7 @@ public class ConnectionManager {
     private void startListeningForConnections() {
 
         // Start a new thread that listens for an incoming connection from a client
-        Thread connectionListener = new Thread(() -> {
+        threadManager.start("connection-listener", () -> {
             try {
                 while (true) {
                     if (Thread.interrupted()) {
@@ -125,6 +221,10 @@ public class ConnectionManager {
                         acceptSocketStrategy.accept(socket, this);
 
                     } catch (IOException | ClassNotFoundException e) {
+                        if (mySocket.isClosed()) {
+                            // Disconnected, so no more connections are accepted
+                            throw new InterruptedException();
+                        }
                         System.out.println("Something when wrong, when trying to accept an incoming connection..");
                         System.err.println(e);
                     }
@@ -133,70 +233,106 @@ public class ConnectionManager {
                 System.out.println("[ConnectionManager] Connection listener interrupted.");
             }
         });
-        threadManager.add(connectionListener);
-        connectionListener.start();
     }
 
+    /**
+     * Send the events from {@link ConnectionManager#outgoingEvents} to all connections in a new thread
+     */
     private void startBroadcastingEvents() {
-        Thread eventBroadcaster = new Thread(() -> {
+        threadManager.start("event-broadcaster", () -> {
             try {
                 while (true) {
                     if (Thread.interrupted()) {
                         throw new InterruptedException();
                     }
-                    MyTextEvent event = outgoingEvents.take();
-
-                    if (!isCoordinator) {
-                        // Timeout for sequencer
-                        receivedResponse = false;
-                        startResponseTimer();
-                    }
-
-                    for (Connection c : connections) {
-                        c.sendEvent(event);
-                    }
+                    broadcast(outgoingEvents.take());
                 }
             } catch (InterruptedException e) {
                 System.out.println("[ConnectionManager] Event broadcaster interrupted.");
             }
         });
-        threadManager.add(eventBroadcaster);
-        eventBroadcaster.start();
     }
 
-    private void startResponseTimer() {
-        new Thread(() -> {
-            try {
-                Thread.sleep(1000);
-                if(!receivedResponse) {
-                    startElection();
+    /**
+     * Send an event to all connections.
+     * The event is encoded once and the frame is shared between all connections.
+     * The author of the event gets an acknowledgement instead, if it has already applied the event,
+     * or a snapshot, if it has applied an event that the sequencer rejected.
+     * @param event the event
+     * @throws InterruptedException if the thread is interrupted while waiting for room in a queue
+     */
+    public void broadcast(MyTextEvent event) throws InterruptedException {
+        Frame frame;
+        Frame ack = null;
+        try {
+            Trace.stamp(event, Trace.BROADCAST);
+            eventsSent.mark();
+            frame = Frame.encode(event);
+            for (Connection c : connections) {
+                if (c.mustResyncFor(event)) {
+                    c.resyncAuthor();
+                } else if (c.acknowledges(event)) {
+                    if (ack == null) {
+                        ack = Frame.encode(new TextAckEvent(event.getSequenceNumber()));
+                    }
+                    c.sendFrame(ack);
+                } else {
+                    c.sendFrame(frame);
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
             }
-        }).start();
+        } catch (IOException e) {
+            System.out.println("[ConnectionManager] Cannot encode event: " + e.getMessage());
+        }
     }
 
     /**
-     * Start an election and wait until a result is ready
+     * Handle that the failure detector of a connection suspects its peer to have failed.
+     * The coordinator drops a suspected client, while a client starts an election when the coordinator
+     * is suspected. This is done in a new thread, so the heartbeat monitor is not held up.
+     * @param connection the connection to the suspected peer
      */
-    protected void startElection() {
-        Election.startAnElection(clients, myID, myIP, myPort);
-        ElectionResult result = Election.getResult();
+    void peerSuspected(Connection connection) {
+        System.out.println("[ConnectionManager] No heartbeat from " + connection.getSocketIP() + ":"
+                + connection.getSocketPort() + ", suspecting it has failed.");
+        removeConnection(connection);
+        threadManager.start("suspected-peer", () -> {
+            connection.disconnect();
+            if (!isCoordinator) {
+                startElection();
+            }
+        });
+    }
 
-        while(result.getWinnerId() == null) {
-            try {
-                // Block until a result is ready
-                result.wait();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    /**
+     * Handle that the coordinator has closed the connection. The connection may have dropped while the
+     * coordinator is still alive, so reconnect and catch up with the events missed meanwhile,
+     * and start an election if the coordinator cannot be reached.
+     */
+    void coordinatorConnectionClosed() {
+        threadManager.start("reconnect", () -> {
+            if (!connectToServer(serverIP, serverPort)) {
+                startElection();
             }
-        }
+        });
+    }
 
-        if(result.getWinnerId().equals(myID)) {
-            // I am the new coordinator!
-            editor.becomeServer();
+    /**
+     * Start an election, unless one is already running. The result is handled by {@link #coordinatorElected}.
+     */
+    protected void startElection() {
+        election.start();
+    }
 
+    /**
+     * Handle the result of an election
+     * @param result the new coordinator
+     */
+    private void coordinatorElected(ElectionResult result) {
+        if (result.getWinnerId() == myID) {
+            // I am the new coordinator!
+            if (!isCoordinator) {
+                editor.becomeServer();
+            }
         } else {
             connectToNewCoordinatorFromElectionResult(result);
         }
@@ -205,31 +341,40 @@ public class ConnectionManager {
     /**
      * Connect to the new coordinator.
      * The connections of a ConnectionManager for a client ONLY contains the coordinator connection
+     * A standby coordinator goes on numbering the events, so the client catches up from its place in the log,
+     * while any other coordinator numbers its events from the start, and the client is resynced with its snapshot.
      * @param result
      */
     private void connectToNewCoordinatorFromElectionResult(ElectionResult result) {
-        try {
-            Socket coordinatorSocket = new Socket(result.getWinnerIp(), result.getWinnerPort());
-            Connection coordinator = new Connection(coordinatorSocket, this);
-            connections.clear();
-            connections.add(coordinator);
-            // TODO : Maybe handle synchronization problems?
-        } catch (IOException e) {
-            e.printStackTrace();
+        for (Connection c : connections) {
+            removeConnection(c);
+            c.disconnect();
         }
+        connectToServer(result.getWinnerIp(), result.getWinnerPort());
     }
 
     private void startReceivingEvents() {
-        Thread eventReceiver = new Thread(() -> {
+        threadManager.start("event-receiver", () -> {
             try {
                 while (true) {
                     if (Thread.interrupted()) {
                         throw new InterruptedException();
                     }
                     MyTextEvent event = incomingEvents.take();
+                    if (readersPaused) {
+                        resumeReading();
+                    }
 
-                    // Do not timeout
-                    receivedResponse = true;
+                    if (!isCoordinator) {
+                        if (event.getSequenceNumber() <= latestReceivedEventNumber) {
+                            // Already included in a snapshot
+                            continue;
+                        }
+                        latestReceivedEventNumber = event.getSequenceNumber();
+                        if (standbySequencer != null) {
+                            standbySequencer.replicate(event);
+                        }
+                    }
 
                     receiveEventStrategy.process(event);
                 }
@@ -237,8 +382,6 @@ public class ConnectionManager {
                 System.out.println("[ConnectionManager] Event receiver interrupted.");
             }
         });
-        threadManager.add(eventReceiver);
-        eventReceiver.start();
     }
 
     public void queueOutgoingEvent(MyTextEvent event) throws InterruptedException {
@@ -246,70 +389,214 @@ public class ConnectionManager {
     }
 
     public void queueIncomingEvent(MyTextEvent event) throws InterruptedException {
-        incomingEvents.put(event);
+        eventsReceived.mark();
+        if (isCoordinator && sequencer != null && sequencer.getPipeline() != null) {
+            // Publish straight to the pipeline of the sequencer, without the hop through the event receiver
+            receiveEventStrategy.process(event);
+        } else {
+            incomingEvents.put(event);
+        }
+    }
+
+    /**
+     * Queue an event received by a connection without waiting, so an I/O thread serving many connections
+     * is not held up by a full queue
+     * @param event the event
+     * @return false if there is no room for the event, in which case the connection should stop reading
+     *         and call {@link #pauseReading}
+     */
+    boolean offerIncomingEvent(MyTextEvent event) {
+        TextEventSequencer sequencer = this.sequencer;
+        boolean queued = isCoordinator && sequencer != null && sequencer.getPipeline() != null
+                ? sequencer.getPipeline().tryPublish(event)
+                : incomingEvents.offer(event);
+        if (queued) {
+            eventsReceived.mark();
+        }
+        return queued;
+    }
+
+    /**
+     * Remember a connection, that has stopped reading, to resume it once there may be room for its events.
+     * The connection must try to queue its event again after calling this, since the room may
+     * have appeared before it was paused.
+     * @param connection the connection
+     */
+    void pauseReading(NioConnection connection) {
+        pausedReaders.add(connection);
+        readersPaused = true;
+    }
+
+    /**
+     * Tell the connections, that stopped reading, to try to queue their events again
+     */
+    public void resumeReading() {
+        readersPaused = false;
+        NioConnection connection;
+        while ((connection = pausedReaders.poll()) != null) {
+            connection.resumeReading();
+        }
     }
 
-    public void connectToServer(String IP, int port) {
+    /**
+     * Connect to the server, through the client at the given address if it is not the server
+     * @param IP the address of the server or a client
+     * @param port the port of the server or a client
+     * @return true if connected
+     */
+    public boolean connectToServer(String IP, int port) {
         Socket socket = null;
         try {
             socket = new Socket(IP, port);
             // Make sure the socket can use the given port even though another socket has
             // recently disconnected from it
             socket.setReuseAddress(true);
-            try {
-                // Get inputStream from other end
-                ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
-                ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-
-
-                // Our own little protocol:
-                // - If connected to a client, ClientAcceptSocketStrategy will send the boolean false
-                // - If connected to the server, ServerAcceptSocketStrategy will send the boolean true
-                Boolean connectedToServer = (Boolean) in.readObject();
-
-                if (!connectedToServer) {
-                    // Get servers address from the other client
-                    String serverIP = (String) in.readObject();
-                    int serverPort = in.readInt();
-
-                    // Make a recursive call with the servers IP and port
-                    connectToServer(serverIP, serverPort);
-                } else {
-                    // We have contacted the server
-                    // Follow the rest of the protocol defined in Connection.sendServerHello
-
-                    // Send my port for listening
-                    out.writeObject(myPort);
-                    // Read the log of textevents from the server
-                    List<MyTextEvent> log = (List<MyTextEvent>) in.readObject();
-                    // Add these to the local history to be replayed
-                    localHistory.addAll(log);
-
-                    //We instantiate a connection-object for the connection to the server and add it
-                    Connection connToServer = new Connection(socket, this);
-                    connToServer.setInputStream(in);
-                    connToServer.setOutputStream(out);
-                    connToServer.start();
-                    addConnection(connToServer);
-                    // Remember server's IP and port, to tell other clients trying to connect to the network
-                    serverIP = IP;
-                    serverPort = port;
-                    editor.setTitle("Connected to " + serverIP + ":" + serverPort);
+            // Get inputStream from other end
+            MessageInputStream in = new MessageInputStream(socket.getInputStream());
+            MessageOutputStream out = new MessageOutputStream(socket.getOutputStream());
+
+            // Our own little protocol:
+            // - If connected to a client, ClientAcceptSocketStrategy will send the boolean false
+            // - If connected to the server, ServerAcceptSocketStrategy will send the boolean true
+            Boolean connectedToServer = readMessage(in, Boolean.class);
+
+            if (!connectedToServer) {
+                // Get servers address from the other client
+                String serverIP = readMessage(in, String.class);
+                int serverPort = readMessage(in, Integer.class);
+
+                // Make a recursive call with the servers IP and port
+                socket.close();
+                return connectToServer(serverIP, serverPort);
+            } else {
+                // We have contacted the server
+                // Follow the rest of the protocol defined in Connection.sendServerHello
+
+                // Send my port for listening
+                out.writeMessage(myPort);
+                // Tell whether I apply my own events optimistically
+                out.writeMessage(optimistic);
+                // Tell whether I keep a copy of the log to take over from the server
+                out.writeMessage(standbySequencer != null);
+                // Tell my id, if I have been connected before, and learn it if not
+                out.writeMessage(myID);
+                // Tell how far I have come in the log, so I only get the events I have missed.
+                // An optimistic client is resynced with a snapshot instead, which drops the local events
+                // it has not had acknowledged, since it cannot tell them from the events it has missed.
+                out.writeMessage(optimistic ? -1 : coordinatorLogId);
+                out.writeMessage(latestReceivedEventNumber);
+                Client me = readMessage(in, Client.class);
+                myID = me.getId();
+                election.setMyId(myID);
+                // Read the id of the log, and either the events I have missed, or a snapshot
+                // of the document and the textevents sequenced after it
+                int logId = readMessage(in, Integer.class);
+                boolean catchingUp = readMessage(in, Boolean.class);
+                DocumentSnapshot snapshot = catchingUp ? null : readMessage(in, DocumentSnapshot.class);
+                List<MyTextEvent> events = new ArrayList<>();
+                for (Object event : readMessage(in, List.class)) {
+                    if (!(event instanceof MyTextEvent)) {
+                        throw new IOException("Expected the events missed, but got " + event);
+                    }
+                    events.add((MyTextEvent) event);
                 }
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
+                receiveServerState(logId, snapshot, events);
+
+                //We instantiate a connection-object for the connection to the server and add it
+                Connection connToServer = new Connection(socket, this);
+                connToServer.setInputStream(in);
+                connToServer.setOutputStream(out);
+                connToServer.start();
+                addConnection(connToServer);
+                // Remember server's IP and port, to tell other clients trying to connect to the network
+                serverIP = IP;
+                serverPort = port;
+                editor.setTitle("Connected to " + serverIP + ":" + serverPort);
+                return true;
             }
         } catch (IOException e) {
             System.out.println("An error occurred when trying to contact the server on IP: " + IP + ", and port: " + port);
             e.printStackTrace();
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the next message of the handshake with the coordinator
+     * @param in the input stream of the socket
+     * @param type the type of message expected
+     * @return the message
+     * @throws IOException if the message cannot be read, or is of another type
+     */
+    private static <T> T readMessage(MessageInputStream in, Class<T> type) throws IOException {
+        Object message = in.readMessage();
+        if (!type.isInstance(message)) {
+            throw new IOException("Expected a " + type.getSimpleName() + " from the coordinator, but got " + message);
+        }
+        return type.cast(message);
+    }
+
+    /**
+     * Add the state sent by the coordinator to the local history to be replayed.
+     * If the coordinator goes on numbering the log this client has followed, it only sends the events
+     * this client has missed. Otherwise the document is replaced with the snapshot of the coordinator.
+     * @param logId the id of the log of the coordinator
+     * @param snapshot the latest snapshot of the coordinator, or null if the client is catching up
+     * @param events the events the client has missed, or those sequenced after the snapshot
+     */
+    private void receiveServerState(int logId, DocumentSnapshot snapshot, List<MyTextEvent> events) {
+        List<MyTextEvent> missing = new ArrayList<>();
+        if (snapshot != null) {
+            missing.add(snapshot.toEvent());
+            latestReceivedEventNumber = snapshot.getSequenceNumber();
+            if (standbySequencer != null) {
+                standbySequencer.restore(snapshot, logId);
+            }
         }
+        missing.addAll(events);
+        localHistory.addAll(missing);
+
+        if (standbySequencer != null) {
+            for (MyTextEvent event : events) {
+                standbySequencer.replicate(event);
+            }
+        }
+        if (!events.isEmpty()) {
+            latestReceivedEventNumber = events.get(events.size() - 1).getSequenceNumber();
+        }
+        coordinatorLogId = logId;
+    }
+
+    /**
+     * Make a connection for an accepted socket, served by the selector pool if there is one
+     * @param socket the accepted socket
+     * @return the connection, not yet started
+     */
+    public Connection newConnection(Socket socket) {
+        if (selectorPool != null && socket.getChannel() != null) {
+            return new NioConnection(socket.getChannel(), this, selectorPool);
+        }
+        return new Connection(socket, this);
     }
 
     public void addConnection(Connection connection) {
         connections.add(connection);
+        connection.registerMBean();
     }
 
+    /**
+     * Add a client to the list of clients, replacing the entry of a client with the same id,
+     * which has reconnected after an election
+     * @param client the client
+     */
     public void addClient(Client client) {
+        clients.removeIf(c -> c.getId() == client.getId());
         clients.add(client);
     }
 
@@ -332,6 +619,9 @@ public class ConnectionManager {
     public int getMyID() {
         return myID;
     }
+    public Election getElection() {
+        return election;
+    }
 
     public void disconnect() {
         try {
@@ -339,10 +629,20 @@ public class ConnectionManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        heartbeatMonitor.stop();
+        election.stop();
         threadManager.stop();
+        if (sequencer != null) {
+            sequencer.close();
+        }
         for (Connection c : connections) {
             c.disconnect();
+            c.unregisterMBean();
+        }
+        if (selectorPool != null) {
+            selectorPool.stop();
         }
+        MBeans.unregister(mbeanName);
     }
 
     public void setAcceptSocketStrategy(AcceptSocketStrategy acceptSocketStrategy) {
@@ -354,7 +654,7 @@ public class ConnectionManager {
     }
 
     public void multicastClient(Client client) {
-        clients.add(client);
+        addClient(client);
 
         for(Connection conn : connections) {
             conn.sendClient(client);
@@ -365,7 +665,210 @@ public class ConnectionManager {
         return isCoordinator;
     }
 
+    /**
+     * Make this client apply its own events right away. Must be set before connecting to the server.
+     * @param optimistic true if the coordinator should acknowledge the events of this client instead of sending them back
+     */
+    public void setOptimistic(boolean optimistic) {
+        this.optimistic = optimistic;
+    }
+
+    /**
+     * Make this client a standby, that keeps a copy of the log of the coordinator, so it can go on sequencing
+     * events where the coordinator stopped if it wins an election. Standby clients get the highest ids, so
+     * they win elections before other clients. Must be set before connecting to the server.
+     * @param standby true if this client is a standby
+     */
+    public void setStandby(boolean standby) {
+        standbySequencer = standby ? new TextEventSequencer(localHistory) : null;
+    }
+
+    /**
+     * @return the copy of the log of the coordinator kept by a standby client, or null if this client is no standby
+     */
+    public TextEventSequencer getStandbySequencer() {
+        return standbySequencer;
+    }
+
+    public void setCoordinator(boolean isCoordinator) {
+        this.isCoordinator = isCoordinator;
+    }
+
+    public void setSequencer(TextEventSequencer sequencer) {
+        this.sequencer = sequencer;
+    }
+
+    /**
+     * @return the oldest event, that the coordinator itself or any client can still base an event on,
+     *         or {@link Integer#MAX_VALUE} if there is none
+     */
+    public int getOldestBasedOn() {
+        IntSupplier progress = replayProgress;
+        int oldest = progress == null ? Integer.MAX_VALUE : progress.getAsInt();
+        for (Connection c : connections) {
+            oldest = Math.min(oldest, c.getBasedOnFloor());
+        }
+        return oldest;
+    }
+
+    /**
+     * @return a snapshot of the document including every event sequenced so far
+     */
+    public DocumentSnapshot getCurrentSnapshot() {
+        return sequencer.getCurrentSnapshot();
+    }
+
+    /**
+     * @return the number of events received but not yet processed
+     */
+    public int getIncomingQueueDepth() {
+        return incomingEvents.size();
+    }
+
+    /**
+     * @return the number of events waiting to be broadcast
+     */
+    public int getOutgoingQueueDepth() {
+        return outgoingEvents.size();
+    }
+
+    /**
+     * @return the number of frames waiting to be sent on each connection
+     */
+    public Map<Connection, Integer> getConnectionQueueDepths() {
+        Map<Connection, Integer> depths = new LinkedHashMap<>();
+        for (Connection c : connections) {
+            depths.put(c, c.getQueueDepth());
+        }
+        return depths;
+    }
+
     public void removeConnection(Connection connection) {
         connections.remove(connection);
+        connection.unregisterMBean();
+    }
+
+    /**
+     * Tell the manager how far the editor has replayed the events, so the lag behind the coordinator can be watched
+     * @param latestReplayedEventNumber tells the sequence number of the latest event replayed by the editor
+     */
+    public void setReplayProgress(IntSupplier latestReplayedEventNumber) {
+        this.replayProgress = latestReplayedEventNumber;
+    }
+
+    /**
+     * Tell the manager how many events the editor has replayed, and in how many batches
+     * @param replayedEvents tells the number of events replayed so far
+     * @param replayedBatches tells the number of batches the events have been replayed in
+     */
+    public void setReplayCounters(LongSupplier replayedEvents, LongSupplier replayedBatches) {
+        this.replayedEvents = replayedEvents;
+        this.replayedBatches = replayedBatches;
+    }
+
+    void countBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    void countBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    @Override
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public long getEventsReceived() {
+        return eventsReceived.getCount();
+    }
+
+    @Override
+    public double getEventsReceivedPerSecond() {
+        return eventsReceived.getRate();
+    }
+
+    @Override
+    public long getEventsSent() {
+        return eventsSent.getCount();
+    }
+
+    @Override
+    public double getEventsSentPerSecond() {
+        return eventsSent.getRate();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepthsByPeer() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        for (Connection c : connections) {
+            depths.put(c.getPeer(), c.getQueueDepth());
+        }
+        return depths;
+    }
+
+    @Override
+    public long getElectionCount() {
+        return election.getElectionCount();
+    }
+
+    @Override
+    public long getLastElectionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(election.getLastElectionNanos());
+    }
+
+    @Override
+    public long getMaxElectionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(election.getMaxElectionNanos());
+    }
+
+    @Override
+    public double getMeanElectionMillis() {
+        long count = election.getElectionCount();
+        return count == 0 ? 0 : election.getTotalElectionNanos() / 1e6 / count;
+    }
+
+    @Override
+    public int getLatestSequenceNumber() {
+        TextEventSequencer sequencer = this.sequencer;
+        if (isCoordinator && sequencer != null) {
+            return sequencer.getLatestSequenceNumber();
+        }
+        return latestReceivedEventNumber;
+    }
+
+    @Override
+    public int getLatestReplayedEventNumber() {
+        IntSupplier progress = replayProgress;
+        return progress == null ? -1 : progress.getAsInt();
+    }
+
+    @Override
+    public int getReplayLag() {
+        IntSupplier progress = replayProgress;
+        return progress == null ? 0 : Math.max(0, getLatestSequenceNumber() - progress.getAsInt());
+    }
+
+    @Override
+    public long getReplayedEventCount() {
+        LongSupplier events = replayedEvents;
+        return events == null ? 0 : events.getAsLong();
+    }
+
+    @Override
+    public long getReplayedBatchCount() {
+        LongSupplier batches = replayedBatches;
+        return batches == null ? 0 : batches.getAsLong();
     }
 }
@@ -0,0 +1,92 @@
+package distedit.net;
+
+import java.util.Map;
+
+/**
+ * The management interface of a {@link ConnectionManager}, registered as distedit:type=ConnectionManager,port=N
+ *
+ * @author DA4-03
+ * @version 2017-06-19
+ */
+public interface ConnectionManagerMXBean {
+
+    boolean isCoordinator();
+
+    int getMyID();
+
+    int getMyPort();
+
+    int getConnectionCount();
+
+    /**
+     * @return the number of text events received from peers
+     */
+    long getEventsReceived();
+
+    double getEventsReceivedPerSecond();
+
+    /**
+     * @return the number of text events broadcast, each counted once however many peers it is sent to
+     */
+    long getEventsSent();
+
+    double getEventsSentPerSecond();
+
+    /**
+     * @return the bytes sent on every connection so far, including those that have been closed
+     */
+    long getBytesSent();
+
+    /**
+     * @return the bytes received on every connection so far, including those that have been closed
+     */
+    long getBytesReceived();
+
+    int getIncomingQueueDepth();
+
+    int getOutgoingQueueDepth();
+
+    /**
+     * @return the number of frames waiting to be sent to each peer, by the address of the peer
+     */
+    Map<String, Integer> getQueueDepthsByPeer();
+
+    /**
+     * @return the number of elections this peer has run to the end
+     */
+    long getElectionCount();
+
+    long getLastElectionMillis();
+
+    long getMaxElectionMillis();
+
+    double getMeanElectionMillis();
+
+    /**
+     * @return the latest event sequenced by the coordinator, as far as this peer knows
+     */
+    int getLatestSequenceNumber();
+
+    /**
+     * @return the latest event replayed by the editor, or -1 if nothing replays the events
+     */
+    int getLatestReplayedEventNumber();
+
+    /**
+     * @return the number of events sequenced, but not yet replayed by the editor,
+     *         or 0 if nothing replays the events
+     */
+    int getReplayLag();
+
+    /**
+     * @return the number of events replayed by the editor so far, or 0 if nothing replays the events.
+     *         The replay rate is the difference between two readings, divided by the time between them.
+     */
+    long getReplayedEventCount();
+
+    /**
+     * @return the number of tasks on the event dispatch thread, that the editor has replayed the events in,
+     *         or 0 if nothing replays the events
+     */
+    long getReplayedBatchCount();
+}
@@ -0,0 +1,55 @@
+package distedit.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable, encoded message in the format of {@link WireFormat}, including its length prefix.
+ *
+ * A message broadcast to many connections is encoded once, and the same frame is handed to every
+ * connection. Connections only read the bytes of a frame, through {@link #writeTo(OutputStream)}
+ * or through their own read-only view from {@link #asBuffer()}.
+ *
+ * @author DA4-03
+ * @version 2017-06-05
+ */
+final class Frame {
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    private Frame(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Encode a message into a frame
+     * @param message the message to encode
+     * @return the frame
+     * @throws IOException if the message is of a type that cannot be encoded
+     */
+    static Frame encode(Object message) throws IOException {
+        WireFormat.Encoder encoder = new WireFormat.Encoder();
+        WireFormat.encode(message, encoder);
+        int start = encoder.finishFrame();
+        return new Frame(encoder.bytes(), start, encoder.length() - start);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, offset, length);
+    }
+
+    /**
+     * @return a new read-only view of the frame, with its own position
+     */
+    ByteBuffer asBuffer() {
+        return ByteBuffer.wrap(bytes, offset, length).asReadOnlyBuffer();
+    }
+
+    int length() {
+        return length;
+    }
+}
@@ -0,0 +1,74 @@
+package distedit.net;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends heartbeats on the connections of a {@link ConnectionManager}, and checks whether their peers are alive.
+ *
+ * Every interval, given by the system property distedit.heartbeat.intervalMillis, a heartbeat is queued on
+ * every started connection, and the failure detector of every connection is asked whether its peer is still
+ * available. A suspected peer is reported to the manager once.
+ *
+ * All monitors share one scheduler thread, so the number of threads does not grow with the number
+ * of connections nor with the number of events sent.
+ *
+ * @author DA4-03
+ * @version 2017-06-10
+ */
+class HeartbeatMonitor {
+    static final long INTERVAL_MILLIS = Long.getLong("distedit.heartbeat.intervalMillis", 500);
+
+    private static ScheduledExecutorService scheduler;
+
+    private final ConnectionManager manager;
+    private final List<Connection> connections;
+    private ScheduledFuture<?> task;
+
+    HeartbeatMonitor(ConnectionManager manager, List<Connection> connections) {
+        this.manager = manager;
+        this.connections = connections;
+    }
+
+    synchronized void start() {
+        if (task == null) {
+            task = scheduler().scheduleAtFixedRate(this::tick, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            for (Connection connection : connections) {
+                connection.sendHeartbeat();
+                if (connection.checkSuspected(now)) {
+                    manager.peerSuspected(connection);
+                }
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the task, so the monitor must survive it
+            e.printStackTrace();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "distedit-heartbeat");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return scheduler;
+    }
+}
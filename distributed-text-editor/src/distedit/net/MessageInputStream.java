@@ -0,0 +1,93 @@
+package distedit.net;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Reads messages written by a {@link MessageOutputStream}.
+ *
+ * Like an {@link java.io.ObjectInputStream}, the constructor blocks until the header
+ * of the stream has been read from the other end.
+ *
+ * @author DA4-03
+ * @version 2017-06-03
+ */
+public class MessageInputStream implements Closeable {
+    private final InputStream in;
+    private final WireFormat.Decoder decoder = new WireFormat.Decoder();
+    private byte[] buffer = new byte[256];
+    // The length of the latest frame read, including its length prefix
+    private int lastFrameLength;
+
+    public MessageInputStream(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in);
+        int magic1 = this.in.read();
+        int magic2 = this.in.read();
+        int version = this.in.read();
+        if (magic1 != WireFormat.MAGIC_1 || magic2 != WireFormat.MAGIC_2) {
+            throw new StreamCorruptedException("Not a message stream");
+        }
+        if (version != WireFormat.VERSION) {
+            throw new StreamCorruptedException("Unsupported message stream version: " + version);
+        }
+    }
+
+    /**
+     * Read the next message, blocking until it has arrived
+     * @return the message
+     * @throws IOException if the stream is closed or the message is malformed
+     */
+    public Object readMessage() throws IOException {
+        int length = readLength();
+        if (length > buffer.length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+        decoder.reset(buffer, length);
+        lastFrameLength += length;
+        return WireFormat.decode(decoder);
+    }
+
+    /**
+     * @return the length of the latest message read, including its length prefix
+     */
+    public int getLastFrameLength() {
+        return lastFrameLength;
+    }
+
+    private int readLength() throws IOException {
+        int length = 0;
+        lastFrameLength = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            lastFrameLength++;
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (length < 0 || length > WireFormat.MAX_FRAME_LENGTH) {
+                    throw new StreamCorruptedException("Frame too long: " + length);
+                }
+                return length;
+            }
+        }
+        throw new StreamCorruptedException("Malformed frame length");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,79 @@
+package distedit.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes messages to a stream in the binary format described in {@link WireFormat}.
+ * Used instead of an {@link java.io.ObjectOutputStream}, which spends more than a hundred
+ * bytes on class descriptors and handles to carry a single character.
+ *
+ * Like an {@link java.io.ObjectOutputStream}, the header of the stream is written when the
+ * stream is constructed.
+ *
+ * Writers are serialized with a lock rather than synchronized methods, so a virtual thread blocked
+ * on the socket does not pin its carrier thread.
+ *
+ * @author DA4-03
+ * @version 2017-06-03
+ */
+public class MessageOutputStream implements Closeable {
+    private final OutputStream out;
+    private final WireFormat.Encoder encoder = new WireFormat.Encoder();
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public MessageOutputStream(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(new byte[]{WireFormat.MAGIC_1, WireFormat.MAGIC_2, WireFormat.VERSION});
+        out.flush();
+    }
+
+    /**
+     * Write a message as a single frame
+     * @param message the message to write
+     * @return the length of the frame, including its length prefix
+     * @throws IOException if the message cannot be encoded or the stream is closed
+     */
+    public int writeMessage(Object message) throws IOException {
+        lock.lock();
+        try {
+            encoder.reset();
+            WireFormat.encode(message, encoder);
+            int start = encoder.finishFrame();
+            out.write(encoder.bytes(), start, encoder.length() - start);
+            out.flush();
+            return encoder.length() - start;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write a batch of frames, that have already been encoded, with a single write and flush
+     * @param frames the frames to write
+     * @throws IOException if the stream is closed
+     */
+    void writeFrames(List<Frame> frames) throws IOException {
+        lock.lock();
+        try {
+            for (Frame frame : frames) {
+                frame.writeTo(batch);
+            }
+            batch.writeTo(out);
+            batch.reset();
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,399 @@
+package distedit.net;
+
+import distedit.event.MyTextEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Connection} served by a {@link SelectorPool} instead of its own sender and receiver threads.
+ *
+ * The handshake in {@link Connection#sendServerHello} is done while the channel is still in blocking
+ * mode. When the connection is started, the channel is switched to non-blocking mode and registered
+ * with one of the selectors of the pool. Outgoing messages are encoded into frames right away and
+ * written by the I/O thread when the socket is writable. Incoming frames are decoded by the I/O thread
+ * and handled like in {@link Connection}.
+ *
+ * The I/O thread never waits for room in the queue of incoming events, since it serves other connections too.
+ * If there is no room for an event, the connection keeps it, stops reading from the socket, and leaves the rest
+ * of what it has read in its buffer, until the manager resumes it. The peer is then held back by TCP.
+ *
+ * @author DA4-03
+ * @version 2017-06-04
+ */
+class NioConnection extends Connection {
+    // Largest number of frames written by a single gathering write
+    private static final int MAX_GATHER = 64;
+
+    private final SocketChannel channel;
+    private final SelectorPool pool;
+    private volatile SelectorPool.Worker worker;
+    private SelectionKey key;
+
+    private final Queue<ByteBuffer> outgoingFrames = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    // Waited on by threads offering frames while the queue is full, and notified by the I/O thread
+    private final Object room = new Object();
+    private volatile int waitingForRoom;
+    // True while a write has been requested, but the I/O thread has not yet written all frames
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+    private final WireFormat.Decoder decoder = new WireFormat.Decoder();
+    // An event received, that there was no room for in the queue of incoming events. Only used by the I/O thread.
+    private MyTextEvent stalled;
+
+    NioConnection(SocketChannel channel, ConnectionManager manager, SelectorPool pool) {
+        super(channel.socket(), manager);
+        this.channel = channel;
+        this.pool = pool;
+    }
+
+    /**
+     * Switch the channel to non-blocking mode and hand it over to an I/O thread.
+     * The peer must not have sent anything after the handshake yet, since the handshake
+     * was read through a buffered stream.
+     */
+    @Override
+    public void start() {
+        try {
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            failed();
+            return;
+        }
+        worker = pool.nextWorker();
+        worker.execute(() -> {
+            try {
+                key = channel.register(worker.getSelector(), SelectionKey.OP_READ, this);
+                if (writeRequested.get()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                failed();
+            }
+        });
+        startHeartbeats();
+    }
+
+    /**
+     * Send information on a client. Like other control messages it is queued even if the queue is full.
+     * @param client the client
+     */
+    @Override
+    public void sendClient(Client client) {
+        try {
+            enqueue(Frame.encode(client));
+        } catch (IOException e) {
+            System.out.println("[NioConnection] Cannot send client: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queue the frame if there is room for it, waiting for room until the timeout.
+     * The I/O thread notifies the waiting threads when it removes frames from the queue.
+     */
+    @Override
+    protected boolean offerFrame(Frame frame, long timeoutMillis) throws InterruptedException {
+        if (queuedFrames.get() >= QUEUE_CAPACITY) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            synchronized (room) {
+                waitingForRoom++;
+                try {
+                    while (queuedFrames.get() >= QUEUE_CAPACITY) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(room, remaining);
+                    }
+                } finally {
+                    waitingForRoom--;
+                }
+            }
+        }
+        enqueue(frame);
+        return true;
+    }
+
+    /**
+     * Drop the frames queued so far. The frames are removed by the I/O thread, which keeps a frame
+     * that it has started writing, so the peer never sees half a frame.
+     */
+    @Override
+    protected void clearFrames() {
+        Set<ByteBuffer> dropped = Collections.newSetFromMap(new IdentityHashMap<>());
+        dropped.addAll(outgoingFrames);
+        Runnable drop = () -> {
+            Iterator<ByteBuffer> frames = outgoingFrames.iterator();
+            while (frames.hasNext()) {
+                ByteBuffer frame = frames.next();
+                if (dropped.contains(frame) && frame.position() == 0) {
+                    frames.remove();
+                    queuedFrames.decrementAndGet();
+                }
+            }
+            signalRoom();
+        };
+        SelectorPool.Worker w = worker;
+        if (w == null) {
+            drop.run();
+        } else {
+            w.execute(drop);
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queuedFrames.get();
+    }
+
+    /**
+     * Queue a view of the frame and ask the I/O thread to write it
+     * @param frame the encoded message
+     */
+    private void enqueue(Frame frame) {
+        queuedFrames.incrementAndGet();
+        outgoingFrames.add(frame.asBuffer());
+        requestWrite();
+    }
+
+    /**
+     * Wake up the threads waiting for room in the queue, if there are any
+     */
+    private void signalRoom() {
+        if (waitingForRoom > 0) {
+            synchronized (room) {
+                room.notifyAll();
+            }
+        }
+    }
+
+    private void requestWrite() {
+        if (writeRequested.compareAndSet(false, true) && worker != null) {
+            worker.execute(this::enableWrite);
+        }
+    }
+
+    private void enableWrite() {
+        try {
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        } catch (CancelledKeyException e) {
+            failed();
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the socket is writable.
+     * Writes as many queued frames as the socket accepts with gathering writes.
+     */
+    void onWritable() {
+        try {
+            while (true) {
+                int count = 0;
+                Iterator<ByteBuffer> frames = outgoingFrames.iterator();
+                while (count < MAX_GATHER && frames.hasNext()) {
+                    batch[count++] = frames.next();
+                }
+                if (count == 0) {
+                    break;
+                }
+                countBytesSent(channel.write(batch, 0, count));
+                for (int i = 0; i < count; i++) {
+                    if (batch[i].hasRemaining()) {
+                        // The socket is full, wait until it is writable again
+                        return;
+                    }
+                    outgoingFrames.poll();
+                    queuedFrames.decrementAndGet();
+                    signalRoom();
+                }
+            }
+            key.interestOps(readInterest());
+            writeRequested.set(false);
+            // A frame may have been queued after the queue was found empty
+            if (!outgoingFrames.isEmpty() && writeRequested.compareAndSet(false, true)) {
+                key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException | CancelledKeyException e) {
+            failed();
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the socket is readable.
+     * Reads what is available and handles every complete frame.
+     */
+    void onReadable() {
+        try {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                failed();
+                return;
+            }
+            countBytesReceived(read);
+            handleFrames();
+        } catch (IOException | CancelledKeyException e) {
+            failed();
+        }
+    }
+
+    /**
+     * Handle every complete frame in the read buffer, until an event has no room in the queue
+     */
+    private void handleFrames() throws IOException {
+        try {
+            readBuffer.flip();
+            int needed = 0;
+            while (readBuffer.hasRemaining()) {
+                int start = readBuffer.position();
+                int length = readFrameLength();
+                if (length < 0 || readBuffer.remaining() < length) {
+                    // Incomplete frame, wait for the rest of it
+                    needed = readBuffer.position() - start + Math.max(length, 0);
+                    readBuffer.position(start);
+                    break;
+                }
+                decoder.reset(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), length);
+                readBuffer.position(readBuffer.position() + length);
+                handleMessage(WireFormat.decode(decoder));
+                if (stalled != null) {
+                    // Leave the rest in the buffer until the event has been queued
+                    break;
+                }
+            }
+            readBuffer.compact();
+            if (needed > readBuffer.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(needed, readBuffer.capacity() * 2));
+                readBuffer.flip();
+                grown.put(readBuffer);
+                readBuffer = grown;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue a received event without waiting. If there is no room, stop reading until the manager resumes
+     * the connection.
+     * @param event the event
+     */
+    @Override
+    protected void queueIncomingEvent(MyTextEvent event) {
+        stalled = event;
+        if (!queueStalled()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Try to queue the event, that had no room, and have the manager resume the connection if there is still none
+     * @return true if the event was queued
+     */
+    private boolean queueStalled() {
+        if (!manager.offerIncomingEvent(stalled)) {
+            manager.pauseReading(this);
+            // The room may have appeared before the manager knew to resume this connection
+            if (!manager.offerIncomingEvent(stalled)) {
+                return false;
+            }
+        }
+        stalled = null;
+        return true;
+    }
+
+    /**
+     * Called by the manager when there may be room for the event, that had no room.
+     * The I/O thread queues it, and reads on once it has been queued.
+     */
+    void resumeReading() {
+        SelectorPool.Worker w = worker;
+        if (w == null) {
+            return;
+        }
+        w.execute(() -> {
+            if (stalled == null || closed.get() || !queueStalled()) {
+                return;
+            }
+            try {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                handleFrames();
+            } catch (IOException | CancelledKeyException e) {
+                failed();
+            }
+        });
+    }
+
+    /**
+     * @return OP_READ, unless reading has stopped until an event has room in the queue
+     */
+    private int readInterest() {
+        return stalled == null ? SelectionKey.OP_READ : 0;
+    }
+
+    /**
+     * Read the varint length of the next frame
+     * @return the length, or -1 if the buffer does not yet hold the whole length
+     * @throws IOException if the length is malformed
+     */
+    private int readFrameLength() throws IOException {
+        int length = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!readBuffer.hasRemaining()) {
+                return -1;
+            }
+            int b = readBuffer.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (length < 0 || length > WireFormat.MAX_FRAME_LENGTH) {
+                    throw new IOException("Frame too long: " + length);
+                }
+                return length;
+            }
+        }
+        throw new IOException("Malformed frame length");
+    }
+
+    /**
+     * Close the connection after an I/O error or after the peer closed it
+     */
+    private void failed() {
+        if (closed.compareAndSet(false, true)) {
+            closeChannel();
+            manager.removeConnection(this);
+            handlePeerClosed();
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        closed.set(true);
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        try {
+            // Closing the channel also cancels its key
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
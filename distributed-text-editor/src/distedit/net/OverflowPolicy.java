@@ -0,0 +1,26 @@
+package distedit.net;
+
+/**
+ * What the coordinator does when the outgoing queue of a {@link Connection} to a client is full,
+ * i.e., when the client does not keep up with the events broadcast to it.
+ *
+ * @author DA4-03
+ * @version 2017-06-06
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait for room in the queue for a while, and disconnect the client if none appears.
+     * Every other client waits too, since they share the broadcaster.
+     */
+    BLOCK,
+
+    /**
+     * Disconnect the client right away
+     */
+    DISCONNECT,
+
+    /**
+     * Drop the queued events and send the client a fresh snapshot of the document instead. The default.
+     */
+    RESYNC
+}
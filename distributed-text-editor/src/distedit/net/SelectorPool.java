@@ -0,0 +1,117 @@
+package distedit.net;
+
+import distedit.threads.ThreadManager;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A fixed number of I/O threads, each running a {@link Selector}, that serve any
+ * number of {@link NioConnection}s. Connections are spread over the threads round-robin.
+ *
+ * Everything touching a selector or its keys is run on the thread owning the selector,
+ * other threads hand over work through {@link Worker#execute(Runnable)}.
+ *
+ * @author DA4-03
+ * @version 2017-06-04
+ */
+class SelectorPool {
+    private final Worker[] workers;
+    private final ThreadManager threadManager = new ThreadManager();
+    private int next;
+
+    /**
+     * Open the selectors and start the I/O threads
+     * @param threads the number of I/O threads
+     * @throws IOException if a selector cannot be opened
+     */
+    SelectorPool(int threads) throws IOException {
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(Selector.open());
+            Thread thread = new Thread(workers[i], "distedit-io-" + i);
+            threadManager.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Pick the worker that should serve a new connection
+     * @return the worker
+     */
+    synchronized Worker nextWorker() {
+        Worker worker = workers[next];
+        next = (next + 1) % workers.length;
+        return worker;
+    }
+
+    void stop() {
+        for (Worker worker : workers) {
+            try {
+                worker.selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        threadManager.stop();
+    }
+
+    /**
+     * Runs the select loop of one selector
+     */
+    static class Worker implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private Worker(Selector selector) {
+            this.selector = selector;
+        }
+
+        Selector getSelector() {
+            return selector;
+        }
+
+        /**
+         * Run a task on the I/O thread of this worker
+         * @param task the task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                System.out.println("[SelectorPool] Selector closed.");
+            }
+        }
+    }
+}
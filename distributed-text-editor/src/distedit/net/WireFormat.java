@@ -0,0 +1,477 @@
+package distedit.net;
+
+import distedit.crdt.CharId;
+import distedit.crdt.CrdtInsert;
+import distedit.crdt.CrdtRemove;
+import distedit.crdt.VersionVector;
+import distedit.event.MyTextEvent;
+import distedit.event.TextAckEvent;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+import distedit.event.sequencer.DocumentSnapshot;
+import distedit.net.election.ElectionMessage;
+import distedit.net.heartbeat.Heartbeat;
+import distedit.trace.Trace;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary encoding of the messages sent between editors.
+ *
+ * A stream starts with a header consisting of the magic bytes 'D' 'E' and the version of the format.
+ * After the header follows a sequence of frames. Each frame is the length of its payload as a varint
+ * followed by the payload. The payload starts with a byte telling the type of the message, followed by
+ * the fields of the message:
+ * <ul>
+ *     <li>Integers are written as zigzag encoded varints, so small negative numbers like -1 stay small</li>
+ *     <li>Strings are written as their UTF-8 length plus one as a varint, followed by the UTF-8 bytes.
+ *         A length of zero means null</li>
+ *     <li>Lists are written as their size as a varint, followed by the messages of the list</li>
+ * </ul>
+ * A traced event is preceded by its trace, written as a byte with a bit for every stamped stage, followed by the
+ * first stamp as a zigzag encoded varlong, and the following stamps as varlongs of their difference from the first.
+ *
+ * The operations of the peer-to-peer mode carry the ids of characters as their clock and the id of their peer.
+ * The first character of an insert has the clock of the insert, and the id of the peer that made it.
+ *
+ * @author DA4-03
+ * @version 2017-06-03
+ */
+final class WireFormat {
+    static final byte MAGIC_1 = 'D';
+    static final byte MAGIC_2 = 'E';
+    static final byte VERSION = 4;
+
+    // Largest payload accepted when reading a frame
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    // Bytes reserved in front of an encoded payload for its length
+    private static final int LENGTH_RESERVE = 5;
+
+    // Message types
+    static final byte TYPE_TRUE = 1;
+    static final byte TYPE_FALSE = 2;
+    static final byte TYPE_INTEGER = 3;
+    static final byte TYPE_STRING = 4;
+    static final byte TYPE_INSERT = 5;
+    static final byte TYPE_REMOVE = 6;
+    static final byte TYPE_EVENT_LIST = 7;
+    static final byte TYPE_SNAPSHOT = 8;
+    static final byte TYPE_CLIENT = 9;
+    static final byte TYPE_ELECTION = 10;
+    static final byte TYPE_ACK = 11;
+    static final byte TYPE_HEARTBEAT = 12;
+    static final byte TYPE_TRACE = 13;
+    static final byte TYPE_CRDT_INSERT = 14;
+    static final byte TYPE_CRDT_REMOVE = 15;
+    static final byte TYPE_VERSION_VECTOR = 16;
+
+    private WireFormat() {
+    }
+
+    /**
+     * A growable byte array that a frame is encoded into.
+     * Room for the length of the frame is reserved in front of the payload,
+     * so the frame can be written without copying the payload.
+     */
+    static final class Encoder {
+        private byte[] bytes = new byte[256];
+        private int length = LENGTH_RESERVE;
+
+        void reset() {
+            length = LENGTH_RESERVE;
+        }
+
+        /**
+         * Write the length of the payload in front of it
+         * @return the offset in {@link #bytes()} at which the frame starts
+         */
+        int finishFrame() {
+            int payloadLength = length - LENGTH_RESERVE;
+            int start = LENGTH_RESERVE - varintSize(payloadLength);
+            int position = start;
+            int value = payloadLength;
+            while ((value & ~0x7F) != 0) {
+                bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position] = (byte) value;
+            return start;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int length() {
+            return length;
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) b;
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(10);
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            bytes[length++] = (byte) zigzag;
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length + 1);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        private static int varintSize(int value) {
+            int size = 1;
+            while ((value & ~0x7F) != 0) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Reads the fields of a message from a byte array
+     */
+    static final class Decoder {
+        private byte[] bytes;
+        private int position;
+        private int limit;
+
+        void reset(byte[] bytes, int length) {
+            reset(bytes, 0, length);
+        }
+
+        void reset(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        int readByte() throws IOException {
+            if (position >= limit) {
+                throw new StreamCorruptedException("Message ended unexpectedly");
+            }
+            return bytes[position++];
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        int readInt() throws IOException {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (value >>> 1) ^ -(value & 1);
+                }
+            }
+            throw new StreamCorruptedException("Malformed varlong");
+        }
+
+        String readString() throws IOException {
+            int length = readVarint() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (length > limit - position) {
+                throw new StreamCorruptedException("String longer than message");
+            }
+            String s = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+    }
+
+    /**
+     * Encode a message, including its type
+     * @param message the message to encode
+     * @param encoder the encoder to write to
+     * @throws IOException if the message is of a type that cannot be encoded
+     */
+    static void encode(Object message, Encoder encoder) throws IOException {
+        if (message instanceof MyTextEvent && ((MyTextEvent) message).getTrace() != null) {
+            encodeTrace(((MyTextEvent) message).getTrace(), encoder);
+        }
+        if (message instanceof Boolean) {
+            encoder.writeByte((Boolean) message ? TYPE_TRUE : TYPE_FALSE);
+        } else if (message instanceof Integer) {
+            encoder.writeByte(TYPE_INTEGER);
+            encoder.writeInt((Integer) message);
+        } else if (message instanceof String) {
+            encoder.writeByte(TYPE_STRING);
+            encoder.writeString((String) message);
+        } else if (message instanceof TextInsertEvent) {
+            TextInsertEvent event = (TextInsertEvent) message;
+            encoder.writeByte(TYPE_INSERT);
+            encodeEventFields(event, encoder);
+            encoder.writeString(event.getText());
+        } else if (message instanceof TextRemoveEvent) {
+            TextRemoveEvent event = (TextRemoveEvent) message;
+            encoder.writeByte(TYPE_REMOVE);
+            encodeEventFields(event, encoder);
+            encoder.writeInt(event.getLength());
+        } else if (message instanceof TextAckEvent) {
+            encoder.writeByte(TYPE_ACK);
+            encoder.writeInt(((TextAckEvent) message).getSequenceNumber());
+        } else if (message instanceof Heartbeat) {
+            encoder.writeByte(TYPE_HEARTBEAT);
+        } else if (message instanceof List) {
+            List<?> list = (List<?>) message;
+            encoder.writeByte(TYPE_EVENT_LIST);
+            encoder.writeVarint(list.size());
+            for (Object event : list) {
+                encode(event, encoder);
+            }
+        } else if (message instanceof DocumentSnapshot) {
+            DocumentSnapshot snapshot = (DocumentSnapshot) message;
+            encoder.writeByte(TYPE_SNAPSHOT);
+            encoder.writeInt(snapshot.getSequenceNumber());
+            encoder.writeString(snapshot.getText());
+        } else if (message instanceof Client) {
+            Client client = (Client) message;
+            encoder.writeByte(TYPE_CLIENT);
+            encoder.writeInt(client.getId());
+            encoder.writeString(client.getIP());
+            encoder.writeInt(client.getPort());
+        } else if (message instanceof ElectionMessage) {
+            ElectionMessage election = (ElectionMessage) message;
+            encoder.writeByte(TYPE_ELECTION);
+            encoder.writeString(election.getMessage());
+            encoder.writeInt(election.getSendersId());
+            encoder.writeString(election.getSendersIP());
+            encoder.writeInt(election.getSendersPort());
+        } else if (message instanceof CrdtInsert) {
+            CrdtInsert insert = (CrdtInsert) message;
+            encoder.writeByte(TYPE_CRDT_INSERT);
+            encoder.writeInt(insert.getSite());
+            encoder.writeInt(insert.getSeq());
+            encoder.writeInt(insert.getId().getClock());
+            encodeCharId(insert.getAfter(), encoder);
+            encoder.writeString(insert.getText());
+        } else if (message instanceof CrdtRemove) {
+            CrdtRemove remove = (CrdtRemove) message;
+            encoder.writeByte(TYPE_CRDT_REMOVE);
+            encoder.writeInt(remove.getSite());
+            encoder.writeInt(remove.getSeq());
+            encoder.writeVarint(remove.getIds().size());
+            for (CharId id : remove.getIds()) {
+                encodeCharId(id, encoder);
+            }
+        } else if (message instanceof VersionVector) {
+            Map<Integer, Integer> seqs = ((VersionVector) message).asMap();
+            encoder.writeByte(TYPE_VERSION_VECTOR);
+            encoder.writeVarint(seqs.size());
+            for (Map.Entry<Integer, Integer> entry : seqs.entrySet()) {
+                encoder.writeInt(entry.getKey());
+                encoder.writeInt(entry.getValue());
+            }
+        } else {
+            throw new IOException("Cannot encode message: " + message);
+        }
+    }
+
+    private static void encodeTrace(long[] trace, Encoder encoder) {
+        encoder.writeByte(TYPE_TRACE);
+        int stamped = 0;
+        for (int stage = 0; stage < trace.length; stage++) {
+            if (trace[stage] != 0) {
+                stamped |= 1 << stage;
+            }
+        }
+        encoder.writeByte(stamped);
+        long first = 0;
+        for (long stamp : trace) {
+            if (stamp != 0) {
+                encoder.writeLong(first == 0 ? stamp : stamp - first);
+                first = first == 0 ? stamp : first;
+            }
+        }
+    }
+
+    private static long[] decodeTrace(Decoder decoder) throws IOException {
+        int stamped = decoder.readByte() & 0xFF;
+        long[] trace = new long[Trace.STAGES];
+        long first = 0;
+        for (int stage = 0; stage < Trace.STAGES; stage++) {
+            if ((stamped & (1 << stage)) != 0) {
+                trace[stage] = first == 0 ? decoder.readLong() : first + decoder.readLong();
+                first = first == 0 ? trace[stage] : first;
+            }
+        }
+        return trace;
+    }
+
+    private static void encodeCharId(CharId id, Encoder encoder) {
+        encoder.writeInt(id.getClock());
+        encoder.writeInt(id.getSite());
+    }
+
+    private static CharId decodeCharId(Decoder decoder) throws IOException {
+        int clock = decoder.readInt();
+        return new CharId(clock, decoder.readInt());
+    }
+
+    private static void encodeEventFields(MyTextEvent event, Encoder encoder) {
+        encoder.writeInt(event.getSequenceNumber());
+        encoder.writeInt(event.getBasedOn());
+        encoder.writeInt(event.getOffset());
+    }
+
+    /**
+     * Decode a message, including its type
+     * @param decoder the decoder to read from
+     * @return the decoded message
+     * @throws IOException if the message is malformed
+     */
+    static Object decode(Decoder decoder) throws IOException {
+        int type = decoder.readByte();
+        switch (type) {
+            case TYPE_TRUE:
+                return Boolean.TRUE;
+            case TYPE_FALSE:
+                return Boolean.FALSE;
+            case TYPE_INTEGER:
+                return decoder.readInt();
+            case TYPE_STRING:
+                return decoder.readString();
+            case TYPE_INSERT: {
+                int sequenceNumber = decoder.readInt();
+                int basedOn = decoder.readInt();
+                int offset = decoder.readInt();
+                TextInsertEvent event = new TextInsertEvent(offset, decoder.readString(), basedOn);
+                event.setSequenceNumber(sequenceNumber);
+                return event;
+            }
+            case TYPE_REMOVE: {
+                int sequenceNumber = decoder.readInt();
+                int basedOn = decoder.readInt();
+                int offset = decoder.readInt();
+                TextRemoveEvent event = new TextRemoveEvent(offset, decoder.readInt(), basedOn);
+                event.setSequenceNumber(sequenceNumber);
+                return event;
+            }
+            case TYPE_ACK:
+                return new TextAckEvent(decoder.readInt());
+            case TYPE_HEARTBEAT:
+                return Heartbeat.INSTANCE;
+            case TYPE_TRACE: {
+                long[] trace = decodeTrace(decoder);
+                Object event = decode(decoder);
+                if (!(event instanceof MyTextEvent)) {
+                    throw new StreamCorruptedException("Expected a traced text event but got: " + event);
+                }
+                ((MyTextEvent) event).setTrace(trace);
+                return event;
+            }
+            case TYPE_EVENT_LIST: {
+                int size = decoder.readVarint();
+                List<MyTextEvent> events = new ArrayList<>(Math.min(size, 1024));
+                for (int i = 0; i < size; i++) {
+                    Object event = decode(decoder);
+                    if (!(event instanceof MyTextEvent)) {
+                        throw new StreamCorruptedException("Expected a text event but got: " + event);
+                    }
+                    events.add((MyTextEvent) event);
+                }
+                return events;
+            }
+            case TYPE_SNAPSHOT: {
+                int sequenceNumber = decoder.readInt();
+                return new DocumentSnapshot(decoder.readString(), sequenceNumber);
+            }
+            case TYPE_CLIENT: {
+                int id = decoder.readInt();
+                String ip = decoder.readString();
+                return new Client(decoder.readInt(), ip, id);
+            }
+            case TYPE_ELECTION: {
+                String message = decoder.readString();
+                int id = decoder.readInt();
+                String ip = decoder.readString();
+                return new ElectionMessage(id, ip, decoder.readInt(), message);
+            }
+            case TYPE_CRDT_INSERT: {
+                int site = decoder.readInt();
+                int seq = decoder.readInt();
+                CharId id = new CharId(decoder.readInt(), site);
+                CharId after = decodeCharId(decoder);
+                return new CrdtInsert(site, seq, id, after, decoder.readString());
+            }
+            case TYPE_CRDT_REMOVE: {
+                int site = decoder.readInt();
+                int seq = decoder.readInt();
+                int size = decoder.readVarint();
+                List<CharId> ids = new ArrayList<>(Math.min(size, 1024));
+                for (int i = 0; i < size; i++) {
+                    ids.add(decodeCharId(decoder));
+                }
+                return new CrdtRemove(site, seq, ids);
+            }
+            case TYPE_VERSION_VECTOR: {
+                int size = decoder.readVarint();
+                VersionVector version = new VersionVector();
+                for (int i = 0; i < size; i++) {
+                    int site = decoder.readInt();
+                    version.set(site, decoder.readInt());
+                }
+                return version;
+            }
+            default:
+                throw new StreamCorruptedException("Unknown message type: " + type);
+        }
+    }
+}
@@ -1,137 +1,456 @@
 package distedit.net.election;
 
 import distedit.net.Client;
+import distedit.net.MessageInputStream;
+import distedit.net.MessageOutputStream;
+import distedit.threads.ThreadManager;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
- * A class that implements the bully algorithm for electing a new coordinator
+ * A class that implements the bully algorithm for electing a new coordinator.
+ *
+ * The peer starting an election sends an election message to every peer with a higher id at once, each in its
+ * own thread, and waits for the first of them to answer OK. If none of them answers within the timeout, given by
+ * the system property distedit.election.timeoutMillis, or all of them turn out to be unreachable, the peer wins
+ * and announces itself as the coordinator to every peer. A peer answering OK starts an election of its own, so
+ * the peer with the highest id, that is still alive, wins.
+ *
+ * Messages are sent over {@link PeerLink}s, that are kept open between elections, so an election normally takes
+ * a few round trips. A round ends within three timeouts: one for the answers, and two for the coordinator to be
+ * announced. If a peer answered OK, but failed before announcing itself, the election is run again, up to
+ * {@link #MAX_ROUNDS} times, before the peer announces itself.
  */
 public class Election {
 
-    private static ElectionResult electionResult = new ElectionResult();
+    /**
+     * Is told about the result of every election, whether this peer started it or not
+     */
+    public interface Listener {
+        void coordinatorElected(ElectionResult result);
+    }
+
+    private static final long TIMEOUT_MILLIS = Long.getLong("distedit.election.timeoutMillis", 1000);
+    private static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger("distedit.election.connectTimeoutMillis", 500);
+    private static final int MAX_ROUNDS = 3;
 
-    public static void startAnElection(List<Client> clients, int invokersId, String invokersIP, int invokersPort) {
+    private final List<Client> clients;
+    private final String myIP;
+    private final int myPort;
+    private volatile int myId = -1;
+    private final Listener listener;
 
-        messageAllClients(clients, invokersId, invokersIP, invokersPort);
+    // Links to other peers by their ids, both those opened by this peer and those accepted from others
+    private final Map<Integer, PeerLink> links = new ConcurrentHashMap<>();
+    // Every open link, including those replaced in the map by a newer link to the same peer
+    private final Set<PeerLink> openLinks = ConcurrentHashMap.newKeySet();
+    private final ThreadManager threadManager = new ThreadManager();
+    private volatile boolean stopped;
+
+    // The state of the current election, guarded by this
+    private boolean running;
+    private boolean okReceived;
+    private int unreachable;
+    // Counts the rounds of every election, so a late answer to an earlier round is not counted
+    private int round;
+    private ElectionResult result;
+    private ElectionResult coordinator;
+    private long startedAt;
+    // The elections this peer has run to the end, and how long they took, guarded by this
+    private long electionCount;
+    private long lastElectionNanos;
+    private long maxElectionNanos;
+    private long totalElectionNanos;
+
+    /**
+     * Construct the election of a peer
+     * @param clients  the peers, that may take part in an election. The list may change, and must be thread safe.
+     * @param myIP     the address of this peer
+     * @param myPort   the port this peer listens for connections on
+     * @param listener is told about the result of every election
+     */
+    public Election(List<Client> clients, String myIP, int myPort, Listener listener) {
+        this.clients = clients;
+        this.myIP = myIP;
+        this.myPort = myPort;
+        this.listener = listener;
+    }
+
+    public void setMyId(int myId) {
+        this.myId = myId;
     }
 
     /**
-     * Part of the bully algorithm: Sends out messages to all clients with higher id than this
-     *
-     * @param clients
-     * @param fromId
-     * @param fromIP
-     * @param fromPort
+     * Start an election in a new thread, unless one is already running
      */
-    private static void messageAllClients(List<Client> clients, int fromId, String fromIP, int fromPort) {
-        Thread timer = getTimeOutThread();
-        timer.start();
+    public synchronized void start() {
+        if (running || stopped) {
+            return;
+        }
+        running = true;
+        result = null;
+        startedAt = System.nanoTime();
+        threadManager.start("election", this::run);
+    }
 
-        for(Client client : clients) {
-            if(client.getId() > fromId) {
-                try {
-                    sendElectionMessage(client, fromIP, fromPort, timer);
-                } catch (IOException | ClassNotFoundException e) {
-                    System.out.println("An exception occurred during election when trying to contact client on port: " + client.getPort());
-                    e.printStackTrace();
+    private void run() {
+        try {
+            for (int attempt = 0; attempt < MAX_ROUNDS; attempt++) {
+                List<Client> higher = getPeers(true);
+                int thisRound;
+                synchronized (this) {
+                    okReceived = false;
+                    unreachable = 0;
+                    thisRound = ++round;
+                }
+                for (Client peer : higher) {
+                    send(peer, ElectionMessage.ELECTION, thisRound);
+                }
+
+                synchronized (this) {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+                    while (result == null && !okReceived && unreachable < higher.size()) {
+                        if (!waitUntil(deadline)) {
+                            break;
+                        }
+                    }
+                    if (result != null) {
+                        return;
+                    }
+                    if (!okReceived) {
+                        // No one with a higher id is alive
+                        break;
+                    }
+
+                    // A peer with a higher id takes over, and should announce the winner
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * TIMEOUT_MILLIS);
+                    while (result == null && waitUntil(deadline)) {
+                        // Wait for the coordinator to be announced
+                    }
+                    if (result != null) {
+                        return;
+                    }
                 }
+                System.out.println("[Election] No coordinator was announced, starting over.");
             }
+            announce();
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                running = false;
+            }
+            System.out.println("[Election] Election interrupted.");
         }
     }
+
     /**
-     * Send election message to another client
-     * @param client
-     * @param myIP
-     * @param myPort @throws IOException
-     * @param timer
+     * Wait on this until notified or the deadline has passed. Must hold the lock on this.
+     * @return false if the deadline has passed
      */
-    private static void sendElectionMessage(Client client, String myIP, int myPort, Thread timer) throws IOException, ClassNotFoundException {
-        // Get socket to client
-        Socket clientSocket = new Socket(client.getIP(), client.getPort());
-        // And streams for reading/ writing
-        ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
-        ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream());
-
-        // Send the election message
-        out.writeObject(new ElectionMessage(myIP, myPort, "ELECTION"));
-        waitForResponse(in, timer);
+    private boolean waitUntil(long deadline) throws InterruptedException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+            return false;
+        }
+        wait(remaining);
+        return true;
     }
 
     /**
-     * Read the response of an election message
-     * @param in
-     * @param timer
-     * @throws IOException
-     * @throws ClassNotFoundException
+     * Make this peer the coordinator, and tell every other peer.
+     * This peer is told first, so it is ready for the others, when they connect to it.
      */
-    private static void waitForResponse(ObjectInputStream in, Thread timer) throws IOException, ClassNotFoundException {
-        ElectionMessage response = (ElectionMessage) in.readObject();
+    private void announce() {
+        complete(new ElectionResult(myId, myIP, myPort));
+        for (Client peer : getPeers(false)) {
+            send(peer, ElectionMessage.COORDINATOR, 0);
+        }
+    }
 
-        if(response.getMessage().equals("OK")) {
-            timer.interrupt();
+    private void complete(ElectionResult winner) {
+        synchronized (this) {
+            if (!running && coordinator != null && coordinator.getWinnerId() == winner.getWinnerId()) {
+                // Already known
+                return;
+            }
+            if (running) {
+                long nanos = System.nanoTime() - startedAt;
+                electionCount++;
+                lastElectionNanos = nanos;
+                maxElectionNanos = Math.max(maxElectionNanos, nanos);
+                totalElectionNanos += nanos;
+            }
+            result = winner;
+            coordinator = winner;
+            running = false;
+            notifyAll();
         }
+        System.out.println("[Election] " + winner.getWinnerId() + " is the new coordinator, elected in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) + " ms.");
+        listener.coordinatorElected(winner);
     }
 
     /**
-     * Process an election message by sending out messages to everyone else and replying back "OK".
-     * If no one responds
-     *
-     * @param message
-     * @param clients
-     * @param fromId
-     * @param fromIP
-     * @param fromPort
+     * Process an election message received from a peer
+     * @param message the message
+     * @param from    the link it was received on
      */
-    public static void processElectionMessage(ElectionMessage message,
-                                              List<Client> clients, int fromId, String fromIP, int fromPort) {
-
-        if(!message.getMessage().equals("ELECTION")) {
-            return;
+    void processElectionMessage(ElectionMessage message, PeerLink from) {
+        switch (message.getMessage()) {
+            case ElectionMessage.ELECTION:
+                if (message.getSendersId() < myId) {
+                    boolean isCoordinator = isCoordinator();
+                    try {
+                        from.send(newMessage(ElectionMessage.OK));
+                        if (isCoordinator) {
+                            // The sender has not heard that this peer won, or suspected it wrongly
+                            from.send(newMessage(ElectionMessage.COORDINATOR));
+                        }
+                    } catch (IOException e) {
+                        System.out.println("[Election] Cannot answer " + message.getSendersId() + ": " + e.getMessage());
+                    }
+                    if (!isCoordinator) {
+                        // Take over the election
+                        start();
+                    }
+                }
+                break;
+            case ElectionMessage.OK:
+                from.setAwaitedRound(0);
+                synchronized (this) {
+                    okReceived = true;
+                    notifyAll();
+                }
+                break;
+            case ElectionMessage.COORDINATOR:
+                if (message.getSendersId() < myId) {
+                    // A peer with a lower id cannot win while this peer is alive
+                    start();
+                } else {
+                    complete(new ElectionResult(message.getSendersId(), message.getSendersIP(), message.getSendersPort()));
+                }
+                break;
         }
-        // Send out messages to everyone else
-        messageAllClients(clients, fromId, fromIP, fromPort);
+    }
+
+    /**
+     * Send a message to a peer in a new thread, opening a link to it if there is none
+     * @param peer  the peer
+     * @param kind  the kind of message
+     * @param round the round of the election, that an unreachable peer is counted in
+     */
+    private void send(Client peer, String kind, int round) {
+        threadManager.start("election-" + peer.getId(), () -> {
+            boolean sent = false;
+            try {
+                PeerLink link = links.get(peer.getId());
+                if (link != null && !link.isClosed()) {
+                    try {
+                        sendOn(link, kind, round);
+                        sent = true;
+                    } catch (IOException e) {
+                        // The link has gone stale, try a new one
+                        links.remove(peer.getId(), link);
+                        link.close();
+                    }
+                }
+                if (!sent) {
+                    link = openLink(peer);
+                    if (link == null) {
+                        // The peer has already become the coordinator
+                        complete(new ElectionResult(peer.getId(), peer.getIP(), peer.getPort()));
+                        return;
+                    }
+                    sendOn(link, kind, round);
+                    sent = true;
+                }
+            } catch (IOException e) {
+                System.out.println("[Election] Cannot reach " + peer.getId() + " on " + peer.getIP() + ":"
+                        + peer.getPort() + ": " + e.getMessage());
+            }
+            if (!sent && kind.equals(ElectionMessage.ELECTION)) {
+                synchronized (this) {
+                    if (round == this.round) {
+                        unreachable++;
+                        notifyAll();
+                    }
+                }
+            }
+        });
+    }
 
-        // Reply back "OK"
+    /**
+     * Send a message on a link. The link remembers the round of an election message, so the peer is counted
+     * as unreachable if the link turns out to be closed before the peer answers.
+     */
+    private void sendOn(PeerLink link, String kind, int round) throws IOException {
+        if (kind.equals(ElectionMessage.ELECTION)) {
+            link.setAwaitedRound(round);
+        }
         try {
-            Socket toOther = new Socket(fromIP, fromPort);
-            ObjectOutputStream out = new ObjectOutputStream(toOther.getOutputStream());
-            out.writeObject(new ElectionMessage("OK"));
+            link.send(newMessage(kind));
         } catch (IOException e) {
-            e.printStackTrace();
+            link.setAwaitedRound(0);
+            throw e;
         }
+    }
 
+    private PeerLink openLink(Client peer) throws IOException {
+        PeerLink link = PeerLink.open(peer.getIP(), peer.getPort(), CONNECT_TIMEOUT_MILLIS,
+                newMessage(ElectionMessage.LINK), peer.getId());
+        if (link != null) {
+            if (!register(link)) {
+                throw new IOException("The election has been stopped");
+            }
+            threadManager.start("election-link-" + peer.getId(), () -> readFromLink(link));
+        }
+        return link;
     }
 
     /**
-     * If no one with higher Id has responded, the election is over
+     * Take over a socket, that a peer has connected to the listening port of this peer, if it is a link.
+     * The peer has already been sent the address of the coordinator, and a new client closes the socket
+     * after reading it, while a peer opening a link sends a {@link ElectionMessage#LINK} message.
+     * @param socket the accepted socket
+     * @param out    the stream the address of the coordinator was written to
      */
-    private static Thread getTimeOutThread() {
-        return new Thread(() -> {
+    public void accept(Socket socket, MessageOutputStream out) {
+        threadManager.start("election-link", () -> {
+            PeerLink link;
             try {
-                Thread.sleep(3000);
-            } catch (InterruptedException e) {
-                // The thread has been interrupted by an "OK" message,
-                // therefore we do not end the election
+                socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+                MessageInputStream in = new MessageInputStream(socket.getInputStream());
+                Object hello = in.readMessage();
+                if (!(hello instanceof ElectionMessage)
+                        || !((ElectionMessage) hello).getMessage().equals(ElectionMessage.LINK)) {
+                    socket.close();
+                    return;
+                }
+                socket.setSoTimeout(0);
+                socket.setTcpNoDelay(true);
+                link = new PeerLink(socket, in, out, ((ElectionMessage) hello).getSendersId());
+            } catch (IOException e) {
+                // Not a link
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
                 return;
             }
-            // If the thread is not interrupted we end the election
-            endElection();
+            if (register(link)) {
+                readFromLink(link);
+            }
         });
     }
 
-    private static void endElection() {
-        // TODO : End election
-        electionResult.notifyAll();
+    /**
+     * Add a link to the links, that messages are sent over and that are closed when the election is stopped
+     * @return false if the election has been stopped, and the link has been closed
+     */
+    private boolean register(PeerLink link) {
+        openLinks.add(link);
+        if (stopped) {
+            openLinks.remove(link);
+            link.close();
+            return false;
+        }
+        links.put(link.getPeerId(), link);
+        return true;
+    }
+
+    private void readFromLink(PeerLink link) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Object message = link.read();
+                if (message instanceof ElectionMessage) {
+                    processElectionMessage((ElectionMessage) message, link);
+                }
+            }
+        } catch (IOException e) {
+            // The link was closed
+        } finally {
+            links.remove(link.getPeerId(), link);
+            openLinks.remove(link);
+            link.close();
+            synchronized (this) {
+                if (link.getAwaitedRound() != 0 && link.getAwaitedRound() == round) {
+                    // The peer failed before answering
+                    unreachable++;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param higherOnly true to only get the peers with a higher id than this peer
+     * @return the other peers, each once
+     */
+    private List<Client> getPeers(boolean higherOnly) {
+        Map<Integer, Client> peers = new LinkedHashMap<>();
+        for (Client client : clients) {
+            if (client.getId() != myId && (!higherOnly || client.getId() > myId)) {
+                peers.put(client.getId(), client);
+            }
+        }
+        return new ArrayList<>(peers.values());
+    }
+
+    private ElectionMessage newMessage(String kind) {
+        return new ElectionMessage(myId, myIP, myPort, kind);
+    }
+
+    /**
+     * @return true if this peer has won the latest election, and no new election is running
+     */
+    private synchronized boolean isCoordinator() {
+        return !running && coordinator != null && coordinator.getWinnerId() == myId;
+    }
+
+    /**
+     * @return true if an election is running
+     */
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of elections this peer has run until a coordinator was elected
+     */
+    public synchronized long getElectionCount() {
+        return electionCount;
+    }
+
+    /**
+     * @return the time the latest election run by this peer took, in nanoseconds
+     */
+    public synchronized long getLastElectionNanos() {
+        return lastElectionNanos;
+    }
+
+    public synchronized long getMaxElectionNanos() {
+        return maxElectionNanos;
+    }
 
-        System.out.println("Election has ended!");
+    public synchronized long getTotalElectionNanos() {
+        return totalElectionNanos;
     }
 
-    public static ElectionResult getResult() {
-        return electionResult;
+    /**
+     * Close all links and stop the threads of the election
+     */
+    public void stop() {
+        stopped = true;
+        for (PeerLink link : openLinks) {
+            link.close();
+        }
+        threadManager.stop();
     }
 }
@@ -1,29 +1,45 @@
 package distedit.net.election;
 
+/**
+ * A message of the bully algorithm, sent over a {@link PeerLink}. Carries the id and the address of the sender,
+ * so the receiver can answer it, or connect to it if it is announced as the new coordinator.
+ */
 public class ElectionMessage {
 
+    // Opens a link, so the receiver knows who is at the other end
+    public static final String LINK = "LINK";
+    // Sent to every peer with a higher id, when a peer starts an election
+    public static final String ELECTION = "ELECTION";
+    // The answer to an election message, telling the sender that a peer with a higher id takes over
+    public static final String OK = "OK";
+    // Sent to every peer by the winner of an election
+    public static final String COORDINATOR = "COORDINATOR";
+
+    private int sendersId;
     private String sendersIP;
     private int sendersPort;
     private String message;
 
-    private ElectionResult result;
-
-    public ElectionMessage(String myIP, int myPort, String message) {
+    public ElectionMessage(int myId, String myIP, int myPort, String message) {
+        this.sendersId = myId;
         this.sendersIP = myIP;
         this.sendersPort = myPort;
         this.message = message;
     }
 
-    public ElectionMessage(String message) {
-        this.message = message;
+    public int getSendersId() {
+        return sendersId;
+    }
+
+    public String getSendersIP() {
+        return sendersIP;
     }
 
+    public int getSendersPort() {
+        return sendersPort;
+    }
 
     public String getMessage() {
         return message;
     }
-
-    public ElectionResult getResult() {
-        return result;
-    }
 }
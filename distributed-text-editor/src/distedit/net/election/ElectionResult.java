@@ -1,17 +1,22 @@
 package distedit.net.election;
 
+/**
+ * The outcome of an election: the id and the address of the new coordinator
+ */
 public class ElectionResult {
 
-    private String winnerId;
-    private String winnerIp;
-    private int winnerPort;
+    private final int winnerId;
+    private final String winnerIp;
+    private final int winnerPort;
 
-    public String getWinnerId() {
-        return winnerId;
+    public ElectionResult(int winnerId, String winnerIp, int winnerPort) {
+        this.winnerId = winnerId;
+        this.winnerIp = winnerIp;
+        this.winnerPort = winnerPort;
     }
 
-    public void setWinnerId(String winnerId) {
-        this.winnerId = winnerId;
+    public int getWinnerId() {
+        return winnerId;
     }
 
     public String getWinnerIp() {
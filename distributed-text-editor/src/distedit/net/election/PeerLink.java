@@ -0,0 +1,101 @@
+package distedit.net.election;
+
+import distedit.net.MessageInputStream;
+import distedit.net.MessageOutputStream;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * A socket between two peers, that election messages are sent over in both directions.
+ * A link is opened to the port, that a peer listens for connections on, the first time the peer must be
+ * contacted, and is kept open for later messages and later elections.
+ */
+class PeerLink {
+    private final Socket socket;
+    private final MessageInputStream in;
+    private final MessageOutputStream out;
+    private final int peerId;
+    // The round of the election, in which an election message was sent on the link and not yet answered, or 0
+    private volatile int awaitedRound;
+
+    PeerLink(Socket socket, MessageInputStream in, MessageOutputStream out, int peerId) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.peerId = peerId;
+    }
+
+    /**
+     * Open a link to the listening port of a peer.
+     * A client answers anyone connecting to it with the address of the coordinator, which is skipped,
+     * before the link is introduced with a {@link ElectionMessage#LINK} message.
+     * @param ip            the address of the peer
+     * @param port          the port the peer listens for connections on
+     * @param timeoutMillis how long to wait for the peer to accept the connection and answer it
+     * @param hello         the message introducing this peer
+     * @param peerId        the id of the peer
+     * @return the link, or null if the peer turned out to be the coordinator
+     * @throws IOException if the peer cannot be reached
+     */
+    static PeerLink open(String ip, int port, int timeoutMillis, ElectionMessage hello, int peerId) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(ip, port), timeoutMillis);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            MessageOutputStream out = new MessageOutputStream(socket.getOutputStream());
+            MessageInputStream in = new MessageInputStream(socket.getInputStream());
+
+            // Our own little protocol, see ConnectionManager.connectToServer
+            Object connectedToServer = in.readMessage();
+            if (!Boolean.FALSE.equals(connectedToServer)) {
+                socket.close();
+                return null;
+            }
+            // The address of the coordinator, that a new client would be redirected to
+            in.readMessage();
+            in.readMessage();
+
+            out.writeMessage(hello);
+            socket.setSoTimeout(0);
+            return new PeerLink(socket, in, out, peerId);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    void send(ElectionMessage message) throws IOException {
+        out.writeMessage(message);
+    }
+
+    Object read() throws IOException {
+        return in.readMessage();
+    }
+
+    int getAwaitedRound() {
+        return awaitedRound;
+    }
+
+    void setAwaitedRound(int awaitedRound) {
+        this.awaitedRound = awaitedRound;
+    }
+
+    int getPeerId() {
+        return peerId;
+    }
+
+    boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
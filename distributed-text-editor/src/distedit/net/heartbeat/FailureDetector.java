@@ -0,0 +1,53 @@
+package distedit.net.heartbeat;
+
+/**
+ * Decides, from the messages received from a peer, whether the peer should be suspected to have failed.
+ *
+ * The detector used is chosen with the system property distedit.heartbeat.detector:
+ * <ul>
+ *     <li>PHI (the default): a {@link PhiAccrualFailureDetector}, that adapts to the delays of the network</li>
+ *     <li>TIMEOUT: a {@link TimeoutFailureDetector}, that suspects a peer after a fixed silence</li>
+ * </ul>
+ * Times are given in nanoseconds from {@link System#nanoTime()}.
+ *
+ * @author DA4-03
+ * @version 2017-06-10
+ */
+public interface FailureDetector {
+
+    /**
+     * Record, that a heartbeat has arrived from the peer
+     * @param nanos the time of arrival
+     */
+    void heartbeat(long nanos);
+
+    /**
+     * Record, that another message has arrived from the peer. It proves that the peer is alive,
+     * but is not sent at regular intervals like heartbeats.
+     * @param nanos the time of arrival
+     */
+    void messageReceived(long nanos);
+
+    /**
+     * @param nanos the current time
+     * @return true if the peer is not suspected to have failed
+     */
+    boolean isAvailable(long nanos);
+
+    /**
+     * Make the detector chosen with the system properties
+     * @param heartbeatIntervalMillis how often the peer sends heartbeats
+     * @return the detector
+     */
+    static FailureDetector create(long heartbeatIntervalMillis) {
+        String kind = System.getProperty("distedit.heartbeat.detector", "PHI");
+        if (kind.equals("TIMEOUT")) {
+            return new TimeoutFailureDetector(Long.getLong("distedit.heartbeat.timeoutMillis", 3000));
+        }
+        return new PhiAccrualFailureDetector(
+                Double.parseDouble(System.getProperty("distedit.heartbeat.phiThreshold", "8")),
+                heartbeatIntervalMillis,
+                Long.getLong("distedit.heartbeat.acceptablePauseMillis", 1000),
+                Long.getLong("distedit.heartbeat.minStdDevMillis", 100));
+    }
+}
@@ -0,0 +1,20 @@
+package distedit.net.heartbeat;
+
+/**
+ * A message, that is sent periodically on every connection, to tell the peer that the sender is alive.
+ * It carries no fields, so the single instance is used for every heartbeat.
+ *
+ * @author DA4-03
+ * @version 2017-06-10
+ */
+public final class Heartbeat {
+    public static final Heartbeat INSTANCE = new Heartbeat();
+
+    private Heartbeat() {
+    }
+
+    @Override
+    public String toString() {
+        return "Heartbeat";
+    }
+}
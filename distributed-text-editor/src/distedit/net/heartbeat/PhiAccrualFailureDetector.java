@@ -0,0 +1,115 @@
+package distedit.net.heartbeat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phi accrual failure detector of Hayashibara et al.
+ *
+ * Instead of a fixed timeout, the detector keeps the intervals between the latest heartbeats, and computes
+ * phi, the suspicion level, from how unlikely the time since the last arrival is given the mean and the
+ * standard deviation of those intervals. A phi of 1 means a 10% chance of being wrong when suspecting the
+ * peer, a phi of 2 means 1%, and so on. The peer is suspected when phi reaches the threshold, so a slow
+ * or jittery network makes the detector more patient, while a steady one lets it detect failures quickly.
+ *
+ * Any message counts as an arrival, so a peer is not suspected while it sends events, even if its
+ * heartbeats are held up behind them, but only heartbeats are used for the intervals.
+ *
+ * @author DA4-03
+ * @version 2017-06-10
+ */
+public class PhiAccrualFailureDetector implements FailureDetector {
+    // Number of intervals the mean and the standard deviation are computed from
+    private static final int WINDOW = 100;
+
+    private final double threshold;
+    private final double acceptablePauseMillis;
+    private final double minStdDevMillis;
+
+    private final double[] intervals = new double[WINDOW];
+    private int count;
+    private int next;
+    private double sum;
+    private double squaredSum;
+
+    private long lastHeartbeat;
+    private long lastArrival;
+
+    /**
+     * Construct the detector. The time of construction counts as the first heartbeat.
+     * @param threshold               the phi at which the peer is suspected
+     * @param heartbeatIntervalMillis how often the peer sends heartbeats, used until real intervals are known
+     * @param acceptablePauseMillis   a pause, like a garbage collection, that is added to the mean interval
+     * @param minStdDevMillis         the smallest standard deviation used, so a very steady peer is not
+     *                                suspected as soon as a heartbeat is a little late
+     */
+    public PhiAccrualFailureDetector(double threshold, long heartbeatIntervalMillis,
+                                     long acceptablePauseMillis, long minStdDevMillis) {
+        this.threshold = threshold;
+        this.acceptablePauseMillis = acceptablePauseMillis;
+        this.minStdDevMillis = minStdDevMillis;
+        // Start out with intervals around the expected one
+        double deviation = heartbeatIntervalMillis / 4.0;
+        addInterval(heartbeatIntervalMillis - deviation);
+        addInterval(heartbeatIntervalMillis + deviation);
+        lastHeartbeat = lastArrival = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void heartbeat(long nanos) {
+        addInterval(toMillis(nanos - lastHeartbeat));
+        lastHeartbeat = nanos;
+        lastArrival = Math.max(lastArrival, nanos);
+    }
+
+    @Override
+    public synchronized void messageReceived(long nanos) {
+        lastArrival = Math.max(lastArrival, nanos);
+    }
+
+    @Override
+    public boolean isAvailable(long nanos) {
+        return phi(nanos) < threshold;
+    }
+
+    /**
+     * @param nanos the current time
+     * @return the suspicion level of the peer
+     */
+    public synchronized double phi(long nanos) {
+        double mean = sum / count;
+        double variance = squaredSum / count - mean * mean;
+        double stdDev = Math.max(Math.sqrt(Math.max(variance, 0)), minStdDevMillis);
+        return phi(toMillis(nanos - lastArrival), mean + acceptablePauseMillis, stdDev);
+    }
+
+    /**
+     * Compute -log10 of the probability of an interval at least as long as the elapsed time, using a
+     * logistic approximation of the cumulative normal distribution, that stays accurate far into the tail
+     */
+    private static double phi(double elapsed, double mean, double stdDev) {
+        double y = (elapsed - mean) / stdDev;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    private void addInterval(double interval) {
+        if (count == WINDOW) {
+            double oldest = intervals[next];
+            sum -= oldest;
+            squaredSum -= oldest * oldest;
+        } else {
+            count++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % WINDOW;
+        sum += interval;
+        squaredSum += interval * interval;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
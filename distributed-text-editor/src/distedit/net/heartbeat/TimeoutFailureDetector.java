@@ -0,0 +1,37 @@
+package distedit.net.heartbeat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suspects a peer, when nothing has been received from it for a fixed time
+ *
+ * @author DA4-03
+ * @version 2017-06-10
+ */
+public class TimeoutFailureDetector implements FailureDetector {
+    private final long timeoutNanos;
+    private volatile long lastArrival = System.nanoTime();
+
+    /**
+     * Construct the detector. The time of construction counts as the first arrival.
+     * @param timeoutMillis the silence after which the peer is suspected
+     */
+    public TimeoutFailureDetector(long timeoutMillis) {
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    @Override
+    public void heartbeat(long nanos) {
+        lastArrival = nanos;
+    }
+
+    @Override
+    public void messageReceived(long nanos) {
+        lastArrival = nanos;
+    }
+
+    @Override
+    public boolean isAvailable(long nanos) {
+        return nanos - lastArrival < timeoutNanos;
+    }
+}
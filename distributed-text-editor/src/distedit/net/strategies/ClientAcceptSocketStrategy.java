@@ -1,28 +1,35 @@
 package distedit.net.strategies;
 
 import distedit.net.ConnectionManager;
+import distedit.net.MessageOutputStream;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 
 public class ClientAcceptSocketStrategy implements AcceptSocketStrategy {
     @Override
     public void accept(Socket socket, ConnectionManager manager) {
-        try (ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream())) {
-
-            // TODO : Handle incoming election messages
+        try {
+            MessageOutputStream out = new MessageOutputStream(socket.getOutputStream());
 
             Boolean youHaveConnectedToServer = false;
             String serverIP = manager.getServerIP();
             int serverPort = manager.getServerPort();
 
             //Send client to the right server
-            out.writeObject(youHaveConnectedToServer);
-            out.writeObject(serverIP);
-            out.writeInt(serverPort);
+            out.writeMessage(youHaveConnectedToServer);
+            out.writeMessage(serverIP);
+            out.writeMessage(serverPort);
+
+            // A new client closes the socket and goes on to the server,
+            // while another client may keep it open as a link for elections
+            manager.getElection().accept(socket, out);
         } catch (IOException e) {
             e.printStackTrace();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
         }
     }
 }
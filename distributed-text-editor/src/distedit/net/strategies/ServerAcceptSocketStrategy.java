@@ -1,6 +1,5 @@
 package distedit.net.strategies;
 
-import distedit.event.MyTextEvent;
 import distedit.event.sequencer.TextEventSequencer;
 import distedit.net.Client;
 import distedit.net.Connection;
@@ -8,7 +7,6 @@ import distedit.net.ConnectionManager;
 
 import java.io.IOException;
 import java.net.Socket;
-import java.util.List;
 
 public class ServerAcceptSocketStrategy implements AcceptSocketStrategy {
 
@@ -22,16 +20,22 @@ public class ServerAcceptSocketStrategy implements AcceptSocketStrategy {
     @Override
     public void accept(Socket socket, ConnectionManager manager) throws IOException, ClassNotFoundException {
         // Make a new connection object
-        Connection connection = new Connection(socket, manager);
-        // Get log of current textevents
-        List<MyTextEvent> log = sequencer.getLog();
-        // Send a list of messages to the client and get the client object corresponding to the user
-        Client client = connection.sendServerHello(log);
+        Connection connection = manager.newConnection(socket);
+        // Add the connection before reading the log, so no event sequenced after the hello is missed.
+        // Events broadcast before the connection is started are queued, and those already sent
+        // in the hello are ignored by the client.
+        manager.addConnection(connection);
+        // Send the events the client has missed, or a snapshot, and get the client object corresponding to the user
+        Client client;
+        try {
+            client = connection.sendServerHello(sequencer);
+        } catch (IOException e) {
+            manager.removeConnection(connection);
+            throw e;
+        }
         // Start the connection threads for reading/writing textevents
         connection.start();
 
-        manager.addConnection(connection);
-
         for (Client c : manager.getClients()) {
             connection.sendClient(c);
         }
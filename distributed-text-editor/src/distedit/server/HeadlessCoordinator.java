@@ -0,0 +1,116 @@
+package distedit.server;
+
+import distedit.Editor;
+import distedit.event.history.DiscardingTextEventHistory;
+import distedit.event.sequencer.DocumentSnapshot;
+import distedit.event.sequencer.TextEventSequencer;
+import distedit.net.ConnectionManager;
+import distedit.net.strategies.ServerAcceptSocketStrategy;
+import distedit.net.strategies.ServerReceiveEventStrategy;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A coordinator that runs without a display, a text area or the event dispatch thread.
+ *
+ * It is assembled from the same parts as the coordinator of the {@link distedit.DistributedTextEditor}:
+ * a {@link TextEventSequencer}, whose document is the only copy of the text kept, and a {@link ConnectionManager}
+ * with the server strategies. Editors connect to it like to any other coordinator, and it always stays the
+ * coordinator, since only clients take part in elections.
+ *
+ * The same system properties as for the editor apply, like distedit.port, distedit.ioThreads,
+ * distedit.pipeline and distedit.journal, and the status is printed every distedit.server.statusIntervalMillis.
+ * As a long running daemon on a server, run it with a fixed heap and a collector with short pauses, e.g.:
+ *
+ * java -Xms1g -Xmx1g -XX:+UseG1GC -XX:MaxGCPauseMillis=20 -XX:+AlwaysPreTouch
+ *      -Ddistedit.port=40403 -Ddistedit.ioThreads=2 -Ddistedit.journal=journal distedit.server.HeadlessCoordinator
+ *
+ * @author DA4-03
+ * @version 2017-06-15
+ */
+public class HeadlessCoordinator implements Editor {
+    private static final long STATUS_INTERVAL_MILLIS = Long.getLong("distedit.server.statusIntervalMillis", 10000);
+
+    private final DiscardingTextEventHistory history = new DiscardingTextEventHistory();
+    private final TextEventSequencer sequencer;
+    private final ConnectionManager manager;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private String title;
+
+    public HeadlessCoordinator() {
+        sequencer = TextEventSequencer.forCoordinator(history);
+        manager = new ConnectionManager(this,
+                new ServerAcceptSocketStrategy(sequencer),
+                new ServerReceiveEventStrategy(sequencer),
+                history,
+                true,
+                Integer.getInteger("distedit.ioThreads", 0));
+        sequencer.setManager(manager);
+        if (Boolean.getBoolean("distedit.pipeline")) {
+            sequencer.startPipeline(Integer.getInteger("distedit.pipeline.bufferSize", 4096));
+        }
+    }
+
+    public void start() {
+        manager.start();
+        System.out.println("[HeadlessCoordinator] Coordinating on " + manager.getMyIP() + ":" + manager.getMyPort());
+    }
+
+    /**
+     * Disconnect the clients, close the journal if there is one, and release the threads waiting for the history
+     */
+    public void stop() {
+        manager.disconnect();
+        history.close();
+        stopped.countDown();
+    }
+
+    /**
+     * Print the status every interval, until stopped
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void awaitStop() throws InterruptedException {
+        while (!stopped.await(STATUS_INTERVAL_MILLIS, java.util.concurrent.TimeUnit.MILLISECONDS)) {
+            printStatus();
+        }
+    }
+
+    private void printStatus() {
+        DocumentSnapshot document = sequencer.getCurrentSnapshot();
+        System.out.println("[HeadlessCoordinator] " + (document.getSequenceNumber() + 1) + " events sequenced, "
+                + document.getDocument().length() + " characters, "
+                + manager.getConnectionQueueDepths().size() + " connections, "
+                + manager.getIncomingQueueDepth() + " events incoming, "
+                + manager.getOutgoingQueueDepth() + " events outgoing");
+    }
+
+    /**
+     * Print the status of the connection manager, when it changes
+     */
+    @Override
+    public synchronized void setTitle(String title) {
+        if (!title.equals(this.title)) {
+            this.title = title;
+            System.out.println("[HeadlessCoordinator] " + title);
+        }
+    }
+
+    /**
+     * A headless coordinator is the coordinator from the start, and never takes part in an election
+     */
+    @Override
+    public void becomeServer() {
+    }
+
+    public ConnectionManager getManager() {
+        return manager;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        HeadlessCoordinator coordinator = new HeadlessCoordinator();
+        coordinator.start();
+        // Close the journal and the connections cleanly when the process is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(coordinator::stop, "coordinator-shutdown"));
+        coordinator.awaitStop();
+    }
+}
@@ -1,27 +1,231 @@
 package distedit.threads;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Created by fuve on 31/05/2017.
+ * Runs the long running tasks of an owner, like the loops of a connection, and stops them all at once.
+ *
+ * Tasks are run by one of two executors, shared by every thread manager, chosen with the system property
+ * distedit.threads:
+ * <ul>
+ *     <li>PLATFORM (the default): a pool of platform threads, that are reused when a task ends</li>
+ *     <li>VIRTUAL: a virtual thread per task, so blocking on a socket is cheap and thousands of connections
+ *         can each have their own threads. Falls back to PLATFORM on a Java runtime without virtual threads.</li>
+ * </ul>
+ * Threads created elsewhere, like the I/O threads of a selector, can be added to be stopped with the tasks.
+ *
+ * {@link #stop()} interrupts every task at once and then waits for all of them against one deadline,
+ * so a task that does not respond to the interrupt cannot hold up the others, nor block forever.
+ *
+ * @author fuve, DA4-03
+ * @version 2017-06-09
  */
 public class ThreadManager {
-    private List<Thread> threads = new ArrayList<>();
+    public enum Mode { PLATFORM, VIRTUAL }
 
-    public void add(Thread t) {
+    private static final Mode MODE = Mode.valueOf(System.getProperty("distedit.threads", Mode.PLATFORM.name()));
+    // How long stop() waits for the tasks to end after interrupting them
+    private static final long STOP_TIMEOUT_MILLIS = Long.getLong("distedit.threads.stopTimeoutMillis", 2000);
+
+    private static ExecutorService platformExecutor;
+    private static ExecutorService virtualExecutor;
+    private static boolean virtualThreadsLookedUp;
+
+    private final Mode mode;
+    private final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Construct a thread manager running tasks in the mode given by the system property distedit.threads
+     */
+    public ThreadManager() {
+        this(MODE);
+    }
+
+    public ThreadManager(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Run a task in its own thread, until it ends or is stopped
+     * @param name the name of the thread while it runs the task
+     * @param runnable the task, which should end when its thread is interrupted
+     */
+    public void start(String name, Runnable runnable) {
+        Task task = new Task(name, runnable);
+        tasks.add(task);
+        try {
+            executorFor(mode).execute(task);
+        } catch (RejectedExecutionException e) {
+            tasks.remove(task);
+            throw e;
+        }
+    }
+
+    /**
+     * Add a thread, that is started by the caller, to be stopped with the tasks
+     * @param t the thread
+     */
+    public synchronized void add(Thread t) {
         threads.add(t);
     }
 
+    /**
+     * Interrupt every task and thread, and wait up to the default deadline for them to end
+     */
     public void stop() {
+        stop(STOP_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Interrupt every task and thread, and wait up to the given time for all of them to end
+     * @param timeoutMillis the time to wait in total
+     * @return true if everything ended in time
+     */
+    public boolean stop(long timeoutMillis) {
+        List<Thread> threads;
+        synchronized (this) {
+            threads = new ArrayList<>(this.threads);
+            this.threads.clear();
+        }
+        List<Task> tasks = new ArrayList<>(this.tasks);
+
+        // Interrupt everything first, so all of them stop in parallel
         for (Thread t : threads) {
             t.interrupt();
+        }
+        for (Task task : tasks) {
+            task.interrupt();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int running = 0;
+        try {
+            for (Thread t : threads) {
+                t.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                if (t.isAlive()) {
+                    System.out.println("[ThreadManager] Thread " + t.getName() + " did not stop in time.");
+                    running++;
+                }
+            }
+            for (Task task : tasks) {
+                if (!task.done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    System.out.println("[ThreadManager] Task " + task.name + " did not stop in time.");
+                    running++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (running == 0) {
+            System.out.println("Successfully stopped all threads!");
+        }
+        return running == 0;
+    }
+
+    /**
+     * @return the number of tasks that have not yet ended
+     */
+    public int getTaskCount() {
+        return tasks.size();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    private static synchronized ExecutorService executorFor(Mode mode) {
+        if (mode == Mode.VIRTUAL) {
+            if (!virtualThreadsLookedUp) {
+                virtualExecutor = newVirtualThreadExecutor();
+                virtualThreadsLookedUp = true;
+            }
+            if (virtualExecutor != null) {
+                return virtualExecutor;
+            }
+        }
+        if (platformExecutor == null) {
+            AtomicInteger count = new AtomicInteger();
+            platformExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "distedit-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return platformExecutor;
+    }
+
+    /**
+     * Look up the virtual thread executor at runtime, so the editor still builds and runs on older Java versions
+     * @return the executor, or null if the runtime has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            System.out.println("[ThreadManager] Virtual threads are not available, using platform threads.");
+            return null;
+        }
+    }
+
+    /**
+     * A task, that can be interrupted before or while it runs, and tells when it has ended
+     */
+    private class Task implements Runnable {
+        private final String name;
+        private final Runnable runnable;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Thread runner;
+        private volatile boolean interrupted;
+
+        private Task(String name, Runnable runnable) {
+            this.name = name;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            Thread current = Thread.currentThread();
+            String poolName = current.getName();
+            current.setName(name);
+            runner = current;
+            if (interrupted) {
+                current.interrupt();
+            }
             try {
-                t.join();
-            } catch (InterruptedException e) {
+                runnable.run();
+            } catch (RuntimeException e) {
                 e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // Do not hand an interrupt on to the next task of a pooled thread
+                    Thread.interrupted();
+                }
+                current.setName(poolName);
+                tasks.remove(this);
+                done.countDown();
+            }
+        }
+
+        private synchronized void interrupt() {
+            interrupted = true;
+            Thread t = runner;
+            if (t != null) {
+                t.interrupt();
             }
         }
-            System.out.println("Successfully stopped all threads!");
     }
 }
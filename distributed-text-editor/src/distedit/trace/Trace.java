@@ -0,0 +1,70 @@
+package distedit.trace;
+
+import distedit.event.MyTextEvent;
+
+/**
+ * Timestamps carried on a {@link MyTextEvent}, telling when it passed each stage on its way from the keypress
+ * of one user to the text area of another. Run with -Ddistedit.trace=true to trace the events typed in an editor.
+ * The coordinator and the other clients stamp the events that are traced, whether or not they trace their own.
+ *
+ * The timestamps are in nanoseconds since the epoch, measured with System.nanoTime from a point in the wall clock
+ * taken when the class is loaded. Hops between two processes on the same host are measured exactly, while hops
+ * between hosts include the difference between their clocks.
+ *
+ * @author DA4-03
+ * @version 2017-06-18
+ */
+public final class Trace {
+    // The stages, in the order an event passes them
+    public static final int CAPTURE = 0;
+    public static final int DISPATCH = 1;
+    public static final int COORDINATOR_RECEIVE = 2;
+    public static final int SEQUENCE = 3;
+    public static final int BROADCAST = 4;
+    public static final int CLIENT_RECEIVE = 5;
+    public static final int APPLY = 6;
+    public static final int STAGES = 7;
+
+    static final String[] STAGE_NAMES = {
+            "capture", "dispatch", "coordinator receive", "sequence", "broadcast", "client receive", "apply"};
+
+    public static final boolean ENABLED = Boolean.getBoolean("distedit.trace");
+
+    private static final long EPOCH_OFFSET = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+    private Trace() {
+    }
+
+    /**
+     * @return the time in nanoseconds since the epoch
+     */
+    public static long now() {
+        return System.nanoTime() + EPOCH_OFFSET;
+    }
+
+    /**
+     * Start tracing an event that has just been captured, if tracing is enabled
+     * @param event the event
+     * @return the event
+     */
+    public static <E extends MyTextEvent> E start(E event) {
+        if (ENABLED) {
+            long[] trace = new long[STAGES];
+            trace[CAPTURE] = now();
+            event.setTrace(trace);
+        }
+        return event;
+    }
+
+    /**
+     * Stamp the time at which an event passes a stage, if the event is traced
+     * @param event the event
+     * @param stage the stage
+     */
+    public static void stamp(MyTextEvent event, int stage) {
+        long[] trace = event.getTrace();
+        if (trace != null) {
+            trace[stage] = now();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package distedit.trace;
+
+import distedit.event.MyTextEvent;
+
+/**
+ * Aggregates the traces of the events a client applies into a {@link LatencyHistogram} per hop between
+ * two stages, and one from the keypress to the text area, to find where the time goes.
+ * Hops are skipped when a stage was not passed, like the hops through the network for events typed at the coordinator.
+ *
+ * @author DA4-03
+ * @version 2017-06-18
+ */
+public class TraceRecorder {
+    private static final int[][] HOPS = {
+            {Trace.CAPTURE, Trace.DISPATCH},
+            {Trace.DISPATCH, Trace.COORDINATOR_RECEIVE},
+            {Trace.COORDINATOR_RECEIVE, Trace.SEQUENCE},
+            {Trace.SEQUENCE, Trace.BROADCAST},
+            {Trace.BROADCAST, Trace.CLIENT_RECEIVE},
+            {Trace.CLIENT_RECEIVE, Trace.APPLY},
+            {Trace.CAPTURE, Trace.APPLY}
+    };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[HOPS.length];
+
+    public TraceRecorder() {
+        for (int i = 0; i < HOPS.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record the hops of a traced event, that has just been applied
+     * @param event the event
+     * @param appliedAt the time it was applied, from {@link Trace#now()}
+     */
+    public void record(MyTextEvent event, long appliedAt) {
+        long[] trace = event.getTrace();
+        if (trace == null) {
+            return;
+        }
+        for (int i = 0; i < HOPS.length; i++) {
+            long from = trace[HOPS[i][0]];
+            long to = HOPS[i][1] == Trace.APPLY ? appliedAt : trace[HOPS[i][1]];
+            if (from != 0 && to != 0) {
+                histograms[i].record(to - from);
+            }
+        }
+    }
+
+    /**
+     * Add the histograms of another recorder to this one
+     * @param other the other recorder
+     */
+    public void add(TraceRecorder other) {
+        for (int i = 0; i < HOPS.length; i++) {
+            histograms[i].add(other.histograms[i]);
+        }
+    }
+
+    /**
+     * @return a table of the count and the percentiles of every hop, in milliseconds
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-42s %9s %9s %9s %9s %9s%n",
+                "Hop (ms)", "count", "p50", "p99", "p99.9", "max"));
+        for (int i = 0; i < HOPS.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            report.append(String.format("%-42s %9d %9.3f %9.3f %9.3f %9.3f%n",
+                    Trace.STAGE_NAMES[HOPS[i][0]] + " -> " + Trace.STAGE_NAMES[HOPS[i][1]],
+                    histogram.getCount(),
+                    histogram.getPercentile(0.5) / 1e6,
+                    histogram.getPercentile(0.99) / 1e6,
+                    histogram.getPercentile(0.999) / 1e6,
+                    histogram.getMax() / 1e6));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Print the report every interval in a daemon thread
+     * @param intervalMillis the interval in milliseconds
+     */
+    public void startReporting(long intervalMillis) {
+        Thread reporter = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(intervalMillis);
+                    System.out.print("[TraceRecorder] Latency of the events applied so far\n" + report());
+                }
+            } catch (InterruptedException e) {
+                System.out.println("[TraceRecorder] Reporter interrupted.");
+            }
+        }, "trace-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+}
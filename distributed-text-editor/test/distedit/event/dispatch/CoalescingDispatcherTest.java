@@ -0,0 +1,125 @@
+package distedit.event.dispatch;
+
+import distedit.event.MyTextEvent;
+import distedit.event.TextEventTransformer;
+import distedit.event.TextInsertEvent;
+import distedit.event.TextRemoveEvent;
+import distedit.event.history.DiscardingTextEventHistory;
+import distedit.event.sequencer.TextEventSequencer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that the {@link CoalescingDispatcher} gives the sequencer the same document with and without merging,
+ * for events that are not applied locally, so consecutive events are based on the same document.
+ *
+ * @author DA4-03
+ * @version 2017-06-19
+ */
+public class CoalescingDispatcherTest {
+    private static final String TEXT = "0123456789";
+    // The events under test are based on the event that inserts the text
+    private static final int BASED_ON = 0;
+
+    @Test
+    public void twoBackspacesAtTheSameCaretRemoveOneCharacter() throws InterruptedException {
+        MyTextEvent merged = CoalescingDispatcher.merge(new TextRemoveEvent(4, 1, BASED_ON),
+                new TextRemoveEvent(4, 1, BASED_ON));
+
+        assertNotNull(merged);
+        assertEquals(4, merged.getOffset());
+        assertEquals(1, ((TextRemoveEvent) merged).getLength());
+        assertSameAsSequencer("012356789", new TextRemoveEvent(4, 1, BASED_ON), new TextRemoveEvent(4, 1, BASED_ON));
+    }
+
+    @Test
+    public void backspaceBeforeARemovedRangeWidensTheRange() throws InterruptedException {
+        MyTextEvent merged = CoalescingDispatcher.merge(new TextRemoveEvent(4, 1, BASED_ON),
+                new TextRemoveEvent(3, 1, BASED_ON));
+
+        assertNotNull(merged);
+        assertEquals(3, merged.getOffset());
+        assertEquals(2, ((TextRemoveEvent) merged).getLength());
+        assertSameAsSequencer("01256789", new TextRemoveEvent(4, 1, BASED_ON), new TextRemoveEvent(3, 1, BASED_ON));
+    }
+
+    @Test
+    public void overlappingRemovesRemoveTheUnion() throws InterruptedException {
+        assertSameAsSequencer("01789", new TextRemoveEvent(4, 3, BASED_ON), new TextRemoveEvent(2, 4, BASED_ON));
+    }
+
+    @Test
+    public void separateRemovesAreNotMerged() throws InterruptedException {
+        assertNull(CoalescingDispatcher.merge(new TextRemoveEvent(4, 1, BASED_ON),
+                new TextRemoveEvent(2, 1, BASED_ON)));
+        assertSameAsSequencer("01356789", new TextRemoveEvent(4, 1, BASED_ON), new TextRemoveEvent(2, 1, BASED_ON));
+    }
+
+    @Test
+    public void insertsAtTheSameOffsetAreConcatenated() throws InterruptedException {
+        MyTextEvent merged = CoalescingDispatcher.merge(new TextInsertEvent(0, "a", BASED_ON),
+                new TextInsertEvent(0, "b", BASED_ON));
+
+        assertNotNull(merged);
+        assertEquals(0, merged.getOffset());
+        assertEquals("ab", ((TextInsertEvent) merged).getText());
+        assertSameAsSequencer("ab0123456789", new TextInsertEvent(0, "a", BASED_ON), new TextInsertEvent(0, "b", BASED_ON));
+    }
+
+    @Test
+    public void insertAfterTheTextOfTheFirstInsertIsNotConcatenated() throws InterruptedException {
+        assertNull(CoalescingDispatcher.merge(new TextInsertEvent(0, "a", BASED_ON),
+                new TextInsertEvent(1, "b", BASED_ON)));
+        assertSameAsSequencer("a0b123456789", new TextInsertEvent(0, "a", BASED_ON), new TextInsertEvent(1, "b", BASED_ON));
+    }
+
+    @Test
+    public void eventsBasedOnDifferentEventsAreNotMerged() {
+        assertNull(CoalescingDispatcher.merge(new TextInsertEvent(0, "a", BASED_ON),
+                new TextInsertEvent(0, "b", BASED_ON + 1)));
+    }
+
+    @Test
+    public void mergedEventIsDispatchedWhenItReachesTheMaximumLength() throws InterruptedException {
+        TextEventSequencer sequencer = newSequencer();
+        CoalescingDispatcher dispatcher = new CoalescingDispatcher(new ServerDispatcher(sequencer), 60000, 2);
+        try {
+            dispatcher.dispatch(new TextInsertEvent(0, "a", BASED_ON));
+            dispatcher.dispatch(new TextInsertEvent(0, "b", BASED_ON));
+            assertEquals("ab" + TEXT, sequencer.getCurrentSnapshot().getDocument().toString());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * Sequence the events one by one, and through a coalescing dispatcher, and check both give the expected text
+     */
+    private static void assertSameAsSequencer(String expected, MyTextEvent... events) throws InterruptedException {
+        TextEventSequencer separate = newSequencer();
+        for (MyTextEvent event : events) {
+            separate.sequenceEvent(TextEventTransformer.copy(event));
+        }
+        assertEquals(expected, separate.getCurrentSnapshot().getDocument().toString());
+
+        TextEventSequencer coalesced = newSequencer();
+        CoalescingDispatcher dispatcher = new CoalescingDispatcher(new ServerDispatcher(coalesced), 60000, 256);
+        for (MyTextEvent event : events) {
+            dispatcher.dispatch(TextEventTransformer.copy(event));
+        }
+        dispatcher.close();
+        assertEquals(expected, coalesced.getCurrentSnapshot().getDocument().toString());
+    }
+
+    /**
+     * @return a sequencer whose document is the text, inserted by the event the events under test are based on
+     */
+    private static TextEventSequencer newSequencer() throws InterruptedException {
+        TextEventSequencer sequencer = new TextEventSequencer(new DiscardingTextEventHistory());
+        sequencer.sequenceEvent(new TextInsertEvent(0, TEXT, -1));
+        return sequencer;
+    }
+}
@@ -31,6 +31,14 @@ public class RSACryptoSystem {
      * to find suitable primes.
      */
     public static RSAKeyPair keyGen(int k) {
+        return keyGen(k, random);
+    }
+
+    /**
+     * Returns an RSAKeyPair like keyGen(k), with the primes drawn from the
+     * given source of randomness, so a seeded Random gives the same key every time.
+     */
+    public static RSAKeyPair keyGen(int k, Random random) {
         
         // Step1.: Generate random prime p, where gcd(p - 1, 3) = 1
 